@@ -0,0 +1,30 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the recorded responses in src/main/resources/fixtures
+ *
+ * @author DeBukkIt
+ *
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	static String load(String name) {
+		try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+			if (in == null) {
+				throw new IllegalStateException("Missing fixture " + name);
+			}
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reads and writes of a GeoCache holding <i>size</i> positions and as many
+ * routes in a file, in memory or off-heap
+ *
+ * @author DeBukkIt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GeoCacheBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int size;
+
+	@Param({ "file", "memory", "mapped" })
+	public String store;
+
+	private File file;
+	private GeoCache cache;
+	private String[] addresses;
+	private GeoLocation[] locations;
+	private GeoRoute route;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = File.createTempFile("geocache", ".db");
+		file.delete();
+		switch (store) {
+		case "memory":
+			cache = new GeoCache(new MemoryCacheStore(), GeoCache.ONE_YEAR);
+			break;
+		case "mapped":
+			cache = new GeoCache(new MappedCacheStore(file, size * 2), GeoCache.ONE_YEAR);
+			break;
+		default:
+			cache = new GeoCache(file, GeoCache.ONE_YEAR);
+		}
+		cache.setMetrics(GeoMetrics.NONE);
+
+		addresses = new String[size];
+		locations = new GeoLocation[size];
+		for (int i = 0; i < size; i++) {
+			addresses[i] = "Musterstrasse " + i + ", 48143 M\u00fcnster";
+			locations[i] = new GeoLocation(51.9 + i * 1e-5, 7.6 + i * 1e-5);
+			cache.cacheStorePosition(addresses[i], locations[i]);
+		}
+		route = GeoRouter.parseOSRMRoute(Fixtures.load("osrm-route-polyline6.json"));
+		for (int i = 0; i < size; i++) {
+			cache.cacheStoreRoute(locations[i], locations[(i + 1) % size], route);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		cache.getStore().close();
+		file.delete();
+		new File(file.getPath() + ".data.0").delete();
+	}
+
+	private int nextIndex() {
+		next = next + 1 == size ? 0 : next + 1;
+		return next;
+	}
+
+	@Benchmark
+	public GeoLocation readPositionHit() {
+		return cache.cacheReadPosition(addresses[nextIndex()]);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public GeoLocation readPositionHitAllCores() {
+		return cache.cacheReadPosition(addresses[ThreadLocalRandom.current().nextInt(size)]);
+	}
+
+	@Benchmark
+	public GeoLocation readPositionMiss() {
+		return cache.cacheReadPosition("Unbekannte Strasse " + nextIndex());
+	}
+
+	@Benchmark
+	public GeoRoute readRouteHit() {
+		int i = nextIndex();
+		return cache.cacheReadRoute(locations[i], locations[(i + 1) % size]);
+	}
+
+	@Benchmark
+	public void storePosition() {
+		int i = nextIndex();
+		cache.cacheStorePosition(addresses[i], locations[i]);
+	}
+
+}
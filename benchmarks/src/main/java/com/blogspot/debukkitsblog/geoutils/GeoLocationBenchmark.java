@@ -0,0 +1,121 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Distance calculation, cell encoding, String representation and cache key
+ * generation of GeoLocations
+ *
+ * @author DeBukkIt
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GeoLocationBenchmark {
+
+	private static final int BATCH_SIZE = 1000;
+
+	private GeoLocation origin;
+	private GeoLocation destination;
+	private GeoLocation[] batch;
+	private GeoLocation named;
+	private GeoLocation address;
+	private GeoLocation immutableAddress;
+
+	@Setup
+	public void setUp() {
+		origin = new GeoLocation(51.9607, 7.6261);
+		destination = new GeoLocation(51.5136, 7.4653);
+		Random random = new Random(42);
+		batch = new GeoLocation[BATCH_SIZE];
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			batch[i] = new GeoLocation(51.5 + random.nextDouble(), 7 + random.nextDouble());
+		}
+		named = new GeoLocation("Prinzipalmarkt", 51.9619, 7.6282);
+		address = new GeoLocation(51.9619, 7.6282, "Prinzipalmarkt 10", "48143", "Altstadt", "M\u00fcnster",
+				"Regierungsbezirk M\u00fcnster", "Nordrhein-Westfalen", "Deutschland");
+		immutableAddress = ImmutableGeoLocation.of(address);
+	}
+
+	@Benchmark
+	public float distanceTo() {
+		return origin.distanceTo(destination);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void distanceToBatch(Blackhole blackhole) {
+		for (GeoLocation location : batch) {
+			blackhole.consume(origin.distanceTo(location));
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void zOrderBatch(Blackhole blackhole) {
+		for (GeoLocation location : batch) {
+			blackhole.consume(GeoCell.zOrder(location));
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void hilbertBatch(Blackhole blackhole) {
+		for (GeoLocation location : batch) {
+			blackhole.consume(GeoCell.hilbert(location));
+		}
+	}
+
+	@Benchmark
+	public String geohash() {
+		return GeoCell.geohash(origin, GeoCell.MAX_GEOHASH_LENGTH);
+	}
+
+	@Benchmark
+	public String toStringCoordinates() {
+		return origin.toString();
+	}
+
+	@Benchmark
+	public String toStringNamed() {
+		return named.toString();
+	}
+
+	@Benchmark
+	public String toStringAddress() {
+		return address.toString();
+	}
+
+	@Benchmark
+	public String toStringImmutableAddress() {
+		return immutableAddress.toString();
+	}
+
+	@Benchmark
+	public String routeCacheKey() {
+		return GeoCache.routeKey(origin, address);
+	}
+
+	@Benchmark
+	public String routeCacheKeyImmutable() {
+		return GeoCache.routeKey(origin, immutableAddress);
+	}
+
+}
@@ -0,0 +1,204 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives the GeoCoder and GeoRouter against local {@link StandInServer}s at a
+ * fixed concurrency and reports throughput, latency percentiles and the
+ * provider, fallback and cache metrics collected meanwhile. Everything runs
+ * offline.
+ * <p>
+ * Options are given as <i>key=value</i> arguments:
+ * <ul>
+ * <li>scenario: geocode, route, table or mixed (default)</li>
+ * <li>concurrency: the number of caller threads (16)</li>
+ * <li>duration, warmup: the measured and the warm-up time in seconds (30,
+ * 5)</li>
+ * <li>cache: true to pass a GeoCache (false)</li>
+ * <li>locations: the number of distinct addresses and locations used, which
+ * determines the cache hit rate (1000)</li>
+ * <li>tableSize: the number of locations per table request (25)</li>
+ * <li>latency, jitter, errorRate, errorStatus, points, padding: the
+ * {@link StandInProfile} of all stand-in servers; prefix them with osrm-local.,
+ * osrm-demo., mapquest. or locationiq. to configure a single server, e.g.
+ * osrm-local.errorRate=0.2 to exercise the fallback to the demo server</li>
+ * </ul>
+ * Example: <code>java -cp target/benchmarks.jar
+ * com.blogspot.debukkitsblog.geoutils.LoadTest scenario=route concurrency=64
+ * cache=true osrm-local.errorRate=0.1</code>
+ *
+ * @author DeBukkIt
+ *
+ */
+public class LoadTest {
+
+	private static final String[] SCENARIOS = { "geocode", "route", "table" };
+
+	private final Map<String, String> options;
+	private final GeoRouter router;
+	private final GeoCache cache;
+	private final List<String> addresses = new ArrayList<>();
+	private final List<GeoLocation> locations = new ArrayList<>();
+	private final int tableSize;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder failures = new LongAdder();
+	private volatile boolean measuring;
+
+	private LoadTest(Map<String, String> options, GeoRouter router, GeoCache cache) {
+		this.options = options;
+		this.router = router;
+		this.cache = cache;
+		this.tableSize = Integer.parseInt(options.getOrDefault("tableSize", "25"));
+
+		// fixed pools of inputs, so repeated calls can hit the cache
+		Random random = new Random(42);
+		int count = Integer.parseInt(options.getOrDefault("locations", "1000"));
+		for (int i = 0; i < count; i++) {
+			addresses.add("Stand-in Road " + i + ", 48143 M\u00fcnster");
+			locations.add(new GeoLocation(51.86 + random.nextDouble() * 0.2, 7.47 + random.nextDouble() * 0.3));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			int separator = arg.indexOf('=');
+			if (separator < 1) {
+				System.err.println("Ignoring malformed option '" + arg + "', expected key=value");
+				continue;
+			}
+			options.put(arg.substring(0, separator), arg.substring(separator + 1));
+		}
+
+		try (StandInServer osrmLocal = new StandInServer(0, StandInProfile.fromOptions(options, "osrm-local"));
+				StandInServer osrmDemo = new StandInServer(0, StandInProfile.fromOptions(options, "osrm-demo"));
+				StandInServer mapQuest = new StandInServer(0, StandInProfile.fromOptions(options, "mapquest"));
+				StandInServer locationIQ = new StandInServer(0, StandInProfile.fromOptions(options, "locationiq"))) {
+
+			GeoCoder.setServiceUrls(mapQuest.getUrl(), locationIQ.getUrl());
+			APIKeyManager.addAPIKey("mapquest", "load-test", 0);
+			APIKeyManager.addAPIKey("locationiq", "load-test", 0);
+			GeoRouter router = new GeoRouter(false);
+			router.setOSRMServerUrls(osrmLocal.getUrl(), osrmDemo.getUrl());
+
+			GeoCache cache = null;
+			File cacheFile = null;
+			if (Boolean.parseBoolean(options.getOrDefault("cache", "false"))) {
+				cacheFile = File.createTempFile("loadtest", ".cache");
+				cacheFile.delete();
+				cache = new GeoCache(cacheFile, GeoCache.ONE_DAY);
+			}
+
+			System.out.println("Stand-in servers:");
+			System.out.println("  osrm-local  " + StandInProfile.fromOptions(options, "osrm-local"));
+			System.out.println("  osrm-demo   " + StandInProfile.fromOptions(options, "osrm-demo"));
+			System.out.println("  mapquest    " + StandInProfile.fromOptions(options, "mapquest"));
+			System.out.println("  locationiq  " + StandInProfile.fromOptions(options, "locationiq"));
+
+			new LoadTest(options, router, cache).run();
+
+			if (cacheFile != null) {
+				cacheFile.delete();
+			}
+		}
+	}
+
+	private void run() throws InterruptedException {
+		String scenario = options.getOrDefault("scenario", "mixed");
+		if (!scenario.equals("mixed") && !List.of(SCENARIOS).contains(scenario)) {
+			throw new IllegalArgumentException("Unknown scenario '" + scenario + "'");
+		}
+		int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+		long warmupMillis = Long.parseLong(options.getOrDefault("warmup", "5")) * 1000;
+		long durationMillis = Long.parseLong(options.getOrDefault("duration", "30")) * 1000;
+
+		ExecutorService callers = Executors.newFixedThreadPool(concurrency);
+		long end = System.currentTimeMillis() + warmupMillis + durationMillis;
+		for (int t = 0; t < concurrency; t++) {
+			callers.execute(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (System.currentTimeMillis() < end) {
+					String operation = scenario.equals("mixed") ? SCENARIOS[random.nextInt(SCENARIOS.length)]
+							: scenario;
+					long start = System.nanoTime();
+					boolean success;
+					try {
+						success = call(operation, random);
+					} catch (Exception e) {
+						success = false;
+					}
+					if (measuring) {
+						latency.record(System.nanoTime() - start);
+						if (!success) {
+							failures.increment();
+						}
+					}
+				}
+			});
+		}
+
+		System.out.println("Warming up for " + warmupMillis / 1000 + " s...");
+		Thread.sleep(warmupMillis);
+		MetricsRegistry.getDefault().reset();
+		measuring = true;
+		long measureStart = System.nanoTime();
+		System.out.println("Measuring '" + scenario + "' at concurrency " + concurrency + " for "
+				+ durationMillis / 1000 + " s...");
+		callers.shutdown();
+		callers.awaitTermination(durationMillis + 60_000, TimeUnit.MILLISECONDS);
+		measuring = false;
+		double seconds = (System.nanoTime() - measureStart) / 1e9;
+
+		report(seconds);
+	}
+
+	/**
+	 * Performs one operation
+	 *
+	 * @return false if it yielded no result
+	 */
+	private boolean call(String operation, ThreadLocalRandom random) throws IOException {
+		switch (operation) {
+		case "geocode":
+			return GeoCoder.find(addresses.get(random.nextInt(addresses.size())), cache) != null;
+		case "route":
+			GeoLocation from = locations.get(random.nextInt(locations.size()));
+			GeoLocation to = locations.get(random.nextInt(locations.size()));
+			return router.calculateRoute(from, to, cache) != null;
+		case "table":
+			List<GeoLocation> table = new ArrayList<>(tableSize);
+			for (int i = 0; i < tableSize; i++) {
+				table.add(locations.get(random.nextInt(locations.size())));
+			}
+			return router.calculateDurationTable(table).length == tableSize;
+		default:
+			throw new IllegalArgumentException("Unknown scenario '" + operation + "'");
+		}
+	}
+
+	private void report(double seconds) {
+		long count = latency.getCount();
+		System.out.println();
+		System.out.printf("operations  %d (%d failed)%n", count, failures.sum());
+		System.out.printf("throughput  %.1f ops/s%n", count / seconds);
+		System.out.printf("latency     mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+				latency.getMean() / 1000, latency.getValueAtPercentile(50) / 1000.0,
+				latency.getValueAtPercentile(90) / 1000.0, latency.getValueAtPercentile(99) / 1000.0,
+				latency.getValueAtPercentile(99.9) / 1000.0, latency.getMax() / 1000.0);
+		System.out.println();
+		System.out.print(MetricsRegistry.getDefault().scrape());
+	}
+
+}
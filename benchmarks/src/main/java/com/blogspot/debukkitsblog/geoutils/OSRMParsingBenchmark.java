@@ -0,0 +1,58 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of recorded OSRM route and table responses. The route fixtures
+ * contain the same 1500-point route, once as GeoJSON steps and once as a
+ * polyline6 overview without steps.
+ *
+ * @author DeBukkIt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OSRMParsingBenchmark {
+
+	private String routeGeoJson;
+	private String routePolyline6;
+	private String table;
+
+	@Setup
+	public void setUp() {
+		routeGeoJson = Fixtures.load("osrm-route-geojson.json");
+		routePolyline6 = Fixtures.load("osrm-route-polyline6.json");
+		table = Fixtures.load("osrm-table-100x100.json");
+	}
+
+	@Benchmark
+	public GeoRoute parseRouteGeoJson() {
+		return GeoRouter.parseOSRMRoute(routeGeoJson);
+	}
+
+	@Benchmark
+	public GeoRoute parseRoutePolyline6() {
+		return GeoRouter.parseOSRMRoute(routePolyline6);
+	}
+
+	@Benchmark
+	public float[][] parseTable() {
+		return GeoRouter.parseOSRMTable(table);
+	}
+
+}
@@ -0,0 +1,57 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Selection of the shortest of <i>size</i> routes, as done after a matrix
+ * calculation
+ *
+ * @author DeBukkIt
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ShortestRouteBenchmark {
+
+	@Param({ "100", "10000", "1000000" })
+	public int size;
+
+	private GeoRouter router;
+	private GeoRoute[] routes;
+
+	@Setup
+	public void setUp() {
+		router = new GeoRouter(false);
+		GeoLocation destination = new GeoLocation(51.9607, 7.6261);
+		Random random = new Random(42);
+		routes = new GeoRoute[size];
+		for (int i = 0; i < size; i++) {
+			GeoLocation start = new GeoLocation(51.5 + random.nextDouble(), 7 + random.nextDouble());
+			// distinct durations, like those of a real matrix
+			routes[i] = new GeoRoute(start, destination, 600 + random.nextFloat() * 3600 + i * 1e-3f, -2.0f);
+		}
+	}
+
+	@Benchmark
+	public GeoRoute getShortestRoute() {
+		return router.getShortestRoute(routes);
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Map;
+
+/**
+ * How a {@link StandInServer} behaves: how long it takes to answer, how often
+ * it fails and how large its responses are
+ *
+ * @author DeBukkIt
+ *
+ */
+public class StandInProfile {
+
+	/** the minimum time to answer in milliseconds */
+	public int latencyMillis = 5;
+	/** a random extra time to answer of up to this many milliseconds */
+	public int jitterMillis = 5;
+	/** the share of requests answered with {@link #errorStatus} */
+	public double errorRate;
+	/** the HTTP status of failed requests */
+	public int errorStatus = 500;
+	/** the number of geometry points per route leg */
+	public int points = 200;
+	/** the number of filler bytes added to every response */
+	public int padding;
+
+	/**
+	 * Reads a profile from options. Options named <i>prefix</i>.<i>key</i>
+	 * override those named <i>key</i>, which override the defaults.
+	 *
+	 * @param options The options, e.g. from the command line
+	 * @param prefix  The name of the server, e.g. "mapquest"
+	 * @return the profile
+	 */
+	public static StandInProfile fromOptions(Map<String, String> options, String prefix) {
+		StandInProfile profile = new StandInProfile();
+		profile.latencyMillis = Integer.parseInt(option(options, prefix, "latency", profile.latencyMillis));
+		profile.jitterMillis = Integer.parseInt(option(options, prefix, "jitter", profile.jitterMillis));
+		profile.errorRate = Double.parseDouble(option(options, prefix, "errorRate", profile.errorRate));
+		profile.errorStatus = Integer.parseInt(option(options, prefix, "errorStatus", profile.errorStatus));
+		profile.points = Integer.parseInt(option(options, prefix, "points", profile.points));
+		profile.padding = Integer.parseInt(option(options, prefix, "padding", profile.padding));
+		return profile;
+	}
+
+	private static String option(Map<String, String> options, String prefix, String key, Object defaultValue) {
+		String value = options.get(prefix + "." + key);
+		if (value == null) {
+			value = options.get(key);
+		}
+		return value != null ? value : String.valueOf(defaultValue);
+	}
+
+	@Override
+	public String toString() {
+		return "[latency " + latencyMillis + "+" + jitterMillis + " ms, error rate " + errorRate + " (HTTP "
+				+ errorStatus + "), " + points + " points per leg, " + padding + " bytes padding]";
+	}
+
+}
@@ -0,0 +1,339 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-JVM HTTP server imitating the OSRM /route and /table endpoints and the
+ * MapQuest and LocationIQ geocoding APIs closely enough for the GeoCoder and
+ * GeoRouter to parse its answers. Responses are synthesized from the requested
+ * coordinates and addresses; latency, failures and response sizes follow a
+ * {@link StandInProfile}.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class StandInServer implements AutoCloseable {
+
+	// OSRM reports durations at roughly 50 km/h on a detour factor of 1.3
+	private static final double METERS_PER_SECOND = 13.9 / 1.3;
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final StandInProfile profile;
+
+	/**
+	 * Starts a stand-in server on the loopback interface
+	 *
+	 * @param port    The port to listen on; 0 for any free port
+	 * @param profile The behavior of the server
+	 * @throws IOException if the server could not be started
+	 */
+	public StandInServer(int port, StandInProfile profile) throws IOException {
+		this.profile = profile;
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		server.createContext("/route/v1/driving/", exchange -> handle(exchange, this::route));
+		server.createContext("/table/v1/driving/", exchange -> handle(exchange, this::table));
+		server.createContext("/geocoding/v1/address", exchange -> handle(exchange, this::mapQuest));
+		server.createContext("/v1/search.php", exchange -> handle(exchange, this::locationIQ));
+		// answers are delayed by sleeping, so every request needs its own thread
+		executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "stand-in-" + server.getAddress().getPort());
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the base URL to pass to the GeoCoder or GeoRouter
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private interface Responder {
+		String respond(URI uri);
+	}
+
+	private void handle(HttpExchange exchange, Responder responder) throws IOException {
+		try {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			int delay = profile.latencyMillis + (profile.jitterMillis > 0 ? random.nextInt(profile.jitterMillis + 1) : 0);
+			if (delay > 0) {
+				Thread.sleep(delay);
+			}
+			int status = 200;
+			String body;
+			if (random.nextDouble() < profile.errorRate) {
+				status = profile.errorStatus;
+				body = "{\"code\":\"Error\",\"message\":\"Injected failure\"}";
+			} else {
+				body = responder.respond(exchange.getRequestURI());
+			}
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (RuntimeException e) {
+			byte[] bytes = ("{\"code\":\"InvalidQuery\",\"message\":\"" + e + "\"}").getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(400, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Answers a route request with straight legs between the stops, split into
+	 * steps if requested
+	 */
+	private String route(URI uri) {
+		List<GeoLocation> stops = coordinates(uri, "/route/v1/driving/");
+		String query = uri.getRawQuery() == null ? "" : uri.getRawQuery();
+		boolean polyline6 = query.contains("geometries=polyline6");
+		boolean steps = query.contains("steps=true");
+		int points = Math.max(2, profile.points);
+
+		double[] lats = new double[(stops.size() - 1) * (points - 1) + 1];
+		double[] lngs = new double[lats.length];
+		StringBuilder legs = new StringBuilder();
+		double totalDistance = 0;
+		for (int l = 0; l + 1 < stops.size(); l++) {
+			GeoLocation from = stops.get(l);
+			GeoLocation to = stops.get(l + 1);
+			for (int k = 0; k < points; k++) {
+				double t = (double) k / (points - 1);
+				lats[l * (points - 1) + k] = from.getLatitude() + t * (to.getLatitude() - from.getLatitude());
+				lngs[l * (points - 1) + k] = from.getLongitude() + t * (to.getLongitude() - from.getLongitude());
+			}
+			double distance = from.distanceTo(to) * 1.3;
+			totalDistance += distance;
+			if (l > 0) {
+				legs.append(',');
+			}
+			legs.append("{\"steps\":[");
+			if (steps) {
+				// one step per 20 points, sharing their end points
+				int first = l * (points - 1);
+				int last = first + points - 1;
+				for (int start = first; start < last; start += 20) {
+					int end = Math.min(start + 20, last);
+					if (start > first) {
+						legs.append(',');
+					}
+					double share = distance * (end - start) / (points - 1);
+					legs.append("{\"geometry\":").append(geometry(lats, lngs, start, end, polyline6))
+							.append(",\"name\":\"Stand-in Road\",\"mode\":\"driving\",\"distance\":").append(round(share))
+							.append(",\"duration\":").append(round(share / METERS_PER_SECOND)).append('}');
+				}
+			}
+			legs.append("],\"summary\":\"\",\"distance\":").append(round(distance)).append(",\"duration\":")
+					.append(round(distance / METERS_PER_SECOND)).append(",\"weight\":")
+					.append(round(distance / METERS_PER_SECOND)).append('}');
+		}
+
+		StringBuilder body = new StringBuilder(lats.length * 24 + 256);
+		body.append("{\"code\":\"Ok\",\"routes\":[{");
+		if (!steps) {
+			body.append("\"geometry\":").append(geometry(lats, lngs, 0, lats.length - 1, polyline6)).append(',');
+		}
+		body.append("\"legs\":[").append(legs).append("],\"distance\":").append(round(totalDistance))
+				.append(",\"duration\":").append(round(totalDistance / METERS_PER_SECOND))
+				.append(",\"weight_name\":\"routability\"}],\"waypoints\":[");
+		for (int i = 0; i < stops.size(); i++) {
+			if (i > 0) {
+				body.append(',');
+			}
+			body.append("{\"name\":\"\",\"distance\":0,\"location\":[").append(stops.get(i).getLongitude()).append(',')
+					.append(stops.get(i).getLatitude()).append("]}");
+		}
+		body.append(']');
+		return pad(body).append('}').toString();
+	}
+
+	/**
+	 * Answers a table request with durations proportional to the bee line
+	 * distances
+	 */
+	private String table(URI uri) {
+		List<GeoLocation> locations = coordinates(uri, "/table/v1/driving/");
+		int[] sources = indices(uri, "sources", locations.size());
+		int[] destinations = indices(uri, "destinations", locations.size());
+
+		StringBuilder body = new StringBuilder(sources.length * destinations.length * 8 + 256);
+		body.append("{\"code\":\"Ok\",\"durations\":[");
+		for (int i = 0; i < sources.length; i++) {
+			body.append(i > 0 ? ",[" : "[");
+			for (int j = 0; j < destinations.length; j++) {
+				if (j > 0) {
+					body.append(',');
+				}
+				double distance = locations.get(sources[i]).distanceTo(locations.get(destinations[j])) * 1.3;
+				body.append(round(distance / METERS_PER_SECOND));
+			}
+			body.append(']');
+		}
+		body.append("],\"sources\":").append(waypoints(locations, sources)).append(",\"destinations\":")
+				.append(waypoints(locations, destinations));
+		return pad(body).append('}').toString();
+	}
+
+	private String mapQuest(URI uri) {
+		String location = parameter(uri, "location");
+		GeoLocation result = geocode(location);
+		StringBuilder body = new StringBuilder(512);
+		body.append("{\"info\":{\"statuscode\":0},\"results\":[{\"providedLocation\":{\"location\":\"")
+				.append(escape(location)).append("\"},\"locations\":[{\"street\":\"Stand-in Road ")
+				.append(Math.abs(location.hashCode() % 200))
+				.append("\",\"adminArea6\":\"Altstadt\",\"adminArea6Type\":\"Neighborhood\",\"adminArea5\":\"M\u00fcnster\",")
+				.append("\"adminArea5Type\":\"City\",\"adminArea4\":\"M\u00fcnster\",\"adminArea4Type\":\"County\",")
+				.append("\"adminArea3\":\"NRW\",\"adminArea3Type\":\"State\",\"postalCode\":\"48143\",\"latLng\":{\"lat\":")
+				.append(result.getLatitude()).append(",\"lng\":").append(result.getLongitude()).append("}}]}]");
+		return pad(body).append('}').toString();
+	}
+
+	private String locationIQ(URI uri) {
+		String query = parameter(uri, "q");
+		GeoLocation result = geocode(query);
+		StringBuilder body = new StringBuilder(512);
+		body.append("[{\"place_id\":\"").append(Math.abs(query.hashCode())).append("\",\"lat\":\"")
+				.append(result.getLatitude()).append("\",\"lon\":\"").append(result.getLongitude())
+				.append("\",\"display_name\":\"").append(escape(query)).append("\",\"address\":{\"house_number\":\"")
+				.append(Math.abs(query.hashCode() % 200)).append("\",\"road\":\"Stand-in Road\",\"suburb\":\"Altstadt\",")
+				.append("\"city\":\"M\u00fcnster\",\"county\":\"M\u00fcnster\",\"state\":\"NRW\",\"postcode\":\"48143\"}");
+		return pad(body).append("}]").toString();
+	}
+
+	/**
+	 * @return a location near M&uuml;nster derived from <i>address</i>, so that
+	 *         every address always has the same plausible coordinates
+	 */
+	private static GeoLocation geocode(String address) {
+		int hash = address.hashCode();
+		return new GeoLocation(51.96 + ((hash & 0xFFFF) / 65536.0 - 0.5) * 0.2,
+				7.62 + (((hash >>> 16) & 0xFFFF) / 65536.0 - 0.5) * 0.3);
+	}
+
+	private StringBuilder pad(StringBuilder body) {
+		if (profile.padding > 0) {
+			body.append(",\"padding\":\"");
+			for (int i = 0; i < profile.padding; i++) {
+				body.append('x');
+			}
+			body.append('"');
+		}
+		return body;
+	}
+
+	private static String geometry(double[] lats, double[] lngs, int first, int last, boolean polyline6) {
+		if (polyline6) {
+			int count = last - first + 1;
+			double[] segmentLats = new double[count];
+			double[] segmentLngs = new double[count];
+			System.arraycopy(lats, first, segmentLats, 0, count);
+			System.arraycopy(lngs, first, segmentLngs, 0, count);
+			return '"' + Polyline.encode(segmentLats, segmentLngs, count, Polyline.PRECISION_6) + '"';
+		}
+		StringBuilder geometry = new StringBuilder((last - first + 1) * 24 + 48);
+		geometry.append("{\"type\":\"LineString\",\"coordinates\":[");
+		for (int k = first; k <= last; k++) {
+			if (k > first) {
+				geometry.append(',');
+			}
+			geometry.append('[').append(Math.round(lngs[k] * 1e6) / 1e6).append(',')
+					.append(Math.round(lats[k] * 1e6) / 1e6).append(']');
+		}
+		return geometry.append("]}").toString();
+	}
+
+	private static String waypoints(List<GeoLocation> locations, int[] indices) {
+		StringBuilder waypoints = new StringBuilder("[");
+		for (int i = 0; i < indices.length; i++) {
+			if (i > 0) {
+				waypoints.append(',');
+			}
+			GeoLocation location = locations.get(indices[i]);
+			waypoints.append("{\"name\":\"\",\"distance\":0,\"location\":[").append(location.getLongitude())
+					.append(',').append(location.getLatitude()).append("]}");
+		}
+		return waypoints.append(']').toString();
+	}
+
+	private static List<GeoLocation> coordinates(URI uri, String prefix) {
+		String path = uri.getPath().substring(prefix.length());
+		List<GeoLocation> locations = new ArrayList<>();
+		for (String pair : path.split(";")) {
+			String[] lngLat = pair.split(",");
+			locations.add(new GeoLocation(Double.parseDouble(lngLat[1]), Double.parseDouble(lngLat[0])));
+		}
+		if (locations.size() < 2) {
+			throw new IllegalArgumentException("at least two coordinates required");
+		}
+		return locations;
+	}
+
+	private static int[] indices(URI uri, String name, int count) {
+		String value = parameter(uri, name);
+		if (value == null || value.equals("all")) {
+			int[] all = new int[count];
+			for (int i = 0; i < count; i++) {
+				all[i] = i;
+			}
+			return all;
+		}
+		String[] parts = value.split(";");
+		int[] indices = new int[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			indices[i] = Integer.parseInt(parts[i]);
+		}
+		return indices;
+	}
+
+	private static String parameter(URI uri, String name) {
+		String query = uri.getRawQuery();
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			if (parameter.startsWith(name + "=")) {
+				return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+			}
+		}
+		return null;
+	}
+
+	private static double round(double value) {
+		return Math.round(value * 10) / 10.0;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+}
@@ -3,72 +3,398 @@ package com.blogspot.debukkitsblog.geoutils;
 import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Loads API keys from a text file
- * 
+ * Loads API keys from a text file. Every line of the file consists of a
+ * serviceID, an API key and an optional quota (the maximum number of requests
+ * this key may be used for), separated by space characters. A serviceID may
+ * occur in several lines; its keys are then handed out in rotation to spread
+ * the load across all of them.
+ *
  * @author DeBukkIt
  *
  */
 public class APIKeyManager {
 
-	private static Map<String, String> apiKeys;
+	/**
+	 * Strategies to choose the next key if a service has more than one
+	 */
+	public enum Rotation {
+		/** use the keys of a service one after another */
+		ROUND_ROBIN,
+		/** use the key of a service that has been used least so far */
+		LEAST_USED
+	}
+
+	private static volatile Rotation rotation = Rotation.ROUND_ROBIN;
+	private static volatile int maxConsecutiveErrors = 5;
+	private static volatile boolean silentMode;
+
+	/**
+	 * Lazily loads the API-Keys.txt file on first access. The class loader
+	 * guarantees this happens exactly once, even under concurrent first access.
+	 */
+	private static class Holder {
+		private static final Map<String, KeyRing> API_KEYS = init();
+	}
 
 	/**
-	 * Returns the API key belonging to a given serviceID or null if the serviceID
-	 * is not in the API-Keys.txt file, or the key is not in there or something went
-	 * wrong loading the file.
-	 * 
+	 * Returns the next API key belonging to a given serviceID or null if the
+	 * serviceID is not in the API-Keys.txt file, all of its keys have been
+	 * removed or something went wrong loading the file. Every call counts as one
+	 * use of the returned key.
+	 *
 	 * @param serviceID
 	 *            The serviceID
 	 * @return the API key belonging to the serviceID
 	 */
 	public static String getAPIKey(String serviceID) {
-		if (apiKeys == null) {
-			init();
-		}
-		return apiKeys.get(serviceID);
+		KeyRing ring = Holder.API_KEYS.get(serviceID);
+		return ring == null ? null : ring.next();
 	}
 
 	/**
-	 * Checks whether the API-Keys.txt file contains an API key for the given
-	 * serviceID
-	 * 
+	 * Checks whether the API-Keys.txt file contains a usable API key for the
+	 * given serviceID
+	 *
 	 * @param serviceID
 	 *            The serviceID
 	 * @return true if the API-Keys.txt file contains a line starting with
 	 *         <i>serviceID</i> followed by a space character and at least one more
-	 *         non-space character (probably an API key) and the line does not
+	 *         non-space character (probably an API key), the line does not
 	 *         contain a 'PASTE' character sequence (which would probably be the
-	 *         spacer); false otherwise
+	 *         spacer) and the key has not been removed yet; false otherwise.
+	 *         {@link #getAPIKey(String)} may return null nonetheless, if the
+	 *         last key exceeds its quota with that very use.
 	 */
 	public static boolean hasAPIKey(String serviceID) {
-		return getAPIKey(serviceID) != null && !getAPIKey(serviceID).startsWith("PASTE_");
+		KeyRing ring = Holder.API_KEYS.get(serviceID);
+		return ring != null && !ring.keys.isEmpty();
+	}
+
+	/**
+	 * Adds an API key for a serviceID in addition to the ones loaded from the
+	 * API-Keys.txt file
+	 *
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key
+	 * @param quota
+	 *            The maximum number of uses of this key; 0 for unlimited
+	 */
+	public static void addAPIKey(String serviceID, String apiKey, long quota) {
+		if (serviceID == null || apiKey == null || quota < 0) {
+			throw new IllegalArgumentException("serviceID and apiKey may not be null, quota may not be negative");
+		}
+		Holder.API_KEYS.computeIfAbsent(serviceID, id -> new KeyRing(id)).keys.add(new APIKey(apiKey, quota));
+	}
+
+	/**
+	 * Reports that a request using <i>apiKey</i> succeeded. This resets the
+	 * consecutive error count of the key.
+	 *
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key used
+	 */
+	public static void reportSuccess(String serviceID, String apiKey) {
+		APIKey key = find(serviceID, apiKey);
+		if (key != null) {
+			key.consecutiveErrors.set(0);
+		}
+	}
+
+	/**
+	 * Reports that a request using <i>apiKey</i> failed. A key failing too many
+	 * times in a row is removed (see {@link #setMaxConsecutiveErrors(int)}).
+	 *
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key used
+	 */
+	public static void reportError(String serviceID, String apiKey) {
+		APIKey key = find(serviceID, apiKey);
+		if (key != null) {
+			key.errors.incrementAndGet();
+			if (key.consecutiveErrors.incrementAndGet() >= maxConsecutiveErrors) {
+				remove(serviceID, key, "failed " + maxConsecutiveErrors + " times in a row");
+			}
+		}
+	}
+
+	/**
+	 * Reports that the service rejected a request using <i>apiKey</i> as too
+	 * many in a short time. The key is not handed out for <i>backOffMillis</i>
+	 * unless all keys of the service are backing off, in which case the one
+	 * backing off the shortest is; it is not removed, as such limits are lifted
+	 * again soon.
+	 *
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key used
+	 * @param backOffMillis
+	 *            The time to wait before using the key again
+	 */
+	public static void reportRateLimited(String serviceID, String apiKey, long backOffMillis) {
+		APIKey key = find(serviceID, apiKey);
+		if (key != null) {
+			key.errors.incrementAndGet();
+			key.backOffUntil = System.nanoTime() + Math.max(0, backOffMillis) * 1_000_000;
+		}
+	}
+
+	/**
+	 * Removes <i>apiKey</i> immediately, e.g. because the service reported it to
+	 * be revoked or its quota to be exhausted
+	 *
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key to remove
+	 */
+	public static void revokeAPIKey(String serviceID, String apiKey) {
+		APIKey key = find(serviceID, apiKey);
+		if (key != null) {
+			remove(serviceID, key, "revoked or exhausted");
+		}
+	}
+
+	/**
+	 * @param serviceID
+	 *            The serviceID
+	 * @return the number of usable API keys of the serviceID
+	 */
+	public static int getKeyCount(String serviceID) {
+		KeyRing ring = Holder.API_KEYS.get(serviceID);
+		return ring == null ? 0 : ring.keys.size();
+	}
+
+	/**
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key
+	 * @return how many times <i>apiKey</i> has been handed out so far; -1 if it is
+	 *         unknown or has been removed
+	 */
+	public static long getUseCount(String serviceID, String apiKey) {
+		APIKey key = find(serviceID, apiKey);
+		return key == null ? -1 : key.uses.get();
+	}
+
+	/**
+	 * @param serviceID
+	 *            The serviceID
+	 * @param apiKey
+	 *            The API key
+	 * @return how many requests using <i>apiKey</i> failed so far; -1 if it is
+	 *         unknown or has been removed
+	 */
+	public static long getErrorCount(String serviceID, String apiKey) {
+		APIKey key = find(serviceID, apiKey);
+		return key == null ? -1 : key.errors.get();
+	}
+
+	/**
+	 * Sets the strategy to choose the next key of a service having more than one
+	 *
+	 * @param rotation
+	 *            The rotation strategy, {@link Rotation#ROUND_ROBIN} by default
+	 */
+	public static void setRotation(Rotation rotation) {
+		if (rotation == null) {
+			throw new IllegalArgumentException("rotation may not be null");
+		}
+		APIKeyManager.rotation = rotation;
+	}
+
+	/**
+	 * Sets how many times in a row a key may fail before it is removed
+	 *
+	 * @param maxErrors
+	 *            The maximum number of consecutive errors, 5 by default
+	 */
+	public static void setMaxConsecutiveErrors(int maxErrors) {
+		if (maxErrors < 1) {
+			throw new IllegalArgumentException("maxErrors must be at least 1");
+		}
+		maxConsecutiveErrors = maxErrors;
+	}
+
+	/**
+	 * Toggles the output of removed keys and of problems loading the
+	 * API-Keys.txt file to System.err
+	 *
+	 * @param silent
+	 *            true for silence, false for output (the default)
+	 */
+	public static void setSilentMode(boolean silent) {
+		silentMode = silent;
+	}
+
+	private static APIKey find(String serviceID, String apiKey) {
+		KeyRing ring = Holder.API_KEYS.get(serviceID);
+		if (ring == null || apiKey == null) {
+			return null;
+		}
+		for (APIKey key : ring.keys) {
+			if (key.key.equals(apiKey)) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	private static void remove(String serviceID, APIKey key, String reason) {
+		KeyRing ring = Holder.API_KEYS.get(serviceID);
+		if (ring != null && ring.keys.remove(key) && !silentMode) {
+			System.err.println("Removed an API key for '" + serviceID + "' (" + reason + "), " + ring.keys.size()
+					+ " left");
+		}
 	}
 
 	/**
-	 * Loads a local text file into a HashMap, splitting each line into two parts
-	 * separated by a space character. The first half is the 'serviceID', the second
-	 * half is the API key.<br>
-	 * This method is automatically called by
-	 * <code>getAPIKey(String serviceID)</code> if the HashMap is still null.
+	 * Loads a local text file into a Map, splitting each line into two or three
+	 * parts separated by space characters. The first part is the 'serviceID', the
+	 * second part is the API key, the optional third part is the quota of the
+	 * key. Empty lines and lines starting with '#' are ignored, malformed lines
+	 * are reported and skipped.<br>
+	 * This method is automatically called on first access to any API key.
 	 */
-	private static void init() {
-		apiKeys = new HashMap<>();
+	private static Map<String, KeyRing> init() {
+		Map<String, KeyRing> apiKeys = new ConcurrentHashMap<>();
 
 		try {
 			InputStream stream = APIKeyManager.class.getClassLoader().getResourceAsStream("API-Keys.txt");
 			Scanner scanner = new Scanner(new BufferedReader(new InputStreamReader(stream, "UTF-8")));
+			int lineNumber = 0;
 			while (scanner.hasNextLine()) {
-				String[] lineParts = scanner.nextLine().split(" ");
-				apiKeys.put(lineParts[0], lineParts[1]);
+				String line = scanner.nextLine().trim();
+				lineNumber++;
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] lineParts = line.split("\\s+");
+				long quota = 0;
+				try {
+					if (lineParts.length < 2 || lineParts.length > 3
+							|| (lineParts.length == 3 && (quota = Long.parseLong(lineParts[2])) < 0)) {
+						throw new NumberFormatException();
+					}
+				} catch (NumberFormatException e) {
+					if (!silentMode)
+						System.err.println("Skipping malformed line " + lineNumber
+								+ " of API-Keys.txt, expected 'serviceID key [quota]'");
+					continue;
+				}
+				// skip the spacers of the template file
+				if (lineParts[1].startsWith("PASTE_")) {
+					continue;
+				}
+				apiKeys.computeIfAbsent(lineParts[0], id -> new KeyRing(id)).keys
+						.add(new APIKey(lineParts[1], quota));
 			}
 			scanner.close();
 		} catch (Exception e) {
-			System.err.println("Could not load API keys, services unavailable: " + e.getMessage());
+			if (!silentMode)
+				System.err.println("Could not load API keys, services unavailable: " + e.getMessage());
+		}
+
+		return apiKeys;
+	}
+
+	/**
+	 * All usable keys of a single service
+	 */
+	private static class KeyRing {
+
+		private final String serviceID;
+		private final List<APIKey> keys = new CopyOnWriteArrayList<>();
+		private final AtomicInteger cursor = new AtomicInteger();
+
+		private KeyRing(String serviceID) {
+			this.serviceID = serviceID;
+		}
+
+		/**
+		 * @return the next key according to the current rotation strategy or null
+		 *         if there is no usable key left
+		 */
+		private String next() {
+			while (true) {
+				APIKey[] snapshot = keys.toArray(new APIKey[0]);
+				if (snapshot.length == 0) {
+					return null;
+				}
+
+				APIKey chosen;
+				if (rotation == Rotation.LEAST_USED) {
+					chosen = null;
+					for (APIKey key : snapshot) {
+						if (!key.isBackingOff() && (chosen == null || key.uses.get() < chosen.uses.get())) {
+							chosen = key;
+						}
+					}
+				} else {
+					int start = cursor.getAndIncrement();
+					chosen = null;
+					for (int i = 0; i < snapshot.length && chosen == null; i++) {
+						APIKey key = snapshot[Math.floorMod(start + i, snapshot.length)];
+						if (!key.isBackingOff()) {
+							chosen = key;
+						}
+					}
+				}
+				if (chosen == null) {
+					// all keys are backing off, use the one ready again first
+					chosen = snapshot[0];
+					for (int i = 1; i < snapshot.length; i++) {
+						if (snapshot[i].backOffUntil - chosen.backOffUntil < 0) {
+							chosen = snapshot[i];
+						}
+					}
+				}
+
+				long uses = chosen.uses.incrementAndGet();
+				if (chosen.quota == 0 || uses <= chosen.quota) {
+					return chosen.key;
+				}
+				remove(serviceID, chosen, "quota of " + chosen.quota + " requests exhausted");
+			}
+		}
+	}
+
+	/**
+	 * A single API key and its usage statistics
+	 */
+	private static class APIKey {
+
+		private final String key;
+		private final long quota;
+		private final AtomicLong uses = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicInteger consecutiveErrors = new AtomicInteger();
+		// System.nanoTime() until which the key is rate limited
+		private volatile long backOffUntil = System.nanoTime();
+
+		private APIKey(String key, long quota) {
+			this.key = key;
+			this.quota = quota;
+		}
+
+		private boolean isBackingOff() {
+			return backOffUntil - System.nanoTime() > 0;
 		}
 	}
 
@@ -0,0 +1,75 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one String instance per distinct address component, such as city,
+ * county, state or country names, between all {@link ImmutableGeoLocation}s.
+ * These repeat the same few hundred values across any number of locations.
+ * The dictionary stops taking new values once it is full, so that it does not
+ * grow without bounds if fed with rarely repeating values.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class AddressDictionary {
+
+	private static final AddressDictionary DEFAULT = new AddressDictionary(1 << 16);
+
+	private final Map<String, String> values = new ConcurrentHashMap<>();
+	private final int maxSize;
+
+	/**
+	 * @param maxSize The maximum number of distinct values shared
+	 */
+	public AddressDictionary(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize may not be negative");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the dictionary used by default, sharing up to 65,536 values
+	 */
+	public static AddressDictionary getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * @param value The value, e.g. a city name
+	 * @return the instance shared for <i>value</i>, trimmed; <i>value</i> itself
+	 *         if the dictionary is full; null if <i>value</i> is null
+	 */
+	public String intern(String value) {
+		if (value == null) {
+			return null;
+		}
+		String trimmed = value.trim();
+		String shared = values.get(trimmed);
+		if (shared != null) {
+			return shared;
+		}
+		if (values.size() >= maxSize) {
+			return trimmed;
+		}
+		shared = values.putIfAbsent(trimmed, trimmed);
+		return shared != null ? shared : trimmed;
+	}
+
+	/**
+	 * @return the number of distinct values shared
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * Forgets all values; locations created before keep theirs
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+}
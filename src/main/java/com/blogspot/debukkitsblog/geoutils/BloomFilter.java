@@ -0,0 +1,123 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free Bloom filter of Strings. The bit positions are derived from one
+ * 64 bit hash by double hashing (Kirsch and Mitzenmacher).
+ *
+ * @author DeBukkIt
+ *
+ */
+final class BloomFilter {
+
+	private static final int MAGIC = 0x47434246;
+
+	private final AtomicLongArray words;
+	private final long bits;
+	private final int hashes;
+
+	/**
+	 * Creates a filter with a false positive rate of about
+	 * <i>falsePositiveRate</i> once <i>expectedElements</i> are added
+	 */
+	BloomFilter(long expectedElements, double falsePositiveRate) {
+		this(bitsFor(expectedElements, falsePositiveRate), hashesFor(expectedElements, falsePositiveRate));
+	}
+
+	private BloomFilter(long bits, int hashes) {
+		int wordCount = (int) ((bits + 63) >>> 6);
+		this.words = new AtomicLongArray(wordCount);
+		this.bits = (long) wordCount << 6;
+		this.hashes = hashes;
+	}
+
+	void add(String key) {
+		long hash = KeyHash.hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashes; i++) {
+			long bit = ((h1 + i * h2) & 0xffffffffL) % bits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current = words.get(word);
+			while ((current & mask) == 0 && !words.compareAndSet(word, current, current | mask)) {
+				current = words.get(word);
+			}
+		}
+	}
+
+	/**
+	 * @return false if <i>key</i> was never added, true if it probably was
+	 */
+	boolean mightContain(String key) {
+		long hash = KeyHash.hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= hashes; i++) {
+			long bit = ((h1 + i * h2) & 0xffffffffL) % bits;
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the false positive rate expected from the share of bits set
+	 */
+	double getFalsePositiveRate() {
+		long set = 0;
+		for (int i = 0; i < words.length(); i++) {
+			set += Long.bitCount(words.get(i));
+		}
+		return Math.pow((double) set / bits, hashes);
+	}
+
+	long getBitCount() {
+		return bits;
+	}
+
+	void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeInt(hashes);
+		out.writeInt(words.length());
+		for (int i = 0; i < words.length(); i++) {
+			out.writeLong(words.get(i));
+		}
+	}
+
+	static BloomFilter read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a Bloom filter");
+		}
+		int hashes = in.readInt();
+		int wordCount = in.readInt();
+		if (hashes < 1 || wordCount < 1) {
+			throw new IOException("Corrupt Bloom filter");
+		}
+		BloomFilter filter = new BloomFilter((long) wordCount << 6, hashes);
+		for (int i = 0; i < wordCount; i++) {
+			filter.words.set(i, in.readLong());
+		}
+		return filter;
+	}
+
+	static long bitsFor(long expectedElements, double falsePositiveRate) {
+		if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+			throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1");
+		}
+		double bits = -Math.max(1, expectedElements) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		// bit positions are derived from 32 bit hashes
+		return (long) Math.min(Math.max(64, Math.ceil(bits)), (double) (1L << 32));
+	}
+
+	private static int hashesFor(long expectedElements, double falsePositiveRate) {
+		double bitsPerElement = (double) bitsFor(expectedElements, falsePositiveRate) / Math.max(1, expectedElements);
+		return Math.max(1, (int) Math.round(bitsPerElement * Math.log(2)));
+	}
+
+}
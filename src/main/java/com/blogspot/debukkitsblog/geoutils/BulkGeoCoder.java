@@ -0,0 +1,456 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Geocodes the addresses of a CSV or plain line file into a CSV file, row by
+ * row, so that files of millions of rows are never held in memory. The
+ * addresses are looked up by a pool of threads; at most a fixed window of rows
+ * is in flight, so reading stalls while the lookups lag behind.
+ * <p>
+ * Every output row holds a tag (the value of the id column, or the row number
+ * counted from 0), the address, latitude, longitude and the address fields of
+ * the location found; the coordinates are empty if none was found. Rows are
+ * written in input order by default, or as soon as they are done.
+ * <p>
+ * Progress is recorded in <i>output</i>.checkpoint every few hundred rows. If a
+ * run is interrupted, the next run with the same files truncates the output to
+ * the last checkpoint and goes on from there; a completed run deletes the
+ * checkpoint. Rows span a single line each; quoted fields may contain the
+ * separator, but no line breaks.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class BulkGeoCoder {
+
+	private static final String[] OUTPUT_HEADER = { "tag", "address", "latitude", "longitude", "street", "zip",
+			"neighborhood", "city", "county", "state", "country" };
+
+	private final GeoCache cache;
+	private int parallelism = 4;
+	private int window = 256;
+	private int checkpointInterval = 500;
+	private char separator = ',';
+	private boolean header = true;
+	private int addressColumn = 0;
+	private int idColumn = -1;
+	private boolean ordered = true;
+
+	/**
+	 * @param cache The GeoCache to use, may be null
+	 */
+	public BulkGeoCoder(GeoCache cache) {
+		this.cache = cache;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: BulkGeoCoder <input.csv> <output.csv> [cache-file]");
+			System.exit(1);
+		}
+		GeoCache cache = args.length > 2 ? new GeoCache(new File(args[2]), GeoCache.SIX_MONTHS) : null;
+		long rows = new BulkGeoCoder(cache).run(new File(args[0]), new File(args[1]));
+		if (cache != null) {
+			cache.getStore().close();
+		}
+		System.out.println("Geocoded " + rows + " rows");
+	}
+
+	/**
+	 * Sets the number of addresses looked up at the same time, mind the rate
+	 * limits of the external APIs
+	 *
+	 * @param parallelism the number of threads, 4 by default
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Sets the number of rows read but not written yet at most. Rows waiting for
+	 * a slow row before them to be written in order count as well.
+	 *
+	 * @param window the number of rows, 256 by default
+	 */
+	public void setWindow(int window) {
+		if (window < 1) {
+			throw new IllegalArgumentException("window must be at least 1");
+		}
+		this.window = window;
+	}
+
+	/**
+	 * @param rows the number of rows written between two checkpoints, 500 by
+	 *             default
+	 */
+	public void setCheckpointInterval(int rows) {
+		if (rows < 1) {
+			throw new IllegalArgumentException("rows must be at least 1");
+		}
+		this.checkpointInterval = rows;
+	}
+
+	/**
+	 * @param separator the field separator of input and output, ',' by default
+	 */
+	public void setSeparator(char separator) {
+		this.separator = separator;
+	}
+
+	/**
+	 * @param header whether the first line of the input is a header, true by
+	 *               default; the output always gets one
+	 */
+	public void setHeader(boolean header) {
+		this.header = header;
+	}
+
+	/**
+	 * @param column the column holding the address, counted from 0; -1 to use the
+	 *               whole line, e.g. for plain line files. 0 by default.
+	 */
+	public void setAddressColumn(int column) {
+		this.addressColumn = column;
+	}
+
+	/**
+	 * @param column the column holding an id to tag the output rows with, counted
+	 *               from 0; -1 to tag them with their row number (the default)
+	 */
+	public void setIdColumn(int column) {
+		this.idColumn = column;
+	}
+
+	/**
+	 * @param ordered true to write the rows in input order (the default), false to
+	 *                write them as soon as they are done, relying on their tags
+	 */
+	public void setOrdered(boolean ordered) {
+		this.ordered = ordered;
+	}
+
+	/**
+	 * Geocodes all rows of <i>input</i> into <i>output</i>, resuming an
+	 * interrupted run if there is a checkpoint
+	 *
+	 * @param input  The CSV or line file, UTF-8 encoded
+	 * @param output The CSV file to write
+	 * @return the number of rows geocoded by this run
+	 * @throws IOException          if a file cannot be read or written
+	 * @throws InterruptedException if interrupted; the rows done so far are
+	 *                              checkpointed
+	 */
+	public long run(File input, File output) throws IOException, InterruptedException {
+		File checkpointFile = new File(output.getPath() + ".checkpoint");
+		Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+		boolean resume = checkpoint != null && output.isFile();
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8), 1 << 16);
+				FileOutputStream outputStream = new FileOutputStream(output, resume)) {
+			FileChannel channel = outputStream.getChannel();
+			if (resume) {
+				// drop rows written after the checkpoint, they are done again
+				channel.truncate(checkpoint.bytes);
+				channel.position(checkpoint.bytes);
+			} else {
+				checkpoint = new Checkpoint();
+			}
+			Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16);
+			if (!resume) {
+				writer.write(join(OUTPUT_HEADER));
+				writer.write('\n');
+			}
+			if (header) {
+				reader.readLine();
+			}
+			Pipeline pipeline = new Pipeline(writer, channel, checkpointFile, checkpoint);
+			pipeline.process(reader);
+			Files.deleteIfExists(checkpointFile.toPath());
+			return pipeline.geocoded.get();
+		}
+	}
+
+	/**
+	 * Reads, geocodes and writes the rows of one run
+	 */
+	private final class Pipeline {
+
+		private final Writer writer;
+		private final FileChannel channel;
+		private final File checkpointFile;
+		private final Checkpoint checkpoint;
+		private final Semaphore inFlight = new Semaphore(window);
+		private final Map<Long, String> pending = new HashMap<>();
+		private final AtomicLong geocoded = new AtomicLong();
+		private int sinceCheckpoint;
+		private IOException failure;
+
+		private Pipeline(Writer writer, FileChannel channel, File checkpointFile, Checkpoint checkpoint) {
+			this.writer = writer;
+			this.channel = channel;
+			this.checkpointFile = checkpointFile;
+			this.checkpoint = checkpoint;
+		}
+
+		private void process(BufferedReader reader) throws IOException, InterruptedException {
+			AtomicInteger threads = new AtomicInteger();
+			ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+				Thread thread = new Thread(r, "BulkGeoCoder-" + threads.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			try {
+				String line;
+				long row = 0;
+				while ((line = reader.readLine()) != null) {
+					long current = row++;
+					if (current < checkpoint.rows || checkpoint.done.contains(current)) {
+						continue;
+					}
+					inFlight.acquire();
+					checkFailure();
+					String record = line;
+					workers.execute(() -> complete(current, geocode(current, record)));
+				}
+				// wait for all rows to be written
+				inFlight.acquire(window);
+				inFlight.release(window);
+				checkFailure();
+			} finally {
+				workers.shutdownNow();
+				workers.awaitTermination(1, TimeUnit.MINUTES);
+				synchronized (this) {
+					// also records what was written before an interruption
+					if (failure == null) {
+						writeCheckpoint();
+					}
+				}
+			}
+		}
+
+		private String geocode(long row, String line) {
+			List<String> fields = addressColumn < 0 ? List.of(line) : parse(line);
+			String address = field(fields, Math.max(0, addressColumn));
+			String tag = idColumn < 0 ? Long.toString(row) : field(fields, idColumn);
+			GeoLocation location = null;
+			if (!address.isBlank()) {
+				try {
+					location = GeoCoder.find(address, cache);
+				} catch (RuntimeException e) {
+					System.err.println("Could not geocode row " + row + ": " + e.getMessage());
+				}
+			}
+			geocoded.incrementAndGet();
+			if (location == null) {
+				return join(tag, address, "", "", "", "", "", "", "", "", "");
+			}
+			return join(tag, address, Double.toString(location.getLatitude()),
+					Double.toString(location.getLongitude()), location.getStreetAndNumber(), location.getZipCode(),
+					location.getNeighborhood(), location.getCity(), location.getCounty(), location.getState(),
+					location.getCountry());
+		}
+
+		/**
+		 * Writes a row done, and in ordered mode all rows after it done before
+		 */
+		private synchronized void complete(long row, String line) {
+			if (failure != null) {
+				return;
+			}
+			try {
+				if (!ordered) {
+					write(row, line);
+				} else {
+					pending.put(row, line);
+					// the first row not written yet, rows done in a previous run skipped
+					String next;
+					while ((next = pending.remove(checkpoint.rows)) != null) {
+						write(checkpoint.rows, next);
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+				// unblock the reader, it fails on its next row
+				inFlight.release(window);
+			}
+		}
+
+		private void write(long row, String line) throws IOException {
+			writer.write(line);
+			writer.write('\n');
+			checkpoint.markDone(row);
+			inFlight.release();
+			if (++sinceCheckpoint >= checkpointInterval) {
+				writeCheckpoint();
+			}
+		}
+
+		/**
+		 * Records the rows written so far together with the length of the output
+		 * they take
+		 */
+		private void writeCheckpoint() {
+			try {
+				writer.flush();
+				checkpoint.bytes = channel.position();
+				checkpoint.save(checkpointFile);
+				sinceCheckpoint = 0;
+			} catch (IOException e) {
+				if (failure == null) {
+					failure = e;
+				}
+			}
+		}
+
+		private synchronized void checkFailure() throws IOException {
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * The rows written: all before <i>rows</i> and those in <i>done</i>
+	 */
+	private static final class Checkpoint {
+
+		private long rows;
+		private long bytes;
+		private final Set<Long> done = new TreeSet<>();
+
+		private void markDone(long row) {
+			if (row != rows) {
+				done.add(row);
+				return;
+			}
+			rows++;
+			while (done.remove(rows)) {
+				rows++;
+			}
+		}
+
+		private void save(File file) throws IOException {
+			Properties properties = new Properties();
+			properties.setProperty("rows", Long.toString(rows));
+			properties.setProperty("bytes", Long.toString(bytes));
+			StringBuilder doneRows = new StringBuilder();
+			for (long row : done) {
+				doneRows.append(doneRows.length() == 0 ? "" : ",").append(row);
+			}
+			properties.setProperty("done", doneRows.toString());
+			File temporary = new File(file.getPath() + ".tmp");
+			try (Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8)) {
+				properties.store(out, "BulkGeoCoder progress");
+			}
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		private static Checkpoint load(File file) throws IOException {
+			if (!file.isFile()) {
+				return null;
+			}
+			Properties properties = new Properties();
+			try (Reader in = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+				properties.load(in);
+			}
+			Checkpoint checkpoint = new Checkpoint();
+			try {
+				checkpoint.rows = Long.parseLong(properties.getProperty("rows", "0"));
+				checkpoint.bytes = Long.parseLong(properties.getProperty("bytes", "0"));
+				for (String row : properties.getProperty("done", "").split(",")) {
+					if (!row.isEmpty()) {
+						checkpoint.done.add(Long.parseLong(row));
+					}
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException("Corrupt checkpoint " + file, e);
+			}
+			return checkpoint;
+		}
+	}
+
+	private String field(List<String> fields, int column) {
+		return column < fields.size() ? fields.get(column).trim() : "";
+	}
+
+	/**
+	 * Splits a CSV line, honoring double quotes
+	 */
+	private List<String> parse(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == separator) {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+
+	private String join(String... fields) {
+		StringBuilder line = new StringBuilder(128);
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				line.append(separator);
+			}
+			String field = fields[i] == null ? "" : fields[i];
+			if (field.indexOf(separator) >= 0 || field.indexOf('"') >= 0 || field.indexOf('\n') >= 0
+					|| field.indexOf('\r') >= 0) {
+				line.append('"').append(field.replace("\"", "\"\"")).append('"');
+			} else {
+				line.append(field);
+			}
+		}
+		return line.toString();
+	}
+
+}
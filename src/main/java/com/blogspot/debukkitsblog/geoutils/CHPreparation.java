@@ -0,0 +1,419 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Contracts a road graph into a contraction hierarchy and writes it in the
+ * format loaded by {@link CHRouter#load(File)}. Nodes are contracted in the
+ * order of their edge difference (shortcuts added minus edges removed), which
+ * is updated lazily; shortcuts are only added if a bounded witness search
+ * finds no path of equal or smaller duration around the contracted node.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class CHPreparation {
+
+	private static final int WITNESS_SETTLED_LIMIT = 500;
+	private static final int SIMULATION_SETTLED_LIMIT = 50;
+
+	private final int nodeCount;
+	private final double[] lat;
+	private final double[] lng;
+
+	// all edges including shortcuts
+	private int edgeCount;
+	private int[] edgeFrom = new int[1024];
+	private int[] edgeTo = new int[1024];
+	private int[] edgeWeight = new int[1024];
+	private float[] edgeDistance = new float[1024];
+	private int[] edgeMiddle = new int[1024];
+
+	// edge ids per node
+	private final int[][] outEdges;
+	private final int[] outCount;
+	private final int[][] inEdges;
+	private final int[] inCount;
+
+	private final boolean[] contracted;
+	private final int[] contractedNeighbours;
+	private final int[] rank;
+
+	// witness search state
+	private final int[] witnessWeight;
+	private final int[] witnessVersion;
+	private int currentVersion;
+	private final IntMinHeap witnessHeap = new IntMinHeap(64);
+
+	private CHPreparation(double[] lat, double[] lng) {
+		this.nodeCount = lat.length;
+		this.lat = lat;
+		this.lng = lng;
+		outEdges = new int[nodeCount][];
+		outCount = new int[nodeCount];
+		inEdges = new int[nodeCount][];
+		inCount = new int[nodeCount];
+		contracted = new boolean[nodeCount];
+		contractedNeighbours = new int[nodeCount];
+		rank = new int[nodeCount];
+		witnessWeight = new int[nodeCount];
+		witnessVersion = new int[nodeCount];
+	}
+
+	/**
+	 * Reads a road graph from a text file, contracts it and writes the result
+	 *
+	 * @see CHRouter#prepare(File, File)
+	 */
+	static void prepare(File graphFile, File chFile) throws IOException {
+		CHPreparation preparation = read(graphFile);
+		preparation.contract();
+		preparation.write(chFile);
+	}
+
+	private static CHPreparation read(File graphFile) throws IOException {
+		double[] lat = new double[1024];
+		double[] lng = new double[1024];
+		int nodes = 0;
+		int[] from = new int[1024];
+		int[] to = new int[1024];
+		float[] distance = new float[1024];
+		float[] duration = new float[1024];
+		boolean[] oneway = new boolean[1024];
+		int edges = 0;
+
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(graphFile), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split("\\s+");
+				try {
+					if (parts[0].equals("N") && parts.length == 3) {
+						if (nodes == lat.length) {
+							lat = Arrays.copyOf(lat, nodes * 2);
+							lng = Arrays.copyOf(lng, nodes * 2);
+						}
+						lat[nodes] = Double.parseDouble(parts[1]);
+						lng[nodes] = Double.parseDouble(parts[2]);
+						nodes++;
+					} else if (parts[0].equals("E") && (parts.length == 5 || parts.length == 6)) {
+						if (edges == from.length) {
+							from = Arrays.copyOf(from, edges * 2);
+							to = Arrays.copyOf(to, edges * 2);
+							distance = Arrays.copyOf(distance, edges * 2);
+							duration = Arrays.copyOf(duration, edges * 2);
+							oneway = Arrays.copyOf(oneway, edges * 2);
+						}
+						from[edges] = Integer.parseInt(parts[1]);
+						to[edges] = Integer.parseInt(parts[2]);
+						distance[edges] = Float.parseFloat(parts[3]);
+						duration[edges] = Float.parseFloat(parts[4]);
+						oneway[edges] = parts.length == 6 && parts[5].equals("1");
+						edges++;
+					} else {
+						throw new NumberFormatException();
+					}
+				} catch (NumberFormatException e) {
+					throw new IOException("Malformed line " + lineNumber + " in " + graphFile);
+				}
+			}
+		}
+
+		CHPreparation preparation = new CHPreparation(Arrays.copyOf(lat, nodes), Arrays.copyOf(lng, nodes));
+		for (int i = 0; i < edges; i++) {
+			if (from[i] < 0 || from[i] >= nodes || to[i] < 0 || to[i] >= nodes) {
+				throw new IOException("Edge " + i + " references an unknown node");
+			}
+			if (from[i] == to[i]) {
+				continue;
+			}
+			int weight = Math.max(1, Math.round(duration[i] * CHRouter.WEIGHT_PER_SECOND));
+			preparation.addOrImproveEdge(from[i], to[i], weight, distance[i], -1);
+			if (!oneway[i]) {
+				preparation.addOrImproveEdge(to[i], from[i], weight, distance[i], -1);
+			}
+		}
+		return preparation;
+	}
+
+	/**
+	 * Adds an edge or replaces the weight of an existing parallel edge if the new
+	 * one is faster
+	 */
+	private void addOrImproveEdge(int from, int to, int weight, float distance, int middle) {
+		for (int i = 0; i < outCount[from]; i++) {
+			int edge = outEdges[from][i];
+			if (edgeTo[edge] == to) {
+				if (weight < edgeWeight[edge]) {
+					edgeWeight[edge] = weight;
+					edgeDistance[edge] = distance;
+					edgeMiddle[edge] = middle;
+				}
+				return;
+			}
+		}
+
+		if (edgeCount == edgeFrom.length) {
+			int capacity = edgeCount * 2;
+			edgeFrom = Arrays.copyOf(edgeFrom, capacity);
+			edgeTo = Arrays.copyOf(edgeTo, capacity);
+			edgeWeight = Arrays.copyOf(edgeWeight, capacity);
+			edgeDistance = Arrays.copyOf(edgeDistance, capacity);
+			edgeMiddle = Arrays.copyOf(edgeMiddle, capacity);
+		}
+		int edge = edgeCount++;
+		edgeFrom[edge] = from;
+		edgeTo[edge] = to;
+		edgeWeight[edge] = weight;
+		edgeDistance[edge] = distance;
+		edgeMiddle[edge] = middle;
+
+		outEdges[from] = append(outEdges[from], outCount[from]++, edge);
+		inEdges[to] = append(inEdges[to], inCount[to]++, edge);
+	}
+
+	private static int[] append(int[] list, int size, int value) {
+		if (list == null) {
+			list = new int[4];
+		} else if (size == list.length) {
+			list = Arrays.copyOf(list, size * 2);
+		}
+		list[size] = value;
+		return list;
+	}
+
+	private void contract() {
+		IntMinHeap queue = new IntMinHeap(nodeCount);
+		for (int v = 0; v < nodeCount; v++) {
+			queue.push(priority(v), v);
+		}
+
+		int order = 0;
+		while (!queue.isEmpty()) {
+			int v = queue.poll();
+			if (contracted[v]) {
+				continue;
+			}
+			// lazy update: contract only if still the best candidate
+			int priority = priority(v);
+			if (!queue.isEmpty() && priority > queue.peekKey()) {
+				queue.push(priority, v);
+				continue;
+			}
+
+			contractNode(v, false);
+			contracted[v] = true;
+			rank[v] = order++;
+			for (int i = 0; i < outCount[v]; i++) {
+				contractedNeighbours[edgeTo[outEdges[v][i]]]++;
+			}
+			for (int i = 0; i < inCount[v]; i++) {
+				contractedNeighbours[edgeFrom[inEdges[v][i]]]++;
+			}
+		}
+	}
+
+	private int priority(int v) {
+		int removed = 0;
+		for (int i = 0; i < outCount[v]; i++) {
+			if (!contracted[edgeTo[outEdges[v][i]]]) {
+				removed++;
+			}
+		}
+		for (int i = 0; i < inCount[v]; i++) {
+			if (!contracted[edgeFrom[inEdges[v][i]]]) {
+				removed++;
+			}
+		}
+		return contractNode(v, true) - removed + contractedNeighbours[v];
+	}
+
+	/**
+	 * Adds the shortcuts needed to remove <i>v</i> from the remaining graph
+	 *
+	 * @param simulate true to only count the shortcuts
+	 * @return the number of shortcuts (to be) added
+	 */
+	private int contractNode(int v, boolean simulate) {
+		int shortcuts = 0;
+		for (int i = 0; i < inCount[v]; i++) {
+			int inEdge = inEdges[v][i];
+			int u = edgeFrom[inEdge];
+			if (contracted[u]) {
+				continue;
+			}
+
+			int maxWeight = 0;
+			for (int k = 0; k < outCount[v]; k++) {
+				int outEdge = outEdges[v][k];
+				int x = edgeTo[outEdge];
+				if (!contracted[x] && x != u) {
+					maxWeight = Math.max(maxWeight, edgeWeight[inEdge] + edgeWeight[outEdge]);
+				}
+			}
+			if (maxWeight == 0) {
+				continue;
+			}
+
+			witnessSearch(u, v, maxWeight, simulate ? SIMULATION_SETTLED_LIMIT : WITNESS_SETTLED_LIMIT);
+			for (int k = 0; k < outCount[v]; k++) {
+				int outEdge = outEdges[v][k];
+				int x = edgeTo[outEdge];
+				if (contracted[x] || x == u) {
+					continue;
+				}
+				int viaWeight = edgeWeight[inEdge] + edgeWeight[outEdge];
+				if (witnessDistance(x) > viaWeight) {
+					shortcuts++;
+					if (!simulate) {
+						addOrImproveEdge(u, x, viaWeight, edgeDistance[inEdge] + edgeDistance[outEdge], v);
+					}
+				}
+			}
+		}
+		return shortcuts;
+	}
+
+	/**
+	 * Runs a Dijkstra search from <i>source</i> ignoring <i>excluded</i> and all
+	 * contracted nodes, bounded by <i>maxWeight</i> and a settled node limit
+	 */
+	private void witnessSearch(int source, int excluded, int maxWeight, int settledLimit) {
+		currentVersion++;
+		witnessHeap.clear();
+		witnessVersion[source] = currentVersion;
+		witnessWeight[source] = 0;
+		witnessHeap.push(0, source);
+
+		int settled = 0;
+		while (!witnessHeap.isEmpty() && settled < settledLimit) {
+			int weight = witnessHeap.peekKey();
+			int node = witnessHeap.poll();
+			if (weight > witnessWeight[node]) {
+				continue;
+			}
+			if (weight > maxWeight) {
+				break;
+			}
+			settled++;
+			for (int i = 0; i < outCount[node]; i++) {
+				int edge = outEdges[node][i];
+				int target = edgeTo[edge];
+				if (target == excluded || contracted[target]) {
+					continue;
+				}
+				int newWeight = weight + edgeWeight[edge];
+				if (witnessDistance(target) > newWeight) {
+					witnessVersion[target] = currentVersion;
+					witnessWeight[target] = newWeight;
+					witnessHeap.push(newWeight, target);
+				}
+			}
+		}
+	}
+
+	private int witnessDistance(int node) {
+		return witnessVersion[node] == currentVersion ? witnessWeight[node] : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Writes the upward (forward) and downward (backward) graphs in compressed
+	 * sparse row layout
+	 */
+	private void write(File chFile) throws IOException {
+		int[] forwardFirst = new int[nodeCount + 1];
+		int[] backwardFirst = new int[nodeCount + 1];
+		for (int e = 0; e < edgeCount; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				forwardFirst[edgeFrom[e] + 1]++;
+			} else {
+				backwardFirst[edgeTo[e] + 1]++;
+			}
+		}
+		for (int v = 0; v < nodeCount; v++) {
+			forwardFirst[v + 1] += forwardFirst[v];
+			backwardFirst[v + 1] += backwardFirst[v];
+		}
+
+		int forwardCount = forwardFirst[nodeCount];
+		int backwardCount = backwardFirst[nodeCount];
+		int[] forwardTarget = new int[forwardCount];
+		int[] forwardWeight = new int[forwardCount];
+		float[] forwardDistance = new float[forwardCount];
+		int[] forwardMiddle = new int[forwardCount];
+		int[] backwardSource = new int[backwardCount];
+		int[] backwardWeight = new int[backwardCount];
+		float[] backwardDistance = new float[backwardCount];
+		int[] backwardMiddle = new int[backwardCount];
+
+		int[] forwardFill = Arrays.copyOf(forwardFirst, nodeCount);
+		int[] backwardFill = Arrays.copyOf(backwardFirst, nodeCount);
+		for (int e = 0; e < edgeCount; e++) {
+			if (rank[edgeFrom[e]] < rank[edgeTo[e]]) {
+				int i = forwardFill[edgeFrom[e]]++;
+				forwardTarget[i] = edgeTo[e];
+				forwardWeight[i] = edgeWeight[e];
+				forwardDistance[i] = edgeDistance[e];
+				forwardMiddle[i] = edgeMiddle[e];
+			} else {
+				int i = backwardFill[edgeTo[e]]++;
+				backwardSource[i] = edgeFrom[e];
+				backwardWeight[i] = edgeWeight[e];
+				backwardDistance[i] = edgeDistance[e];
+				backwardMiddle[i] = edgeMiddle[e];
+			}
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(chFile), 1 << 16))) {
+			out.writeInt(CHRouter.MAGIC);
+			out.writeInt(nodeCount);
+			out.writeInt(forwardCount);
+			out.writeInt(backwardCount);
+			for (int v = 0; v < nodeCount; v++) {
+				out.writeInt((int) Math.round(lat[v] * CHRouter.COORDINATE_FACTOR));
+			}
+			for (int v = 0; v < nodeCount; v++) {
+				out.writeInt((int) Math.round(lng[v] * CHRouter.COORDINATE_FACTOR));
+			}
+			writeInts(out, forwardFirst);
+			writeInts(out, forwardTarget);
+			writeInts(out, forwardWeight);
+			writeFloats(out, forwardDistance);
+			writeInts(out, forwardMiddle);
+			writeInts(out, backwardFirst);
+			writeInts(out, backwardSource);
+			writeInts(out, backwardWeight);
+			writeFloats(out, backwardDistance);
+			writeInts(out, backwardMiddle);
+		}
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+		for (float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+}
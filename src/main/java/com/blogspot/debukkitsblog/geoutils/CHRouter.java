@@ -0,0 +1,524 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An embedded routing engine answering route and duration queries in-process
+ * using a contraction hierarchy. The hierarchy is held in primitive arrays in
+ * compressed sparse row layout; queries are bidirectional Dijkstra searches
+ * that only ever go upwards in the hierarchy.<br>
+ * <br>
+ * A road graph is prepared once using {@link #prepare(File, File)} from a text
+ * file listing its nodes and edges (e.g. exported from the OSM extract the OSRM
+ * data has been built from) and then loaded using {@link #load(File)}.
+ * Instances are safe for use by multiple threads.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class CHRouter {
+
+	static final int MAGIC = 0x47434831; // "GCH1"
+	static final double COORDINATE_FACTOR = 1e6;
+	static final int WEIGHT_PER_SECOND = 10;
+
+	private static final int GRID_CELLS_PER_DEGREE = 100;
+
+	private final int nodeCount;
+	private final int[] lat;
+	private final int[] lng;
+
+	private final int[] forwardFirst;
+	private final int[] forwardTarget;
+	private final int[] forwardWeight;
+	private final float[] forwardDistance;
+	private final int[] forwardMiddle;
+
+	private final int[] backwardFirst;
+	private final int[] backwardSource;
+	private final int[] backwardWeight;
+	private final float[] backwardDistance;
+	private final int[] backwardMiddle;
+
+	// node ids sorted by grid cell for snapping coordinates to nodes
+	private final long[] gridKeys;
+	private final int[] gridNodes;
+
+	private final ThreadLocal<Search[]> searches;
+
+	private CHRouter(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a contraction hierarchy file");
+		}
+		nodeCount = buffer.getInt();
+		int forwardCount = buffer.getInt();
+		int backwardCount = buffer.getInt();
+
+		lat = readInts(buffer, nodeCount);
+		lng = readInts(buffer, nodeCount);
+		forwardFirst = readInts(buffer, nodeCount + 1);
+		forwardTarget = readInts(buffer, forwardCount);
+		forwardWeight = readInts(buffer, forwardCount);
+		forwardDistance = readFloats(buffer, forwardCount);
+		forwardMiddle = readInts(buffer, forwardCount);
+		backwardFirst = readInts(buffer, nodeCount + 1);
+		backwardSource = readInts(buffer, backwardCount);
+		backwardWeight = readInts(buffer, backwardCount);
+		backwardDistance = readFloats(buffer, backwardCount);
+		backwardMiddle = readInts(buffer, backwardCount);
+
+		// build snapping grid
+		long[] packed = new long[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			packed[v] = cellKey(lat[v] / COORDINATE_FACTOR, lng[v] / COORDINATE_FACTOR) << 32 | v;
+		}
+		Arrays.sort(packed);
+		gridKeys = new long[nodeCount];
+		gridNodes = new int[nodeCount];
+		for (int i = 0; i < nodeCount; i++) {
+			gridKeys[i] = packed[i] >> 32;
+			gridNodes[i] = (int) packed[i];
+		}
+
+		searches = ThreadLocal.withInitial(() -> new Search[] { new Search(nodeCount), new Search(nodeCount) });
+	}
+
+	/**
+	 * Contracts a road graph and writes the contraction hierarchy to a file. The
+	 * road graph is a text file with one node or edge per line:<br>
+	 * <i>N latitude longitude</i> declares the next node (numbered from 0),<br>
+	 * <i>E from to distanceInMeters durationInSeconds [oneway]</i> declares a road
+	 * between two nodes; it may be used in both directions unless <i>oneway</i>
+	 * is 1.<br>
+	 * Lines starting with '#' are ignored.
+	 *
+	 * @param graphFile The road graph text file (UTF-8)
+	 * @param chFile    The contraction hierarchy file to create
+	 * @throws IOException if reading or writing fails or the input is malformed
+	 */
+	public static void prepare(File graphFile, File chFile) throws IOException {
+		CHPreparation.prepare(graphFile, chFile);
+	}
+
+	/**
+	 * Loads a contraction hierarchy created by {@link #prepare(File, File)}
+	 *
+	 * @param chFile The contraction hierarchy file
+	 * @return the router
+	 * @throws IOException if the file cannot be read or has the wrong format
+	 */
+	public static CHRouter load(File chFile) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(chFile, "r")) {
+			return new CHRouter(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+		}
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	private static float[] readFloats(ByteBuffer buffer, int count) {
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + count * 4);
+		return values;
+	}
+
+	/**
+	 * @return the number of nodes of the road graph
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Calculates the fastest route between <i>from</i> and <i>to</i>. Both are
+	 * snapped to the nearest node of the road graph.
+	 *
+	 * @param from The start
+	 * @param to   The destination
+	 * @return The fastest route including its geometry - or null if the
+	 *         locations cannot be snapped to the graph or are not connected
+	 */
+	public GeoRoute route(GeoLocation from, GeoLocation to) {
+		int source = nearestNode(from);
+		int target = nearestNode(to);
+		if (source < 0 || target < 0) {
+			return null;
+		}
+
+		Search forward = searches.get()[0];
+		Search backward = searches.get()[1];
+		forward.init(source);
+		backward.init(target);
+
+		// bidirectional upward search
+		int best = Integer.MAX_VALUE;
+		int meeting = -1;
+		while (!forward.heap.isEmpty() || !backward.heap.isEmpty()) {
+			boolean forwardDone = forward.heap.isEmpty() || forward.heap.peekKey() >= best;
+			boolean backwardDone = backward.heap.isEmpty() || backward.heap.peekKey() >= best;
+			if (forwardDone && backwardDone) {
+				break;
+			}
+			if (!forwardDone) {
+				int node = settle(forward, forwardFirst, forwardTarget, forwardWeight);
+				if (node >= 0 && backward.isReached(node) && forward.weight[node] + backward.weight[node] < best) {
+					best = forward.weight[node] + backward.weight[node];
+					meeting = node;
+				}
+			}
+			if (!backwardDone) {
+				int node = settle(backward, backwardFirst, backwardSource, backwardWeight);
+				if (node >= 0 && forward.isReached(node) && forward.weight[node] + backward.weight[node] < best) {
+					best = forward.weight[node] + backward.weight[node];
+					meeting = node;
+				}
+			}
+		}
+		if (meeting < 0) {
+			return null;
+		}
+
+		// collect the edges of the path, unpack them into original nodes
+		List<GeoLocation> waypoints = new ArrayList<>();
+		waypoints.add(nodeLocation(source));
+		float[] distance = new float[1];
+		int[] path = new int[16];
+		int pathLength = 0;
+		for (int node = meeting; node != source; node = forward.parentNode[node]) {
+			if (pathLength == path.length) {
+				path = Arrays.copyOf(path, pathLength * 2);
+			}
+			path[pathLength++] = node;
+		}
+		int previous = source;
+		for (int i = pathLength - 1; i >= 0; i--) {
+			int node = path[i];
+			unpack(previous, node, forwardMiddle[forward.parentEdge[node]], waypoints, distance);
+			previous = node;
+		}
+		for (int node = meeting; node != target;) {
+			int next = backward.parentNode[node];
+			unpack(node, next, backwardMiddle[backward.parentEdge[node]], waypoints, distance);
+			node = next;
+		}
+
+		GeoRoute result = new GeoRoute(from, to, (float) best / WEIGHT_PER_SECOND, distance[0] / 1000);
+		result.setWaypoints(waypoints);
+		return result;
+	}
+
+	/**
+	 * Calculates the durations of the fastest routes from <i>from</i> to each of
+	 * <i>destinations</i>
+	 *
+	 * @param from         The start
+	 * @param destinations The destinations
+	 * @return the durations in seconds, in the order of <i>destinations</i>;
+	 *         {@link Float#POSITIVE_INFINITY} for destinations that cannot be
+	 *         reached or snapped to the graph
+	 */
+	public float[] durationsFrom(GeoLocation from, GeoLocation... destinations) {
+		return oneToMany(from, destinations, true);
+	}
+
+	/**
+	 * Calculates the durations of the fastest routes from each of <i>starts</i>
+	 * to <i>to</i>
+	 *
+	 * @param to     The destination
+	 * @param starts The starts
+	 * @return the durations in seconds, in the order of <i>starts</i>;
+	 *         {@link Float#POSITIVE_INFINITY} for starts that cannot reach the
+	 *         destination or cannot be snapped to the graph
+	 */
+	public float[] durationsTo(GeoLocation to, GeoLocation... starts) {
+		return oneToMany(to, starts, false);
+	}
+
+	/**
+	 * Runs one exhaustive upward search from the shared location, then one
+	 * upward search per other location meeting it
+	 */
+	private float[] oneToMany(GeoLocation shared, GeoLocation[] others, boolean sharedIsSource) {
+		float[] result = new float[others.length];
+		Arrays.fill(result, Float.POSITIVE_INFINITY);
+		int sharedNode = nearestNode(shared);
+		if (sharedNode < 0) {
+			return result;
+		}
+
+		Search sharedSearch = searches.get()[0];
+		Search otherSearch = searches.get()[1];
+		sharedSearch.init(sharedNode);
+		if (sharedIsSource) {
+			while (!sharedSearch.heap.isEmpty()) {
+				settle(sharedSearch, forwardFirst, forwardTarget, forwardWeight);
+			}
+		} else {
+			while (!sharedSearch.heap.isEmpty()) {
+				settle(sharedSearch, backwardFirst, backwardSource, backwardWeight);
+			}
+		}
+
+		for (int i = 0; i < others.length; i++) {
+			int otherNode = others[i] == null ? -1 : nearestNode(others[i]);
+			if (otherNode < 0) {
+				continue;
+			}
+			otherSearch.init(otherNode);
+			int best = Integer.MAX_VALUE;
+			while (!otherSearch.heap.isEmpty() && otherSearch.heap.peekKey() < best) {
+				int node = sharedIsSource ? settle(otherSearch, backwardFirst, backwardSource, backwardWeight)
+						: settle(otherSearch, forwardFirst, forwardTarget, forwardWeight);
+				if (node >= 0 && sharedSearch.isReached(node)) {
+					best = Math.min(best, sharedSearch.weight[node] + otherSearch.weight[node]);
+				}
+			}
+			if (best != Integer.MAX_VALUE) {
+				result[i] = (float) best / WEIGHT_PER_SECOND;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Settles the next node of a search and relaxes its upward edges
+	 *
+	 * @return the settled node or -1 if the polled entry was stale
+	 */
+	private static int settle(Search search, int[] first, int[] adjacent, int[] weights) {
+		int weight = search.heap.peekKey();
+		int node = search.heap.poll();
+		if (weight > search.weight[node]) {
+			return -1;
+		}
+		for (int edge = first[node]; edge < first[node + 1]; edge++) {
+			int next = adjacent[edge];
+			int newWeight = weight + weights[edge];
+			if (!search.isReached(next) || newWeight < search.weight[next]) {
+				search.reach(next, newWeight, edge, node);
+				search.heap.push(newWeight, next);
+			}
+		}
+		return node;
+	}
+
+	/**
+	 * Appends the original nodes of the (shortcut) edge from <i>u</i> to <i>w</i>
+	 * to <i>waypoints</i>, excluding <i>u</i>, and adds up their distances
+	 */
+	private void unpack(int u, int w, int middle, List<GeoLocation> waypoints, float[] distance) {
+		// explicit stack of edges still to unpack, stored as (from, to, middle)
+		int[] stack = new int[48];
+		int size = 0;
+		stack[size++] = u;
+		stack[size++] = w;
+		stack[size++] = middle;
+		while (size > 0) {
+			int m = stack[--size];
+			int to = stack[--size];
+			int from = stack[--size];
+			if (m < 0) {
+				waypoints.add(nodeLocation(to));
+				distance[0] += originalDistance(from, to);
+				continue;
+			}
+			if (size + 6 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			// push second half first so the first half is unpacked first
+			int second = findForwardEdge(m, to);
+			stack[size++] = m;
+			stack[size++] = to;
+			stack[size++] = forwardMiddle[second];
+			int firstHalf = findBackwardEdge(from, m);
+			stack[size++] = from;
+			stack[size++] = m;
+			stack[size++] = backwardMiddle[firstHalf];
+		}
+	}
+
+	/**
+	 * @return the fastest upward edge from <i>from</i> to <i>to</i>
+	 */
+	private int findForwardEdge(int from, int to) {
+		int result = -1;
+		for (int edge = forwardFirst[from]; edge < forwardFirst[from + 1]; edge++) {
+			if (forwardTarget[edge] == to && (result < 0 || forwardWeight[edge] < forwardWeight[result])) {
+				result = edge;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the fastest downward edge from <i>from</i> to <i>to</i>
+	 */
+	private int findBackwardEdge(int from, int to) {
+		int result = -1;
+		for (int edge = backwardFirst[to]; edge < backwardFirst[to + 1]; edge++) {
+			if (backwardSource[edge] == from && (result < 0 || backwardWeight[edge] < backwardWeight[result])) {
+				result = edge;
+			}
+		}
+		return result;
+	}
+
+	private float originalDistance(int from, int to) {
+		int edge = findForwardEdge(from, to);
+		if (edge >= 0) {
+			return forwardDistance[edge];
+		}
+		return backwardDistance[findBackwardEdge(from, to)];
+	}
+
+	private GeoLocation nodeLocation(int node) {
+		return new GeoLocation(lat[node] / COORDINATE_FACTOR, lng[node] / COORDINATE_FACTOR);
+	}
+
+	/**
+	 * Finds the node nearest to <i>location</i> searching the grid cells around
+	 * it in growing rings
+	 *
+	 * @return the nearest node or -1 if there is no node within about 5 km
+	 */
+	int nearestNode(GeoLocation location) {
+		int cellLat = (int) Math.floor(location.getLatitude() * GRID_CELLS_PER_DEGREE);
+		int cellLng = (int) Math.floor(location.getLongitude() * GRID_CELLS_PER_DEGREE);
+		double cosLat = Math.cos(Math.toRadians(location.getLatitude()));
+		Nearest nearest = new Nearest(location, cosLat);
+		for (int ring = 0; ring <= 5; ring++) {
+			for (int dLat = -ring; dLat <= ring; dLat++) {
+				for (int dLng = -ring; dLng <= ring; dLng++) {
+					if (Math.abs(dLat) == ring || Math.abs(dLng) == ring) {
+						searchCell(cellLat + dLat, cellLng + dLng, nearest);
+					}
+				}
+			}
+			if (nearest.node >= 0) {
+				// a node found in ring r may still be beaten by one in ring r + 1,
+				// which reaches further in longitude as cells get narrower there
+				int next = ring + 1;
+				int lngReach = (int) Math.ceil(next / Math.max(cosLat, 0.01));
+				for (int dLat = -next; dLat <= next; dLat++) {
+					for (int dLng = -lngReach; dLng <= lngReach; dLng++) {
+						if (Math.abs(dLat) > ring || Math.abs(dLng) > ring) {
+							searchCell(cellLat + dLat, cellLng + dLng, nearest);
+						}
+					}
+				}
+				break;
+			}
+		}
+		return nearest.node;
+	}
+
+	private void searchCell(int cellLat, int cellLng, Nearest nearest) {
+		long key = cellKey(cellLat, cellLng);
+		int i = Arrays.binarySearch(gridKeys, key);
+		if (i < 0) {
+			return;
+		}
+		while (i > 0 && gridKeys[i - 1] == key) {
+			i--;
+		}
+		for (; i < gridKeys.length && gridKeys[i] == key; i++) {
+			int node = gridNodes[i];
+			double y = lat[node] / COORDINATE_FACTOR - nearest.latitude;
+			double x = (lng[node] / COORDINATE_FACTOR - nearest.longitude) * nearest.cosLat;
+			double distance = x * x + y * y;
+			if (distance < nearest.distance) {
+				nearest.distance = distance;
+				nearest.node = node;
+			}
+		}
+	}
+
+	/**
+	 * The node nearest to a location found so far
+	 */
+	private static final class Nearest {
+
+		private final double latitude;
+		private final double longitude;
+		private final double cosLat;
+		private int node = -1;
+		private double distance = Double.MAX_VALUE;
+
+		private Nearest(GeoLocation location, double cosLat) {
+			this.latitude = location.getLatitude();
+			this.longitude = location.getLongitude();
+			this.cosLat = cosLat;
+		}
+	}
+
+	private static long cellKey(double latitude, double longitude) {
+		return cellKey((int) Math.floor(latitude * GRID_CELLS_PER_DEGREE),
+				(int) Math.floor(longitude * GRID_CELLS_PER_DEGREE));
+	}
+
+	private static long cellKey(int cellLat, int cellLng) {
+		return (cellLat + 9000L) * 36000L + (cellLng + 18000L);
+	}
+
+	/**
+	 * The state of one search direction, reused across queries of a thread.
+	 * Entries are only valid if their version matches the current one, so
+	 * nothing has to be cleared between queries.
+	 */
+	private static final class Search {
+
+		private final int[] weight;
+		private final int[] version;
+		private final int[] parentNode;
+		private final int[] parentEdge;
+		private int currentVersion;
+		private final IntMinHeap heap = new IntMinHeap(256);
+
+		private Search(int nodeCount) {
+			weight = new int[nodeCount];
+			version = new int[nodeCount];
+			parentNode = new int[nodeCount];
+			parentEdge = new int[nodeCount];
+		}
+
+		private void init(int start) {
+			if (currentVersion == Integer.MAX_VALUE) {
+				// start over before stale entries could match a wrapped version
+				Arrays.fill(version, 0);
+				currentVersion = 0;
+			}
+			currentVersion++;
+			heap.clear();
+			version[start] = currentVersion;
+			weight[start] = 0;
+			parentNode[start] = -1;
+			parentEdge[start] = -1;
+			heap.push(0, start);
+		}
+
+		private boolean isReached(int node) {
+			return version[node] == currentVersion;
+		}
+
+		private void reach(int node, int newWeight, int edge, int from) {
+			version[node] = currentVersion;
+			weight[node] = newWeight;
+			parentNode[node] = from;
+			parentEdge[node] = edge;
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes GeoLocations and GeoRoutes in a compact binary form, much smaller and
+ * faster to read than Java serialization. Address fields are written only if
+ * present. Waypoints without address fields, i.e. plain route geometries, are
+ * written as a polyline with 6 decimal places (about 0.1 m), the precision
+ * OSRM works with. The durations of the steps of a route follow its
+ * waypoints.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class CacheCodec {
+
+	/** The kind of content that cannot be written */
+	static final int UNSUPPORTED = 0;
+	static final int POSITION = 1;
+	static final int ROUTE = 2;
+
+	private static final int PLAIN_WAYPOINTS = 0;
+	private static final int FULL_WAYPOINTS = 1;
+
+	private CacheCodec() {
+	}
+
+	/**
+	 * @return the kind of <i>content</i>, {@link #POSITION}, {@link #ROUTE} or
+	 *         {@link #UNSUPPORTED}
+	 */
+	static int kindOf(Object content) {
+		if (content instanceof GeoLocation) {
+			return POSITION;
+		}
+		if (content instanceof GeoRoute) {
+			return ROUTE;
+		}
+		return UNSUPPORTED;
+	}
+
+	static void writeContent(DataOutput out, int kind, Object content) throws IOException {
+		switch (kind) {
+		case POSITION:
+			writeLocation(out, (GeoLocation) content);
+			break;
+		case ROUTE:
+			writeRoute(out, (GeoRoute) content);
+			break;
+		default:
+			throw new IOException("Cannot write cache content of kind " + kind);
+		}
+	}
+
+	static Object readContent(DataInput in, int kind) throws IOException {
+		switch (kind) {
+		case POSITION:
+			return readLocation(in);
+		case ROUTE:
+			return readRoute(in);
+		default:
+			throw new IOException("Unknown cache content kind " + kind);
+		}
+	}
+
+	static void writeLocation(DataOutput out, GeoLocation location) throws IOException {
+		String[] fields = fields(location);
+		int present = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i] != null) {
+				present |= 1 << i;
+			}
+		}
+		out.writeByte(present);
+		out.writeDouble(location.getLatitude());
+		out.writeDouble(location.getLongitude());
+		for (String field : fields) {
+			if (field != null) {
+				out.writeUTF(field);
+			}
+		}
+	}
+
+	static GeoLocation readLocation(DataInput in) throws IOException {
+		int present = in.readUnsignedByte();
+		double latitude = in.readDouble();
+		double longitude = in.readDouble();
+		if (present == 0) {
+			return new GeoLocation(latitude, longitude);
+		}
+		String[] fields = new String[8];
+		for (int i = 0; i < fields.length; i++) {
+			if ((present & (1 << i)) != 0) {
+				fields[i] = in.readUTF();
+			}
+		}
+		return new GeoLocation(fields[0], latitude, longitude, fields[1], fields[2], fields[3], fields[4], fields[5],
+				fields[6], fields[7]);
+	}
+
+	static void writeRoute(DataOutput out, GeoRoute route) throws IOException {
+		writeOptionalLocation(out, route.getStart());
+		writeOptionalLocation(out, route.getDestination());
+		out.writeFloat(route.getDuration());
+		out.writeFloat(route.getDistance());
+		out.writeFloat(route.getSimplificationTolerance());
+
+		List<GeoLocation> waypoints = route.getWaypoints() == null ? new ArrayList<>() : route.getWaypoints();
+		boolean plain = true;
+		for (GeoLocation waypoint : waypoints) {
+			if (!isPlain(waypoint)) {
+				plain = false;
+				break;
+			}
+		}
+		if (plain) {
+			out.writeByte(PLAIN_WAYPOINTS);
+			double[] latitudes = new double[waypoints.size()];
+			double[] longitudes = new double[waypoints.size()];
+			for (int i = 0; i < latitudes.length; i++) {
+				latitudes[i] = waypoints.get(i).getLatitude();
+				longitudes[i] = waypoints.get(i).getLongitude();
+			}
+			byte[] encoded = Polyline.encode(latitudes, longitudes, latitudes.length, Polyline.PRECISION_6)
+					.getBytes(StandardCharsets.US_ASCII);
+			out.writeInt(latitudes.length);
+			out.writeInt(encoded.length);
+			out.write(encoded);
+		} else {
+			out.writeByte(FULL_WAYPOINTS);
+			out.writeInt(waypoints.size());
+			for (GeoLocation waypoint : waypoints) {
+				writeLocation(out, waypoint);
+			}
+		}
+
+		int[] stepEnds = route.getStepEnds();
+		float[] stepDurations = route.getStepDurations();
+		if (stepEnds == null || stepDurations == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(stepEnds.length);
+			for (int i = 0; i < stepEnds.length; i++) {
+				out.writeInt(stepEnds[i]);
+				out.writeFloat(stepDurations[i]);
+			}
+		}
+
+		List<GeoRoute> legs = route.getLegs();
+		out.writeInt(legs.size());
+		for (GeoRoute leg : legs) {
+			writeRoute(out, leg);
+		}
+	}
+
+	static GeoRoute readRoute(DataInput in) throws IOException {
+		GeoLocation start = readOptionalLocation(in);
+		GeoLocation destination = readOptionalLocation(in);
+		GeoRoute route = new GeoRoute(start, destination, in.readFloat(), in.readFloat());
+		route.setSimplificationTolerance(in.readFloat());
+
+		int format = in.readUnsignedByte();
+		List<GeoLocation> waypoints;
+		if (format == PLAIN_WAYPOINTS) {
+			int count = in.readInt();
+			byte[] encoded = new byte[in.readInt()];
+			in.readFully(encoded);
+			double[] latitudes = new double[count];
+			double[] longitudes = new double[count];
+			Polyline.decode(new String(encoded, StandardCharsets.US_ASCII), Polyline.PRECISION_6, latitudes,
+					longitudes, 0);
+			waypoints = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				waypoints.add(new GeoLocation(latitudes[i], longitudes[i]));
+			}
+		} else if (format == FULL_WAYPOINTS) {
+			int count = in.readInt();
+			waypoints = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				waypoints.add(readLocation(in));
+			}
+		} else {
+			throw new IOException("Unknown waypoint format " + format);
+		}
+		route.setWaypoints(waypoints);
+
+		int stepCount = in.readInt();
+		if (stepCount >= 0) {
+			int[] stepEnds = new int[stepCount];
+			float[] stepDurations = new float[stepCount];
+			for (int i = 0; i < stepCount; i++) {
+				stepEnds[i] = in.readInt();
+				stepDurations[i] = in.readFloat();
+			}
+			route.setSteps(stepEnds, stepDurations);
+		}
+
+		int legCount = in.readInt();
+		if (legCount > 0) {
+			List<GeoRoute> legs = new ArrayList<>(legCount);
+			for (int i = 0; i < legCount; i++) {
+				legs.add(readRoute(in));
+			}
+			route.setLegs(legs);
+		}
+		return route;
+	}
+
+	private static void writeOptionalLocation(DataOutput out, GeoLocation location) throws IOException {
+		out.writeBoolean(location != null);
+		if (location != null) {
+			writeLocation(out, location);
+		}
+	}
+
+	private static GeoLocation readOptionalLocation(DataInput in) throws IOException {
+		return in.readBoolean() ? readLocation(in) : null;
+	}
+
+	private static String[] fields(GeoLocation location) {
+		return new String[] { location.getName(), location.getStreetAndNumber(), location.getZipCode(),
+				location.getNeighborhood(), location.getCity(), location.getCounty(), location.getState(),
+				location.getCountry() };
+	}
+
+	private static boolean isPlain(GeoLocation location) {
+		for (String field : fields(location)) {
+			if (field != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.time.Duration;
+
+/**
+ * A point in time by which a lookup must be done, covering all providers it
+ * falls back to. Every provider asked gets the time remaining, so a hung
+ * provider cannot delay the whole lookup beyond the deadline.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class Deadline {
+
+	/** never expires; requests are only bounded by the default timeouts */
+	public static final Deadline NONE = new Deadline(Long.MAX_VALUE, false);
+
+	private final long nanoTime;
+	private final boolean bounded;
+
+	private Deadline(long nanoTime, boolean bounded) {
+		this.nanoTime = nanoTime;
+		this.bounded = bounded;
+	}
+
+	/**
+	 * @param timeout The time allowed from now on
+	 * @return a deadline expiring after <i>timeout</i>
+	 */
+	public static Deadline after(Duration timeout) {
+		if (timeout.isNegative()) {
+			throw new IllegalArgumentException("timeout may not be negative");
+		}
+		return new Deadline(System.nanoTime() + timeout.toNanos(), true);
+	}
+
+	/**
+	 * @return whether no time is left
+	 */
+	public boolean isExpired() {
+		return bounded && nanoTime - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * @return the time left in milliseconds, rounded up; 0 if expired,
+	 *         Long.MAX_VALUE for {@link #NONE}
+	 */
+	public long remainingMillis() {
+		if (!bounded) {
+			return Long.MAX_VALUE;
+		}
+		long remaining = nanoTime - System.nanoTime();
+		return remaining <= 0 ? 0 : (remaining + 999_999) / 1_000_000;
+	}
+
+	/**
+	 * @param defaultMillis The timeout to use without a deadline
+	 * @return <i>defaultMillis</i>, or the time left if that is shorter
+	 */
+	int timeoutMillis(int defaultMillis) {
+		return (int) Math.min(defaultMillis, remainingMillis());
+	}
+
+	@Override
+	public String toString() {
+		return bounded ? "Deadline[" + remainingMillis() + " ms left]" : "Deadline[none]";
+	}
+
+}
@@ -0,0 +1,18 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * Thrown by lookups that could not be done by their {@link Deadline}, as
+ * opposed to lookups returning null because nothing was found
+ *
+ * @author DeBukkIt
+ *
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 2876417360930184611L;
+
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,203 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+import com.blogspot.debukkitsblog.util.FileStorage;
+
+/**
+ * Stores the elements of a GeoCache in a local file, the default store.
+ * <p>
+ * All elements are held in a concurrent map loaded from the file on
+ * construction, so reads take no locks and never touch the file. Stores to
+ * different keys proceed in parallel and return without writing anything; a
+ * single background writer thread then writes the whole map to a temporary
+ * file and renames it over the file, in the format of {@link FileStorage}.
+ * Stores completed while a write is in progress are coalesced into the next
+ * write, so a burst of stores costs one or two writes, not one per key.
+ * <p>
+ * Consistency model: a read sees the latest store to its key that completed
+ * before it (per key last-writer-wins). A store returns once it is visible to
+ * all readers, but before it has been written to the file; call
+ * {@link #flush()} to wait until all stores completed before the call have
+ * been written. A failed write is counted (see {@link #getFailedWrites()}),
+ * kept pending for the next write and rethrown by {@link #flush()}. Several
+ * stores on the same file do not see each other's stores. Elements are kept
+ * until they are deleted, regardless of their time to live.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class FileCacheStore implements GeoCacheStore {
+
+	private final File file;
+	private final Map<String, CacheElement> entries = new ConcurrentHashMap<>();
+	private final ExecutorService writer;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final AtomicLong changes = new AtomicLong();
+	private final AtomicLong failedWrites = new AtomicLong();
+	// only accessed by the writer thread
+	private long written;
+
+	/**
+	 * @param file The file where the elements should be stored
+	 * @throws IOException              if something goes wrong loading or
+	 *                                  creating <i>file</i>
+	 * @throws IllegalArgumentException if <i>file</i> is a directory
+	 */
+	public FileCacheStore(File file) throws IOException, IllegalArgumentException {
+		this.file = file;
+		for (Map.Entry<String, Object> entry : new FileStorage(file, true).getAll().entrySet()) {
+			if (entry.getValue() instanceof CacheElement) {
+				entries.put(entry.getKey(), (CacheElement) entry.getValue());
+			}
+		}
+		this.writer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "FileCacheStore-" + file.getName());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public CacheElement get(String key) {
+		return entries.get(key);
+	}
+
+	@Override
+	public void put(String key, CacheElement element, long ttl) {
+		entries.put(key, element);
+		changed();
+	}
+
+	@Override
+	public void putAll(Map<String, CacheElement> elements, long ttl) {
+		entries.putAll(elements);
+		changed();
+	}
+
+	@Override
+	public boolean delete(String key) {
+		if (entries.remove(key) == null) {
+			return false;
+		}
+		changed();
+		return true;
+	}
+
+	@Override
+	public void forEach(BiConsumer<String, CacheElement> action) {
+		entries.forEach(action);
+	}
+
+	/**
+	 * Writes all stores completed before this call to the file, waiting for a
+	 * write in progress if necessary
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	@Override
+	public void flush() throws IOException {
+		try {
+			writer.submit(() -> {
+				write();
+				return null;
+			}).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing " + file, e);
+		}
+	}
+
+	/**
+	 * Flushes all stores to the file and stops the writer thread
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			writer.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of writes of the file that failed so far
+	 */
+	public long getFailedWrites() {
+		return failedWrites.get();
+	}
+
+	/**
+	 * Schedules a write unless one is scheduled already; the scheduled write
+	 * takes its snapshot after this change, so it is not lost
+	 */
+	private void changed() {
+		changes.incrementAndGet();
+		if (scheduled.compareAndSet(false, true)) {
+			writer.execute(() -> {
+				scheduled.set(false);
+				try {
+					write();
+				} catch (IOException e) {
+					// counted and kept for the next flush
+				}
+			});
+		}
+	}
+
+	/**
+	 * Writes a snapshot of all elements to a temporary file and renames it over
+	 * the file, unless nothing changed since the last successful write. Only
+	 * called on the writer thread.
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	private void write() throws IOException {
+		long version = changes.get();
+		if (version == written) {
+			return;
+		}
+		File temporary = new File(file.getPath() + ".tmp");
+		try {
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+				out.writeObject(new HashMap<String, Object>(entries));
+			}
+			try {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch (IOException e) {
+			failedWrites.incrementAndGet();
+			throw e;
+		}
+		written = version;
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Keeps a Bloom filter of the keys present in another store, so that reads of
+ * keys never stored return at once without touching that store. This pays off
+ * where most reads are misses, e.g. when importing addresses in bulk.
+ * <p>
+ * The filter is written to <i>filterFile</i> on {@link #close()} and read from
+ * it when the store is opened again. If it is missing, e.g. after a crash, or
+ * was sized differently, it is rebuilt from the keys in the store. Deleted
+ * keys stay in the filter until it is rebuilt by {@link #compact()}.
+ * <p>
+ * Only use it with a store no one else writes to, not with a shared
+ * {@link RemoteCacheStore}: reads of keys stored by other nodes would miss.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class FilteredCacheStore implements GeoCacheStore {
+
+	private final GeoCacheStore store;
+	private final File filterFile;
+	private final long expectedElements;
+	private final double falsePositiveRate;
+	private volatile BloomFilter filter;
+	private volatile BloomFilter rebuilding;
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param store             The store to filter reads of
+	 * @param filterFile        The file to keep the filter in
+	 * @param expectedElements  The number of elements the filter is sized for;
+	 *                          more make it fill up and the false positive rate
+	 *                          rise
+	 * @param falsePositiveRate The share of reads of keys not present that still
+	 *                          reach <i>store</i>, e.g. 0.01; lower rates take
+	 *                          more memory, about 10 bits per element for 1%
+	 * @throws IOException if the filter cannot be rebuilt from <i>store</i>
+	 */
+	public FilteredCacheStore(GeoCacheStore store, File filterFile, long expectedElements, double falsePositiveRate)
+			throws IOException {
+		if (store == null || filterFile == null) {
+			throw new IllegalArgumentException("store and filterFile may not be null");
+		}
+		BloomFilter.bitsFor(expectedElements, falsePositiveRate);
+		this.store = store;
+		this.filterFile = filterFile;
+		this.expectedElements = expectedElements;
+		this.falsePositiveRate = falsePositiveRate;
+		this.filter = load();
+	}
+
+	@Override
+	public CacheElement get(String key) throws IOException {
+		if (!filter.mightContain(key)) {
+			rejected.incrementAndGet();
+			return null;
+		}
+		return store.get(key);
+	}
+
+	@Override
+	public Map<String, CacheElement> getAll(Collection<String> keys) throws IOException {
+		List<String> candidates = new ArrayList<>(keys.size());
+		for (String key : keys) {
+			if (filter.mightContain(key)) {
+				candidates.add(key);
+			}
+		}
+		rejected.addAndGet(keys.size() - candidates.size());
+		return candidates.isEmpty() ? Map.of() : store.getAll(candidates);
+	}
+
+	@Override
+	public void put(String key, CacheElement element, long ttl) throws IOException {
+		// added first, so a read finding the element also passes the filter
+		filter.add(key);
+		store.put(key, element, ttl);
+		addAfterStore(key);
+	}
+
+	@Override
+	public void putAll(Map<String, CacheElement> elements, long ttl) throws IOException {
+		for (String key : elements.keySet()) {
+			filter.add(key);
+		}
+		store.putAll(elements, ttl);
+		for (String key : elements.keySet()) {
+			addAfterStore(key);
+		}
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		return store.delete(key);
+	}
+
+	@Override
+	public void forEach(BiConsumer<String, CacheElement> action) throws IOException {
+		store.forEach(action);
+	}
+
+	/**
+	 * Compacts the underlying store, then rebuilds the filter from the keys left,
+	 * dropping deleted ones. Stores made meanwhile are added to both filters.
+	 */
+	@Override
+	public synchronized void compact() throws IOException {
+		store.compact();
+		BloomFilter rebuilt = new BloomFilter(expectedElements, falsePositiveRate);
+		rebuilding = rebuilt;
+		try {
+			store.forEach((key, element) -> rebuilt.add(key));
+			filter = rebuilt;
+		} finally {
+			rebuilding = null;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		store.flush();
+	}
+
+	/**
+	 * Closes the underlying store and writes the filter to its file
+	 */
+	@Override
+	public void close() throws IOException {
+		store.close();
+		File temporary = new File(filterFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporary), 1 << 16))) {
+			filter.write(out);
+		}
+		Files.move(temporary.toPath(), filterFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Adds a key stored to the filter being rebuilt, if any, and once more to the
+	 * current filter. Called after the store, so a rebuild started later finds
+	 * the key in the store instead; and if a rebuild finished meanwhile, the
+	 * filter it swapped in is the current one, which no longer holds keys added
+	 * to the old filter before.
+	 */
+	private void addAfterStore(String key) {
+		BloomFilter next = rebuilding;
+		if (next != null) {
+			next.add(key);
+		}
+		filter.add(key);
+	}
+
+	/**
+	 * @return the number of reads answered by the filter alone
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the false positive rate expected from how full the filter is
+	 */
+	public double getFalsePositiveRate() {
+		return filter.getFalsePositiveRate();
+	}
+
+	/**
+	 * Reads the filter written on the last close. The file is deleted, so that
+	 * the filter is rebuilt if this store is not closed properly and misses
+	 * stores made after reading it.
+	 */
+	private BloomFilter load() throws IOException {
+		if (filterFile.isFile()) {
+			BloomFilter loaded = null;
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(filterFile), 1 << 16))) {
+				loaded = BloomFilter.read(in);
+			} catch (IOException e) {
+				System.err.println("Rebuilding Bloom filter, could not read " + filterFile + ": " + e.getMessage());
+			}
+			Files.delete(filterFile.toPath());
+			long bits = (BloomFilter.bitsFor(expectedElements, falsePositiveRate) + 63) & ~63L;
+			if (loaded != null && loaded.getBitCount() == bits) {
+				return loaded;
+			}
+		}
+		return build();
+	}
+
+	private BloomFilter build() throws IOException {
+		BloomFilter built = new BloomFilter(expectedElements, falsePositiveRate);
+		store.forEach((key, element) -> built.add(key));
+		return built;
+	}
+
+	@Override
+	public String toString() {
+		return "FilteredCacheStore[" + store + "]";
+	}
+
+}
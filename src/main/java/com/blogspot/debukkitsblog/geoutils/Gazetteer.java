@@ -0,0 +1,384 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local, read-only address directory answering geocoding requests without
+ * any network access. The gazetteer file is memory-mapped and searched in
+ * place using two sorted prefix indices, one on <i>zip code + street</i> and
+ * one on <i>city + street</i>.<br>
+ * <br>
+ * A gazetteer file is created from a semicolon separated text file (e.g.
+ * exported from an OSM address extract) using
+ * {@link #build(File, File)}. Files are limited to 2 GB, which is plenty for a
+ * regional extract.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class Gazetteer implements Closeable {
+
+	private static final int MAGIC = 0x475A5431; // "GZT1"
+	private static final int HEADER_SIZE = 16;
+	private static final int INDEX_ENTRY_SIZE = 8;
+
+	private static final Pattern ZIP_CODE = Pattern.compile("\\b(\\d{4,5})\\b");
+	private static final Pattern HOUSE_NUMBER = Pattern.compile(" \\d+[a-z]?$");
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer buffer;
+	private final int count;
+	private final int zipIndexOffset;
+	private final int cityIndexOffset;
+
+	private Gazetteer(RandomAccessFile file, MappedByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("Not a gazetteer file");
+		}
+		this.count = buffer.getInt(4);
+		this.zipIndexOffset = buffer.getInt(8);
+		this.cityIndexOffset = buffer.getInt(12);
+	}
+
+	/**
+	 * Opens a gazetteer file created by {@link #build(File, File)}
+	 *
+	 * @param gazetteerFile The gazetteer file
+	 * @return the opened Gazetteer
+	 * @throws IOException if <i>gazetteerFile</i> cannot be read or is not a
+	 *                     gazetteer file
+	 */
+	public static Gazetteer open(File gazetteerFile) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(gazetteerFile, "r");
+		try {
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			return new Gazetteer(file, buffer);
+		} catch (IOException | RuntimeException e) {
+			file.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Tries to find <i>address</i> in the gazetteer. The address should look
+	 * like <i>street number, zip code city</i>; the zip code or the city may be
+	 * omitted. If the house number is unknown, the first known house of the
+	 * street is returned.
+	 *
+	 * @param address The address to find
+	 * @return The GeoLocation - or null if not found
+	 */
+	public GeoLocation find(String address) {
+		if (address == null || address.isEmpty()) {
+			return null;
+		}
+
+		// split into street and locality part
+		String street;
+		String locality;
+		int comma = address.indexOf(',');
+		String zipCode = null;
+		if (comma >= 0) {
+			street = normalize(address.substring(0, comma));
+			locality = address.substring(comma + 1);
+			Matcher zipMatcher = ZIP_CODE.matcher(locality);
+			if (zipMatcher.find()) {
+				zipCode = zipMatcher.group(1);
+				locality = locality.substring(0, zipMatcher.start()) + locality.substring(zipMatcher.end());
+			}
+		} else {
+			Matcher zipMatcher = ZIP_CODE.matcher(address);
+			if (!zipMatcher.find()) {
+				return null;
+			}
+			zipCode = zipMatcher.group(1);
+			street = normalize(address.substring(0, zipMatcher.start()));
+			locality = address.substring(zipMatcher.end());
+		}
+		String city = normalize(locality.split(",")[0]);
+		if (street.isEmpty()) {
+			return null;
+		}
+
+		int record = -1;
+		if (zipCode != null) {
+			record = lookup(zipIndexOffset, zipCode, street);
+		}
+		if (record < 0 && !city.isEmpty()) {
+			record = lookup(cityIndexOffset, city, street);
+		}
+		return record < 0 ? null : readRecord(record);
+	}
+
+	/**
+	 * @return the number of addresses in the gazetteer
+	 */
+	public int size() {
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/**
+	 * Looks up <i>locality street</i> in an index, retrying without the house
+	 * number if there is no exact match
+	 *
+	 * @return the offset of the record found or -1
+	 */
+	private int lookup(int indexOffset, String locality, String street) {
+		byte[] key = (locality + " " + street).getBytes(StandardCharsets.UTF_8);
+		int record = prefixSearch(indexOffset, key);
+		if (record < 0) {
+			Matcher numberMatcher = HOUSE_NUMBER.matcher(street);
+			if (numberMatcher.find()) {
+				key = (locality + " " + street.substring(0, numberMatcher.start())).getBytes(StandardCharsets.UTF_8);
+				record = prefixSearch(indexOffset, key);
+			}
+		}
+		return record;
+	}
+
+	/**
+	 * Binary searches an index for the first key equal to <i>key</i> or starting
+	 * with <i>key</i> followed by a space character
+	 *
+	 * @return the offset of the record found or -1
+	 */
+	private int prefixSearch(int indexOffset, byte[] key) {
+		int low = 0;
+		int high = count - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (compareKey(buffer.getInt(indexOffset + mid * INDEX_ENTRY_SIZE), key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (low >= count) {
+			return -1;
+		}
+		int entry = indexOffset + low * INDEX_ENTRY_SIZE;
+		int keyOffset = buffer.getInt(entry);
+		int keyLength = buffer.getShort(keyOffset) & 0xFFFF;
+		if (keyLength < key.length) {
+			return -1;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.get(keyOffset + 2 + i) != key[i]) {
+				return -1;
+			}
+		}
+		// only accept whole words, "street 1" must not match "street 12"
+		if (keyLength > key.length && buffer.get(keyOffset + 2 + key.length) != ' ') {
+			return -1;
+		}
+		return buffer.getInt(entry + 4);
+	}
+
+	/**
+	 * Compares the key stored at <i>keyOffset</i> to <i>key</i> byte by byte
+	 * (unsigned) without copying it
+	 */
+	private int compareKey(int keyOffset, byte[] key) {
+		int length = buffer.getShort(keyOffset) & 0xFFFF;
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int diff = (buffer.get(keyOffset + 2 + i) & 0xFF) - (key[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return length - key.length;
+	}
+
+	private GeoLocation readRecord(int offset) {
+		double lat = buffer.getDouble(offset);
+		double lng = buffer.getDouble(offset + 8);
+		String[] fields = new String[7];
+		int position = offset + 16;
+		for (int i = 0; i < fields.length; i++) {
+			int length = buffer.getShort(position) & 0xFFFF;
+			byte[] bytes = new byte[length];
+			buffer.get(position + 2, bytes);
+			fields[i] = length == 0 ? null : new String(bytes, StandardCharsets.UTF_8);
+			position += 2 + length;
+		}
+		return new GeoLocation(lat, lng, fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6]);
+	}
+
+	/**
+	 * Normalizes an address part for lookups: lower case, German umlauts and
+	 * sharp s folded, 'str.' expanded to 'strasse', punctuation removed and white
+	 * space collapsed
+	 *
+	 * @param text The text to normalize
+	 * @return the normalized text
+	 */
+	static String normalize(String text) {
+		String result = text.toLowerCase(Locale.ROOT).replace("\u00e4", "ae").replace("\u00f6", "oe").replace("\u00fc", "ue")
+				.replace("\u00df", "ss");
+		result = result.replaceAll("[^\\p{L}\\p{N}]+", " ").trim();
+		return result.replaceAll("str\\b", "strasse");
+	}
+
+	/**
+	 * Creates a gazetteer file from a semicolon separated text file. Each line
+	 * of the text file describes one address:<br>
+	 * <i>latitude;longitude;street and number;zip code;neighborhood;city;county;state;country</i><br>
+	 * Empty fields are allowed, lines starting with '#' are ignored.
+	 *
+	 * @param textFile      The semicolon separated input file (UTF-8)
+	 * @param gazetteerFile The gazetteer file to create
+	 * @return the number of addresses written
+	 * @throws IOException if reading or writing fails or the input is malformed
+	 */
+	public static int build(File textFile, File gazetteerFile) throws IOException {
+		List<String[]> records = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(textFile), StandardCharsets.UTF_8))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isBlank() || line.startsWith("#")) {
+					continue;
+				}
+				String[] parts = line.split(";", -1);
+				if (parts.length != 9) {
+					throw new IOException("Line " + lineNumber + " of " + textFile + " does not have 9 fields");
+				}
+				records.add(parts);
+			}
+		}
+
+		// encode records
+		int[] recordOffsets = new int[records.size()];
+		byte[][] encoded = new byte[records.size()][];
+		int position = HEADER_SIZE;
+		for (int i = 0; i < records.size(); i++) {
+			String[] parts = records.get(i);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeDouble(Double.parseDouble(parts[0].trim()));
+			out.writeDouble(Double.parseDouble(parts[1].trim()));
+			for (int k = 2; k < 9; k++) {
+				writeString(out, parts[k].trim());
+			}
+			encoded[i] = bytes.toByteArray();
+			recordOffsets[i] = position;
+			position += encoded[i].length;
+		}
+
+		// build index keys
+		IndexEntry[] zipEntries = new IndexEntry[records.size()];
+		IndexEntry[] cityEntries = new IndexEntry[records.size()];
+		for (int i = 0; i < records.size(); i++) {
+			String[] parts = records.get(i);
+			String street = normalize(parts[2]);
+			zipEntries[i] = new IndexEntry(normalize(parts[3]) + " " + street, recordOffsets[i]);
+			cityEntries[i] = new IndexEntry(normalize(parts[5]) + " " + street, recordOffsets[i]);
+		}
+		Arrays.sort(zipEntries);
+		Arrays.sort(cityEntries);
+
+		// lay out keys behind the records, indices behind the keys
+		for (IndexEntry entry : zipEntries) {
+			entry.keyOffset = position;
+			position += 2 + entry.key.length;
+		}
+		for (IndexEntry entry : cityEntries) {
+			entry.keyOffset = position;
+			position += 2 + entry.key.length;
+		}
+		int zipIndexOffset = position;
+		int cityIndexOffset = zipIndexOffset + records.size() * INDEX_ENTRY_SIZE;
+		if ((long) cityIndexOffset + records.size() * INDEX_ENTRY_SIZE > Integer.MAX_VALUE) {
+			throw new IOException("Gazetteer would exceed 2 GB, please split the input");
+		}
+
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(gazetteerFile), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(records.size());
+			out.writeInt(zipIndexOffset);
+			out.writeInt(cityIndexOffset);
+			for (byte[] record : encoded) {
+				out.write(record);
+			}
+			for (IndexEntry entry : zipEntries) {
+				out.writeShort(entry.key.length);
+				out.write(entry.key);
+			}
+			for (IndexEntry entry : cityEntries) {
+				out.writeShort(entry.key.length);
+				out.write(entry.key);
+			}
+			for (IndexEntry entry : zipEntries) {
+				out.writeInt(entry.keyOffset);
+				out.writeInt(entry.recordOffset);
+			}
+			for (IndexEntry entry : cityEntries) {
+				out.writeInt(entry.keyOffset);
+				out.writeInt(entry.recordOffset);
+			}
+		}
+		return records.size();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0xFFFF) {
+			throw new IOException("Field too long: " + value.substring(0, 32) + "...");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * A key of one of the indices and the record it points to
+	 */
+	private static class IndexEntry implements Comparable<IndexEntry> {
+
+		private final byte[] key;
+		private final int recordOffset;
+		private int keyOffset;
+
+		private IndexEntry(String key, int recordOffset) {
+			this.key = key.getBytes(StandardCharsets.UTF_8);
+			this.recordOffset = recordOffset;
+		}
+
+		@Override
+		public int compareTo(IndexEntry other) {
+			return Arrays.compareUnsigned(key, other.key);
+		}
+	}
+
+}
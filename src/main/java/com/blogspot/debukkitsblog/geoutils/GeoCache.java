@@ -1,14 +1,41 @@
 package com.blogspot.debukkitsblog.geoutils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
-
-import com.blogspot.debukkitsblog.util.FileStorage;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Provides a simple cache storage for use with the GeoCoder and GeoRouter
  * services
+ * <p>
+ * The elements are kept in a {@link GeoCacheStore}: a local file by default,
+ * or e.g. a {@link RemoteCacheStore} shared by all nodes of a cluster. A
+ * GeoCache is safe for concurrent use by any number of threads; see the store
+ * for its consistency model. If the store fails, reads are treated as misses
+ * and stores are skipped, so the services fall back to the external APIs.
  * 
  * @author DeBukkIt
  *
@@ -19,9 +46,15 @@ public class GeoCache implements Serializable {
 	 * 
 	 */
 	private static final long serialVersionUID = 853274164210716569L;
+
+	private static final int SNAPSHOT_MAGIC = 0x47435331;
+	private static final int SNAPSHOT_END = 0;
+	private static final int IMPORT_BATCH_SIZE = 1024;
 	
-	private FileStorage storage;
+	private GeoCacheStore store;
 	private long durability;
+	private transient GeoMetrics metrics = MetricsRegistry.getDefault();
+	private boolean silentMode;
 
 	public static final long ONE_DAY = 1000 * 60 * 60 * 24;
 	public static final long TWO_DAYS = ONE_DAY * 2;
@@ -47,8 +80,53 @@ public class GeoCache implements Serializable {
 	 *             if <i>file</i> is a directory
 	 */
 	public GeoCache(File file, long durability) throws IOException, IllegalArgumentException {
+		this(new FileCacheStore(file), durability);
+	}
+
+	/**
+	 * Creates a new cache object keeping its elements in <i>store</i>
+	 * 
+	 * @param store
+	 *            The store to keep the cached information in
+	 * @param durability
+	 *            a durability after which a particular cache element is renewed
+	 */
+	public GeoCache(GeoCacheStore store, long durability) {
+		if (store == null) {
+			throw new IllegalArgumentException("store may not be null");
+		}
+		this.store = store;
 		this.durability = durability;
-		storage = new FileStorage(file, true);
+	}
+
+	/**
+	 * @return the store the elements are kept in
+	 */
+	public GeoCacheStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Sets the metrics cache hits, misses, expiries and store errors are reported to
+	 * 
+	 * @param metrics the metrics to report to, {@link MetricsRegistry#getDefault()}
+	 *                by default; {@link GeoMetrics#NONE} to report nothing
+	 */
+	public void setMetrics(GeoMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("metrics may not be null, use GeoMetrics.NONE instead");
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets whether failures of the store are printed to System.err; they are
+	 * reported to the metrics either way
+	 * 
+	 * @param silentMode true to print nothing, false by default
+	 */
+	public void setSilentMode(boolean silentMode) {
+		this.silentMode = silentMode;
 	}
 
 	/**
@@ -60,12 +138,12 @@ public class GeoCache implements Serializable {
 	 *            The GeoLocation to be stored
 	 */
 	public void cacheStorePosition(String address, GeoLocation pos) {
+		GeoEvents.CacheAccess event = new GeoEvents.CacheAccess();
+		event.begin();
 		// save to storage wrapped in a GeoLocationCache object
-		try {
-			storage.store(address.toLowerCase(), new CacheElement(pos));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		String key = address.toLowerCase();
+		store(key, new CacheElement(pos));
+		event.finish(key, "write", 1);
 	}
 
 	/**
@@ -77,16 +155,24 @@ public class GeoCache implements Serializable {
 	 *         <i>address</i> key
 	 */
 	public GeoLocation cacheReadPosition(String address) {
+		GeoEvents.CacheAccess event = new GeoEvents.CacheAccess();
+		event.begin();
 		// load from storage
-		Object obj = storage.get(address.toLowerCase());
-		if (obj != null && obj instanceof CacheElement) {
-			// convert to GeoLocationCache object
-			CacheElement cachedPosition = (CacheElement) obj;
+		String key = address.toLowerCase();
+		CacheElement cachedPosition = load(key);
+		if (cachedPosition != null) {
 			// only return if not expired yet
 			if (cachedPosition.time + durability >= System.currentTimeMillis()) {
+				metrics().recordCacheHit("position");
+				event.finish(key, "hit", 1);
 				return (GeoLocation) cachedPosition.content;
 			}
+			metrics().recordCacheExpiry("position");
+			event.finish(key, "expired", 0);
+			return null;
 		}
+		metrics().recordCacheMiss("position");
+		event.finish(key, "miss", 0);
 		return null;
 	}
 
@@ -104,12 +190,12 @@ public class GeoCache implements Serializable {
 	 *            The route to be cached
 	 */
 	public void cacheStoreRoute(GeoLocation from, GeoLocation to, GeoRoute route) {
+		GeoEvents.CacheAccess event = new GeoEvents.CacheAccess();
+		event.begin();
 		// save to storage wrapped in a GeoLocationCache object
-		try {
-			storage.store(from.toString() + "->" + to.toString(), new CacheElement(route));
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		String key = routeKey(from, to);
+		store(key, new CacheElement(route));
+		event.finish(key, "write", GeoEvents.pointCount(route));
 	}
 
 	/**
@@ -123,40 +209,362 @@ public class GeoCache implements Serializable {
 	 *         and </i>to</i>
 	 */
 	public GeoRoute cacheReadRoute(GeoLocation from, GeoLocation to) {
+		GeoEvents.CacheAccess event = new GeoEvents.CacheAccess();
+		event.begin();
 		// load from storage
-		Object obj = storage.get(from.toString() + "->" + to.toString());
-		if (obj != null && obj instanceof CacheElement) {
-			// convert to GeoLocationCache object
-			CacheElement cachedRoute = (CacheElement) obj;
+		String key = routeKey(from, to);
+		CacheElement cachedRoute = load(key);
+		if (cachedRoute != null) {
 			// only return if not expired yet
 			if (cachedRoute.time + durability >= System.currentTimeMillis()) {
-				return (GeoRoute) cachedRoute.content;
+				metrics().recordCacheHit("route");
+				GeoRoute route = (GeoRoute) cachedRoute.content;
+				event.finish(key, "hit", GeoEvents.pointCount(route));
+				return route;
 			}
+			metrics().recordCacheExpiry("route");
+			event.finish(key, "expired", 0);
+			return null;
 		}
+		metrics().recordCacheMiss("route");
+		event.finish(key, "miss", 0);
 		return null;
 	}
 
+	/**
+	 * Reads the positions of several addresses at once, in a single round trip
+	 * for remote stores
+	 * 
+	 * @param addresses
+	 *            The keys to find the objects with
+	 * @return the GeoLocations found by their addresses; addresses without a
+	 *         valid position cached are missing
+	 */
+	public Map<String, GeoLocation> cacheReadPositions(Collection<String> addresses) {
+		Map<String, String> keys = new HashMap<>();
+		for (String address : addresses) {
+			keys.put(address.toLowerCase(), address);
+		}
+		Map<String, CacheElement> loaded;
+		try {
+			loaded = store.getAll(keys.keySet());
+		} catch (IOException e) {
+			storeFailed("read", e);
+			loaded = Map.of();
+		}
+		Map<String, GeoLocation> found = new HashMap<>();
+		long oldest = System.currentTimeMillis() - durability;
+		for (Map.Entry<String, String> key : keys.entrySet()) {
+			CacheElement cachedPosition = loaded.get(key.getKey());
+			if (cachedPosition == null) {
+				metrics().recordCacheMiss("position");
+			} else if (cachedPosition.time < oldest) {
+				metrics().recordCacheExpiry("position");
+			} else {
+				metrics().recordCacheHit("position");
+				found.put(key.getValue(), (GeoLocation) cachedPosition.content);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Waits until all stores completed before this call are durable, e.g. have
+	 * been written to the file
+	 */
+	public void flush() {
+		try {
+			store.flush();
+		} catch (IOException e) {
+			storeFailed("flush", e);
+		}
+	}
+
+	/**
+	 * Frees the space taken by replaced, deleted and expired elements in the
+	 * store, and rebuilds its filter of present keys, if any
+	 * 
+	 * @throws IOException
+	 *             if the store cannot be compacted
+	 * @see FilteredCacheStore
+	 */
+	public void compact() throws IOException {
+		store.compact();
+	}
+
+	/**
+	 * Writes all positions and routes not expired yet to a snapshot file, e.g. to
+	 * copy them to a new node
+	 * 
+	 * @param file
+	 *            The file to write the snapshot to
+	 * @return the number of elements written
+	 * @throws IOException
+	 *             if the file cannot be written
+	 * @see #importSnapshot(File)
+	 */
+	public int exportSnapshot(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			return exportSnapshot(out);
+		}
+	}
+
+	/**
+	 * Writes all positions and routes not expired yet to a stream in the
+	 * compact, gzip-compressed snapshot format. Elements are streamed one at a
+	 * time; stores during the export may or may not be included.
+	 * 
+	 * @param out
+	 *            The stream to write the snapshot to; it is not closed
+	 * @return the number of elements written
+	 * @throws IOException
+	 *             if the stream cannot be written
+	 */
+	public int exportSnapshot(OutputStream out) throws IOException {
+		GZIPOutputStream gzip = new GZIPOutputStream(out, 1 << 16);
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip, 1 << 16));
+		data.writeInt(SNAPSHOT_MAGIC);
+
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+		DataOutputStream payload = new DataOutputStream(buffer);
+		long now = System.currentTimeMillis();
+		AtomicInteger count = new AtomicInteger();
+		try {
+			store.forEach((key, element) -> {
+				int kind = CacheCodec.kindOf(element.content);
+				if (element.time + durability < now || kind == CacheCodec.UNSUPPORTED) {
+					return;
+				}
+				try {
+					buffer.reset();
+					CacheCodec.writeContent(payload, kind, element.content);
+					// length-prefixed, so an import can decode records in parallel
+					data.writeByte(kind);
+					data.writeUTF(key);
+					data.writeLong(element.time);
+					data.writeInt(buffer.size());
+					buffer.writeTo(data);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				count.incrementAndGet();
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		data.writeByte(SNAPSHOT_END);
+		data.flush();
+		gzip.finish();
+		return count.get();
+	}
+
+	/**
+	 * Loads a snapshot in the background. The file is read on a thread of its
+	 * own and the records are decoded and stored in parallel batches; every
+	 * batch becomes readable as soon as it is stored, so the cache can serve
+	 * requests while the snapshot is loading. Elements expired in the meantime
+	 * are skipped; if an element is cached already, the more recent one is kept.
+	 * 
+	 * @param file
+	 *            The snapshot file written by {@link #exportSnapshot(File)}
+	 * @return a future completed with the number of elements imported once all
+	 *         of them are stored and flushed, or exceptionally if the snapshot
+	 *         cannot be read or the store fails
+	 */
+	public CompletableFuture<Integer> importSnapshot(File file) {
+		CompletableFuture<Integer> result = new CompletableFuture<>();
+		Thread reader = new Thread(() -> {
+			try {
+				AtomicInteger imported = new AtomicInteger();
+				List<CompletableFuture<Void>> batches = new ArrayList<>();
+				try (InputStream in = new FileInputStream(file)) {
+					readSnapshot(in, imported, batches);
+				}
+				CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).join();
+				store.flush();
+				result.complete(imported.get());
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		}, "GeoCache-import");
+		reader.setDaemon(true);
+		reader.start();
+		return result;
+	}
+
+	/**
+	 * Reads raw records sequentially and hands them to the common pool in
+	 * batches for decoding and storing
+	 */
+	private void readSnapshot(InputStream in, AtomicInteger imported,
+			List<CompletableFuture<Void>> batches) throws IOException {
+		DataInputStream data = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(in, 1 << 16), 1 << 16));
+		if (data.readInt() != SNAPSHOT_MAGIC) {
+			throw new IOException("Not a GeoCache snapshot");
+		}
+		long oldest = System.currentTimeMillis() - durability;
+		List<Object[]> batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+		int kind;
+		while ((kind = data.readUnsignedByte()) != SNAPSHOT_END) {
+			String key = data.readUTF();
+			long time = data.readLong();
+			byte[] payload = new byte[data.readInt()];
+			data.readFully(payload);
+			if (time < oldest) {
+				continue;
+			}
+			batch.add(new Object[] { kind, key, time, payload });
+			if (batch.size() == IMPORT_BATCH_SIZE) {
+				List<Object[]> full = batch;
+				batches.add(CompletableFuture.runAsync(() -> importBatch(full, imported)));
+				batch = new ArrayList<>(IMPORT_BATCH_SIZE);
+			}
+		}
+		if (!batch.isEmpty()) {
+			List<Object[]> last = batch;
+			batches.add(CompletableFuture.runAsync(() -> importBatch(last, imported)));
+		}
+	}
+
+	private void importBatch(List<Object[]> records, AtomicInteger imported) {
+		try {
+			Map<String, CacheElement> elements = new HashMap<>();
+			for (Object[] record : records) {
+				DataInputStream payload = new DataInputStream(new ByteArrayInputStream((byte[]) record[3]));
+				Object content = CacheCodec.readContent(payload, (int) record[0]);
+				elements.put((String) record[1], new CacheElement(content, (long) record[2]));
+			}
+			// keep elements stored meanwhile if they are more recent
+			for (Map.Entry<String, CacheElement> cached : store.getAll(elements.keySet()).entrySet()) {
+				if (cached.getValue().time >= elements.get(cached.getKey()).time) {
+					elements.remove(cached.getKey());
+				}
+			}
+			store.putAll(elements, durability);
+			imported.addAndGet(elements.size());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Runs <i>loader</i> for every item on a pool of <i>parallelism</i> daemon
+	 * threads, used to preload a hot set at startup
+	 * 
+	 * @return a future completed with the number of items <i>loader</i> returned
+	 *         true for once all of them are done
+	 */
+	static <T> CompletableFuture<Integer> warmUp(Collection<T> items, int parallelism, String name,
+			Predicate<T> loader) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		AtomicInteger threads = new AtomicInteger();
+		ExecutorService pool = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread thread = new Thread(r, name + "-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		AtomicInteger loaded = new AtomicInteger();
+		List<CompletableFuture<Void>> tasks = new ArrayList<>(items.size());
+		for (T item : items) {
+			tasks.add(CompletableFuture.runAsync(() -> {
+				if (loader.test(item)) {
+					loaded.incrementAndGet();
+				}
+			}, pool));
+		}
+		pool.shutdown();
+		return CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).thenApply(v -> loaded.get());
+	}
+
+	/**
+	 * @return the element stored under <i>key</i>, null if there is none or the
+	 *         store fails
+	 */
+	private CacheElement load(String key) {
+		try {
+			return store.get(key);
+		} catch (IOException e) {
+			storeFailed("read", e);
+			return null;
+		}
+	}
+
+	private void store(String key, CacheElement element) {
+		try {
+			store.put(key, element, durability);
+		} catch (IOException e) {
+			storeFailed("write", e);
+		}
+	}
+
+	/**
+	 * Reports a failed store operation to the metrics and, unless in silent
+	 * mode, to System.err
+	 */
+	private void storeFailed(String operation, IOException e) {
+		metrics().recordCacheError(operation);
+		if (!silentMode) {
+			System.err.println("Could not " + operation + " " + store + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the key a route from <i>from</i> to <i>to</i> is cached under
+	 */
+	static String routeKey(GeoLocation from, GeoLocation to) {
+		return from.toString() + "->" + to.toString();
+	}
+
+	private GeoMetrics metrics() {
+		// null after deserialization
+		GeoMetrics current = metrics;
+		return current != null ? current : MetricsRegistry.getDefault();
+	}
+
 	/**
 	 * A CacheElement wrapping any object with and the current system time of
 	 * instantiation. The time stamp will be used later for calculating the
-	 * durability of the cached object.
+	 * durability of the cached object. The class is static, so elements are
+	 * serialized without the GeoCache they belong to.
 	 * 
 	 * @author DeBukkIt
 	 *
 	 */
-	private class CacheElement implements Serializable {
+	public static class CacheElement implements Serializable {
 
 		/**
 		 * 
 		 */
 		private static final long serialVersionUID = 5916047588133440995L;
 
-		public Object content;
-		public long time;
+		private final Object content;
+		private final long time;
 
 		public CacheElement(Object content) {
+			this(content, System.currentTimeMillis());
+		}
+
+		public CacheElement(Object content, long time) {
 			this.content = content;
-			this.time = System.currentTimeMillis();
+			this.time = time;
+		}
+
+		/**
+		 * @return the object cached
+		 */
+		public Object getContent() {
+			return content;
+		}
+
+		/**
+		 * @return the time the object was cached at, in milliseconds since the
+		 *         epoch
+		 */
+		public long getTime() {
+			return time;
 		}
 	}
 
@@ -0,0 +1,118 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * The storage behind a GeoCache. Implementations must be safe for concurrent
+ * use; the GeoCache decides whether an element has expired, a store only keeps
+ * elements for at least the time to live it is given.
+ * <p>
+ * Built-in stores: {@link FileCacheStore} (the default, one file per node),
+ * {@link MemoryCacheStore} and {@link RemoteCacheStore}, which shares one
+ * cache between several nodes.
+ *
+ * @author DeBukkIt
+ *
+ */
+public interface GeoCacheStore extends Closeable {
+
+	/**
+	 * @param key The key
+	 * @return the element stored under <i>key</i>, null if there is none
+	 * @throws IOException if the store cannot be read
+	 */
+	CacheElement get(String key) throws IOException;
+
+	/**
+	 * Reads several elements at once, in a single round trip for remote stores
+	 *
+	 * @param keys The keys
+	 * @return the elements found by their keys; keys without an element are
+	 *         missing
+	 * @throws IOException if the store cannot be read
+	 */
+	default Map<String, CacheElement> getAll(Collection<String> keys) throws IOException {
+		Map<String, CacheElement> found = new HashMap<>();
+		for (String key : keys) {
+			CacheElement element = get(key);
+			if (element != null) {
+				found.put(key, element);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Stores an element, replacing any element stored under <i>key</i> before
+	 *
+	 * @param key     The key
+	 * @param element The element
+	 * @param ttl     The time in milliseconds after the time of <i>element</i>
+	 *                the store may drop it; stores may keep it longer
+	 * @throws IOException if the store cannot be written
+	 */
+	void put(String key, CacheElement element, long ttl) throws IOException;
+
+	/**
+	 * Stores several elements at once, in a single round trip for remote stores
+	 *
+	 * @param elements The elements by their keys
+	 * @param ttl      The time to live, see {@link #put(String, CacheElement, long)}
+	 * @throws IOException if the store cannot be written
+	 */
+	default void putAll(Map<String, CacheElement> elements, long ttl) throws IOException {
+		for (Map.Entry<String, CacheElement> entry : elements.entrySet()) {
+			put(entry.getKey(), entry.getValue(), ttl);
+		}
+	}
+
+	/**
+	 * @param key The key
+	 * @return true if there was an element stored under <i>key</i>
+	 * @throws IOException if the store cannot be written
+	 */
+	boolean delete(String key) throws IOException;
+
+	/**
+	 * Passes every element stored to <i>action</i>. Elements stored or deleted
+	 * meanwhile may or may not be included.
+	 *
+	 * @param action The action
+	 * @throws IOException if the store cannot be read
+	 */
+	void forEach(BiConsumer<String, CacheElement> action) throws IOException;
+
+	/**
+	 * Frees the space taken by replaced, deleted and expired elements, if the
+	 * store keeps them
+	 *
+	 * @throws IOException if the store cannot be rewritten
+	 */
+	default void compact() throws IOException {
+	}
+
+	/**
+	 * Waits until all elements stored before the call are durable, if the store
+	 * writes them in the background
+	 *
+	 * @throws IOException if the store cannot be written
+	 */
+	default void flush() throws IOException {
+	}
+
+	/**
+	 * Flushes the store and releases its resources
+	 */
+	@Override
+	default void close() throws IOException {
+		flush();
+	}
+
+}
@@ -0,0 +1,353 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Arrays;
+
+/**
+ * Encodes locations as cells of a grid over the earth for bucketing, sorting,
+ * sharding and range-scannable keys. Latitude and longitude are quantized to
+ * 32 bits each, about 5 mm, and packed into a single long, either along a
+ * Z-order curve or along a Hilbert curve. Z-order keys share their leading bits
+ * with geohashes of the same location, so a geohash prefix is a contiguous range
+ * of Z-order keys.
+ * <p>
+ * A cell of a level between 1 and 32 is given by the leading 2 * level bits of
+ * a Z-order key; level 1 halves the world in both directions, level 32 is the
+ * finest. All methods except those producing Strings allocate nothing.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class GeoCell {
+
+	/** the finest level of cells */
+	public static final int MAX_LEVEL = 32;
+	/** the longest geohash whose bits fit into a Z-order key */
+	public static final int MAX_GEOHASH_LENGTH = 12;
+
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+	private static final byte[] BASE32_INDEX = new byte[128];
+	private static final double LATITUDE_SCALE = 4294967296.0 / 180;
+	private static final double LONGITUDE_SCALE = 4294967296.0 / 360;
+	private static final long LATITUDE_BITS = 0x5555555555555555L;
+	private static final long LONGITUDE_BITS = 0xAAAAAAAAAAAAAAAAL;
+	// meters per cell of level 0 in north-south and east-west direction
+	private static final double MERIDIAN_LENGTH = 20_003_931;
+	private static final double EQUATOR_LENGTH = 40_075_017;
+
+	static {
+		Arrays.fill(BASE32_INDEX, (byte) -1);
+		for (int i = 0; i < BASE32.length; i++) {
+			BASE32_INDEX[BASE32[i]] = (byte) i;
+		}
+	}
+
+	private GeoCell() {
+	}
+
+	/**
+	 * @param latitude  The latitude
+	 * @param longitude The longitude
+	 * @return the Z-order key of the location; longitude and latitude bits
+	 *         alternate starting with the most significant longitude bit, just
+	 *         like in geohashes
+	 */
+	public static long zOrder(double latitude, double longitude) {
+		return spread(quantizeLongitude(longitude)) << 1 | spread(quantizeLatitude(latitude));
+	}
+
+	/**
+	 * @param location The location
+	 * @return the Z-order key of the location, see {@link #zOrder(double, double)}
+	 */
+	public static long zOrder(GeoLocation location) {
+		return zOrder(location.getLatitude(), location.getLongitude());
+	}
+
+	/**
+	 * @param zOrder A Z-order key
+	 * @return the latitude of the center of the finest cell of the key
+	 */
+	public static double latitudeOf(long zOrder) {
+		return (compact(zOrder) + 0.5) / LATITUDE_SCALE - 90;
+	}
+
+	/**
+	 * @param zOrder A Z-order key
+	 * @return the longitude of the center of the finest cell of the key
+	 */
+	public static double longitudeOf(long zOrder) {
+		return (compact(zOrder >>> 1) + 0.5) / LONGITUDE_SCALE - 180;
+	}
+
+	/**
+	 * Keys along a Hilbert curve keep neighboring locations closer together than
+	 * Z-order keys do, as the curve never jumps; sorting by them gives better
+	 * locality, e.g. for batches of cache lookups or for splitting work into
+	 * regions by key ranges. As with Z-order keys, the leading 2 * level bits
+	 * identify the cell of a level.
+	 *
+	 * @param latitude  The latitude
+	 * @param longitude The longitude
+	 * @return the Hilbert key of the location
+	 */
+	public static long hilbert(double latitude, double longitude) {
+		int x = quantizeLongitude(longitude);
+		int y = quantizeLatitude(latitude);
+		// branch-free prefix scan over the orientation of the curve in every
+		// quadrant, see "2D Hilbert curves in O(1)" by rawrunprotected
+		int a = x ^ y;
+		int b = ~a;
+		int c = ~(x | y);
+		int d = x & ~y;
+		int pa = a | (b >>> 1);
+		int pb = (a >>> 1) ^ a;
+		int pc = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+		int pd = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+		for (int shift = 2; shift <= 16; shift <<= 1) {
+			a = pa;
+			b = pb;
+			c = pc;
+			d = pd;
+			pa = (a & (a >>> shift)) ^ (b & (b >>> shift));
+			pb = (a & (b >>> shift)) ^ (b & ((a ^ b) >>> shift));
+			pc ^= (a & (c >>> shift)) ^ (b & (d >>> shift));
+			pd ^= (b & (c >>> shift)) ^ ((a ^ b) & (d >>> shift));
+		}
+		a = pc ^ (pc >>> 1);
+		b = pd ^ (pd >>> 1);
+		int i0 = x ^ y;
+		int i1 = b | ~(i0 | a);
+		return spread(i1) << 1 | spread(i0);
+	}
+
+	/**
+	 * @param location The location
+	 * @return the Hilbert key of the location, see {@link #hilbert(double, double)}
+	 */
+	public static long hilbert(GeoLocation location) {
+		return hilbert(location.getLatitude(), location.getLongitude());
+	}
+
+	/**
+	 * @param latitude  The latitude
+	 * @param longitude The longitude
+	 * @param level     The level of the cell, 1 to {@link #MAX_LEVEL}
+	 * @return the cell of the given level containing the location
+	 */
+	public static long cell(double latitude, double longitude, int level) {
+		return zOrder(latitude, longitude) >>> (64 - 2 * checkLevel(level));
+	}
+
+	/**
+	 * @param location The location
+	 * @param level    The level of the cell, 1 to {@link #MAX_LEVEL}
+	 * @return the cell of the given level containing the location
+	 */
+	public static long cell(GeoLocation location, int level) {
+		return cell(location.getLatitude(), location.getLongitude(), level);
+	}
+
+	/**
+	 * Chooses a level for finding locations near each other: all locations
+	 * within <i>meters</i> of a location lie in its cell or one of the eight
+	 * neighbors of it (see {@link #neighbors(long, int, long[], int)}).
+	 *
+	 * @param meters   The distance to cover
+	 * @param latitude The latitude around which cells are used; cells get
+	 *                 narrower towards the poles
+	 * @return the finest level whose cells are at least <i>meters</i> high and
+	 *         wide at <i>latitude</i>, at least 1
+	 */
+	public static int levelFor(double meters, double latitude) {
+		double width = EQUATOR_LENGTH * Math.cos(Math.toRadians(latitude));
+		double ratio = Math.min(MERIDIAN_LENGTH, width) / meters;
+		// the exponent of a double is the floor of its binary logarithm
+		return Math.max(1, Math.min(MAX_LEVEL, Math.getExponent(ratio)));
+	}
+
+	/**
+	 * Finds the cell <i>latitudeSteps</i> cells north and <i>longitudeSteps</i>
+	 * cells east of <i>cell</i>, negative steps going south and west. Cells wrap
+	 * around in both directions, which is right across the 180th meridian; beyond
+	 * the poles, the cells found are those at the opposite pole.
+	 *
+	 * @param cell           The cell
+	 * @param level          The level of the cell
+	 * @param latitudeSteps  The number of cells to go north
+	 * @param longitudeSteps The number of cells to go east
+	 * @return the cell found, on the same level
+	 */
+	public static long neighbor(long cell, int level, int latitudeSteps, int longitudeSteps) {
+		long mask = -1L >>> (64 - 2 * checkLevel(level));
+		long latitudeMask = LATITUDE_BITS & mask;
+		long longitudeMask = LONGITUDE_BITS & mask;
+		// add on the interleaved bits: the bits of the other coordinate are set
+		// so that carries run across them
+		long latitude = ((cell | ~latitudeMask) + (spread(latitudeSteps) & latitudeMask)) & latitudeMask;
+		long longitude = ((cell | ~longitudeMask) + ((spread(longitudeSteps) << 1) & longitudeMask)) & longitudeMask;
+		return latitude | longitude;
+	}
+
+	/**
+	 * Writes the eight cells surrounding <i>cell</i> into <i>result</i>, starting
+	 * in the south-west and ending in the north-east
+	 *
+	 * @param cell   The cell
+	 * @param level  The level of the cell
+	 * @param result The array to write the neighbors to
+	 * @param offset The index of the first neighbor in <i>result</i>
+	 * @return the number of neighbors written, always 8
+	 */
+	public static int neighbors(long cell, int level, long[] result, int offset) {
+		int i = offset;
+		for (int latitudeSteps = -1; latitudeSteps <= 1; latitudeSteps++) {
+			for (int longitudeSteps = -1; longitudeSteps <= 1; longitudeSteps++) {
+				if (latitudeSteps != 0 || longitudeSteps != 0) {
+					result[i++] = neighbor(cell, level, latitudeSteps, longitudeSteps);
+				}
+			}
+		}
+		return i - offset;
+	}
+
+	/**
+	 * @param cell  The cell
+	 * @param level The level of the cell
+	 * @return the cell of level - 1 containing <i>cell</i>
+	 */
+	public static long parent(long cell, int level) {
+		checkLevel(level - 1);
+		return cell >>> 2;
+	}
+
+	/**
+	 * @param cell  The cell
+	 * @param level The level of the cell
+	 * @return the smallest Z-order key of locations inside <i>cell</i>
+	 */
+	public static long rangeStart(long cell, int level) {
+		return cell << (64 - 2 * checkLevel(level));
+	}
+
+	/**
+	 * @param cell  The cell
+	 * @param level The level of the cell
+	 * @return the largest Z-order key of locations inside <i>cell</i>; compare it
+	 *         unsigned, e.g. using {@link Long#compareUnsigned(long, long)}
+	 */
+	public static long rangeEnd(long cell, int level) {
+		return rangeStart(cell, level) | ~(-1L << (64 - 2 * level));
+	}
+
+	/**
+	 * @param latitude  The latitude
+	 * @param longitude The longitude
+	 * @param length    The number of characters, 1 to
+	 *                  {@link #MAX_GEOHASH_LENGTH}
+	 * @return the geohash of the location
+	 */
+	public static String geohash(double latitude, double longitude, int length) {
+		return geohash(zOrder(latitude, longitude), length);
+	}
+
+	/**
+	 * @param location The location
+	 * @param length   The number of characters, 1 to
+	 *                 {@link #MAX_GEOHASH_LENGTH}
+	 * @return the geohash of the location
+	 */
+	public static String geohash(GeoLocation location, int length) {
+		return geohash(zOrder(location), length);
+	}
+
+	/**
+	 * @param zOrder A Z-order key
+	 * @param length The number of characters, 1 to {@link #MAX_GEOHASH_LENGTH}
+	 * @return the geohash of the key
+	 */
+	public static String geohash(long zOrder, int length) {
+		if (length < 1 || length > MAX_GEOHASH_LENGTH) {
+			throw new IllegalArgumentException("length must be between 1 and " + MAX_GEOHASH_LENGTH);
+		}
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = BASE32[(int) (zOrder >>> (59 - 5 * i)) & 31];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * @param geohash A geohash of up to {@link #MAX_GEOHASH_LENGTH} characters
+	 * @return the smallest Z-order key of locations inside the geohash
+	 * @throws IllegalArgumentException if <i>geohash</i> is too long or not a
+	 *                                  geohash
+	 */
+	public static long rangeStart(CharSequence geohash) {
+		int length = geohash.length();
+		if (length > MAX_GEOHASH_LENGTH) {
+			throw new IllegalArgumentException("geohash may have at most " + MAX_GEOHASH_LENGTH + " characters");
+		}
+		long key = 0;
+		for (int i = 0; i < length; i++) {
+			char c = geohash.charAt(i);
+			int value = c < 128 ? BASE32_INDEX[c] : -1;
+			if (value < 0) {
+				throw new IllegalArgumentException("'" + c + "' is not a geohash character");
+			}
+			key |= (long) value << (59 - 5 * i);
+		}
+		return key;
+	}
+
+	/**
+	 * @param geohash A geohash of up to {@link #MAX_GEOHASH_LENGTH} characters
+	 * @return the largest Z-order key of locations inside the geohash; compare it
+	 *         unsigned, e.g. using {@link Long#compareUnsigned(long, long)}
+	 * @throws IllegalArgumentException if <i>geohash</i> is too long or not a
+	 *                                  geohash
+	 */
+	public static long rangeEnd(CharSequence geohash) {
+		return rangeStart(geohash) | (-1L >>> (5 * geohash.length()));
+	}
+
+	private static int quantizeLatitude(double latitude) {
+		// the cast saturates, NaN becomes 0
+		return (int) Math.max(0, Math.min((long) ((latitude + 90) * LATITUDE_SCALE), 0xFFFFFFFFL));
+	}
+
+	private static int quantizeLongitude(double longitude) {
+		return (int) Math.max(0, Math.min((long) ((longitude + 180) * LONGITUDE_SCALE), 0xFFFFFFFFL));
+	}
+
+	/**
+	 * @return the 32 bits of <i>value</i> moved to the even positions of a long
+	 */
+	private static long spread(int value) {
+		long x = value & 0xFFFFFFFFL;
+		x = (x | x << 16) & 0x0000FFFF0000FFFFL;
+		x = (x | x << 8) & 0x00FF00FF00FF00FFL;
+		x = (x | x << 4) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | x << 2) & 0x3333333333333333L;
+		return (x | x << 1) & 0x5555555555555555L;
+	}
+
+	/**
+	 * @return the even bits of <i>value</i> as unsigned 32 bit value
+	 */
+	private static long compact(long value) {
+		long x = value & 0x5555555555555555L;
+		x = (x | x >>> 1) & 0x3333333333333333L;
+		x = (x | x >>> 2) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | x >>> 4) & 0x00FF00FF00FF00FFL;
+		x = (x | x >>> 8) & 0x0000FFFF0000FFFFL;
+		return (x | x >>> 16) & 0x00000000FFFFFFFFL;
+	}
+
+	private static int checkLevel(int level) {
+		if (level < 1 || level > MAX_LEVEL) {
+			throw new IllegalArgumentException("level must be between 1 and " + MAX_LEVEL);
+		}
+		return level;
+	}
+
+}
@@ -1,11 +1,13 @@
 package com.blogspot.debukkitsblog.geoutils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.util.Scanner;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -22,6 +24,13 @@ import org.json.JSONObject;
 public class GeoCoder {
 
 	private static boolean silentMode = true;
+	private static volatile Gazetteer gazetteer;
+	private static volatile GeoMetrics metrics = MetricsRegistry.getDefault();
+	private static volatile String mapQuestUrl = "http://open.mapquestapi.com";
+	private static volatile String locationIQUrl = "https://eu1.locationiq.org";
+	// north-west Europe
+	private static volatile PlausibilityRegion plausibilityRegion = PlausibilityRegion.ofBoundingBox(35.960223,
+			-8.085938, 59.130863, 28.652344);
 	
 	/**
 	 * Tries to find <i>address</i> on earth. <b>You should use the variant of this
@@ -36,6 +45,40 @@ public class GeoCoder {
 		return find(address, null);
 	}
 
+	/**
+	 * Preloads the positions of frequently used addresses into <i>cache</i> in
+	 * the background, e.g. at startup. Addresses cached already are not requested
+	 * again.
+	 * 
+	 * @param addresses
+	 *            The addresses to find
+	 * @param cache
+	 *            The GeoCache to fill
+	 * @param parallelism
+	 *            The maximum number of addresses looked up at the same time;
+	 *            mind the rate limits of the external APIs
+	 * @return a future completed with the number of addresses found once all of
+	 *         them are done
+	 */
+	public static CompletableFuture<Integer> warmUp(Collection<String> addresses, GeoCache cache, int parallelism) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache may not be null");
+		}
+		// a single batched read, instead of one per address on remote stores
+		Set<String> missing = new LinkedHashSet<>(addresses);
+		Map<String, GeoLocation> cached = cache.cacheReadPositions(missing);
+		missing.removeAll(cached.keySet());
+		return GeoCache.warmUp(missing, parallelism, "GeoCoder-warmup", address -> {
+			try {
+				return find(address, cache) != null;
+			} catch (RuntimeException e) {
+				if (!silentMode)
+					System.err.println("Could not warm up '" + address + "': " + e.getMessage());
+				return false;
+			}
+		}).thenApply(loaded -> loaded + cached.size());
+	}
+
 	/**
 	 * Tries to find <i>address</i> on earth
 	 * 
@@ -46,39 +89,80 @@ public class GeoCoder {
 	 * @return The GeoLocation (latitude, longitude) - or null if not found
 	 */
 	public static GeoLocation find(String address, GeoCache cache) {
+		return find(address, cache, Deadline.NONE);
+	}
+
+	/**
+	 * Tries to find <i>address</i> on earth by <i>deadline</i>. Every external API
+	 * asked gets the time remaining; once it is used up, no further API is asked.
+	 * 
+	 * @param address
+	 *            The address to find
+	 * @param cache
+	 *            The GeoCache to use. This spares the external APIs.
+	 * @param deadline
+	 *            The time by which the lookup must be done
+	 * @return The GeoLocation (latitude, longitude) - or null if not found
+	 * @throws DeadlineExceededException
+	 *             if <i>address</i> could not be found in time
+	 */
+	public static GeoLocation find(String address, GeoCache cache, Deadline deadline) {
 		// check parameters
 		if (address == null || address.isEmpty()) {
 			throw new IllegalArgumentException("Cannot find '' on earth, address must not be empty");
 		}
 
+		GeoEvents.Geocode event = new GeoEvents.Geocode();
+		event.begin();
+
 		// read from cache if possible
+		String cacheOutcome = "bypass";
 		if (cache != null) {
 			GeoLocation fromCache = cache.cacheReadPosition(address);
 			if (fromCache != null) {
 				if(!silentMode) System.out.println("Using cache to find " + address);
+				event.finish("cache", "hit", 1);
 				return fromCache;
 			}
-		} else {
+			cacheOutcome = "miss";
+		} else if (!silentMode) {
 			System.err.println("Warning: GeoCoder is not using any cache!");
 		}
 
+		// Try using the local gazetteer, its results need no caching
+		Gazetteer localGazetteer = gazetteer;
+		if (localGazetteer != null) {
+			if(!silentMode) System.out.println("Using Gazetteer to find " + address);
+			long start = System.nanoTime();
+			GeoLocation result = localGazetteer.find(address);
+			metrics.recordRequest("gazetteer", System.nanoTime() - start, result != null);
+			if (isResultPlausible(result)) {
+				event.finish("gazetteer", cacheOutcome, 1);
+				return result;
+			}
+			metrics.recordFallback("gazetteer", "mapquest");
+		}
+
 		GeoLocation result = null;
+		String provider = "mapquest";
 		// Try using MapQuest
 		try {
 			if(!silentMode) System.out.println("Using MapQuest to find " + address);
-			result = requestUsingMapQuest(address);
+			result = requestUsingMapQuest(address, deadline, event);
 			// is the result good enough?
 			if (!isResultPlausible(result)) {
 				result = null;
 				throw new Exception("Result outside plausible area");
 			}
 		} catch (Exception e) {
-			System.err.println("Could not find " + address + " using MapQuest: " + e.getMessage());
+			if(!silentMode) System.err.println("Could not find " + address + " using MapQuest: " + e.getMessage());
+			metrics.recordFallback("mapquest", "locationiq");
+			provider = "locationiq";
 
 			// else try using LocationIQ
 			try {
 				if(!silentMode) System.out.println("Using LocationIQ to find " + address);
-				result = requestUsingLocationIQ(address);
+				result = requestUsingLocationIQ(address, deadline, event);
 				// is the result good enough?
 				if (!isResultPlausible(result)) {
 					result = null;
@@ -86,35 +170,39 @@ public class GeoCoder {
 				}
 				// else give up, return null
 			} catch (Exception e2) {
-				System.err.println("Could not find " + address + " using LocationIQ: " + e2.getMessage());
+				if(!silentMode) System.err.println("Could not find " + address + " using LocationIQ: " + e2.getMessage());
 			}
 		}
 
+		// tell running out of time apart from not finding anything
+		if (result == null && deadline.isExpired()) {
+			event.finish(null, cacheOutcome, 0);
+			throw new DeadlineExceededException("Could not find " + address + " in time");
+		}
+
 		// save to cache
 		if (cache != null && result != null) {
 			cache.cacheStorePosition(address, result);
 		}
 
+		event.finish(result != null ? provider : null, cacheOutcome, result != null ? 1 : 0);
+
 		return result;
 	}
 
 	/**
 	 * Indicates whether a GeoLocation is plausible, i.e. if lies inside an area of
-	 * the world that is not completely unlikely. Internally, a bounding box has
-	 * been set up to check whether the GeoLocation is located in north-western
-	 * Europe. The method can be overridden to specify a different bounding box.
+	 * the world that is not completely unlikely. By default, this is a bounding
+	 * box around north-western Europe; see
+	 * {@link #setPlausibilityRegion(PlausibilityRegion)}.
 	 * 
 	 * @param loc
 	 *            The location to check for plausibility
-	 * @return true if it lies inside the hard-coded bounding box
+	 * @return true if it lies inside the plausibility region
 	 */
 	protected static boolean isResultPlausible(GeoLocation loc) {
-		// check if result is plausible; example plausible bounding box for north west
-		// Europe is
-		// lower left upper right
-		// 35.960223,-8.085938, 59.130863,28.652344
-		return loc != null && !(loc.getLatitude() < 35.960223 || loc.getLatitude() > 59.130863
-				|| loc.getLongitude() < -8.085938 || loc.getLongitude() > 28.652344);
+		PlausibilityRegion region = plausibilityRegion;
+		return loc != null && (region == null || region.contains(loc));
 	}
 
 	/**
@@ -122,31 +210,34 @@ public class GeoCoder {
 	 * 
 	 * @param address
 	 *            The postal address or the name of the physical location
+	 * @param deadline
+	 *            The deadline of the lookup
+	 * @param event
+	 *            The event of the lookup to report the size of the response to
 	 * @return A GeoLocation contains latitude and longitude of the location - or
 	 *         null if <i>address</i> could not be found
 	 * @throws IOException
 	 *             if something went wrong sending a request to the MapQuest API via
 	 *             the Internet
 	 */
-	private static GeoLocation requestUsingMapQuest(String address) throws IOException {
-		if (!APIKeyManager.hasAPIKey("mapquest")) {
-			System.err.println("Missing API key for 'mapquest'");
+	private static GeoLocation requestUsingMapQuest(String address, Deadline deadline, GeoEvents.Geocode event)
+			throws IOException {
+		String apiKey = APIKeyManager.getAPIKey("mapquest");
+		if (apiKey == null) {
+			if(!silentMode) System.err.println("Missing API key for 'mapquest'");
 			return null;
 		}
 
 		double lat, lng;
 
-		// request from MapQuest
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL("http://open.mapquestapi.com/geocoding/v1/address?key=" + APIKeyManager.getAPIKey("mapquest")
-				+ "&maxResults=1&outFormat=json&boundingBox=40.880295,-6.372070,56.897004,18.698730&location="
-				+ URLEncoder.encode(address, "UTF-8"));
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
-		}
-		s.close();
-		String response = responseBuilder.toString();
+		// request from MapQuest, preferring results inside the plausibility region
+		PlausibilityRegion region = plausibilityRegion;
+		String boundingBox = region == null ? ""
+				: "&boundingBox=" + region.getNorth() + "," + region.getWest() + "," + region.getSouth() + ","
+						+ region.getEast();
+		URL url = new URL(mapQuestUrl + "/geocoding/v1/address?key=" + apiKey + "&maxResults=1&outFormat=json"
+				+ boundingBox + "&location=" + URLEncoder.encode(address, "UTF-8"));
+		String response = HttpFetcher.get(url, metrics, "mapquest", apiKey, deadline, event::received);
 
 		// process JSON
 		JSONObject json = new JSONObject(response);
@@ -168,7 +259,7 @@ public class GeoCoder {
 			String state = jsonTargetLocation.getString("adminArea3");
 			return new GeoLocation(lat, lng, street, zipCode, neighborhood, city, county, state, null);
 		} catch (JSONException e) {
-			e.printStackTrace();
+			if(!silentMode) e.printStackTrace();
 		}
 
 		return new GeoLocation(lat, lng);
@@ -179,30 +270,30 @@ public class GeoCoder {
 	 * 
 	 * @param address
 	 *            The postal address or the name of the physical location
+	 * @param deadline
+	 *            The deadline of the lookup
+	 * @param event
+	 *            The event of the lookup to report the size of the response to
 	 * @return A GeoLocation contains latitude and longitude of the location - or
 	 *         null if <i>address</i> could not be found
 	 * @throws IOException
 	 *             if something went wrong sending a request to the LocationIQ API
 	 *             via the Internet
 	 */
-	private static GeoLocation requestUsingLocationIQ(String address) throws IOException {
-		if (!APIKeyManager.hasAPIKey("locationiq")) {
-			System.err.println("Missing API key for 'locationiq'");
+	private static GeoLocation requestUsingLocationIQ(String address, Deadline deadline, GeoEvents.Geocode event)
+			throws IOException {
+		String apiKey = APIKeyManager.getAPIKey("locationiq");
+		if (apiKey == null) {
+			if(!silentMode) System.err.println("Missing API key for 'locationiq'");
 			return null;
 		}
 
 		double lat, lng;
 
 		// request from LocationIQ
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL("https://eu1.locationiq.org/v1/search.php?key=" + APIKeyManager.getAPIKey("locationiq")
-				+ "&q=" + URLEncoder.encode(address, "UTF-8") + "&format=json&addressdetails=1&limit=1");
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
-		}
-		s.close();
-		String response = responseBuilder.toString();
+		URL url = new URL(locationIQUrl + "/v1/search.php?key=" + apiKey + "&q="
+				+ URLEncoder.encode(address, "UTF-8") + "&format=json&addressdetails=1&limit=1");
+		String response = HttpFetcher.get(url, metrics, "locationiq", apiKey, deadline, event::received);
 
 		// process JSON
 		JSONArray json = new JSONArray(response);
@@ -245,12 +336,64 @@ public class GeoCoder {
 			}
 			return new GeoLocation(lat, lng, street, zipCode, neighborhood, city, county, state, null);
 		} catch (JSONException e) {
-			e.printStackTrace();
+			if(!silentMode) e.printStackTrace();
 		}
 
 		return new GeoLocation(lat, lng);
 	}
 	
+	/**
+	 * Sets a local Gazetteer to be asked before any external API. Plausible
+	 * results found in it are returned immediately.
+	 * 
+	 * @param localGazetteer the Gazetteer to use; null to use external APIs only
+	 */
+	public static void setGazetteer(Gazetteer localGazetteer) {
+		gazetteer = localGazetteer;
+	}
+	
+	/**
+	 * Sets the area of the world results are plausible in, e.g. the service area
+	 * of a deployment. Results outside are discarded and the next API is asked.
+	 * Its bounding box is also passed to MapQuest to prefer results inside.
+	 * 
+	 * @param region the region, e.g. loaded using
+	 *               {@link PlausibilityRegion#fromGeoJson(java.io.File)}; null to
+	 *               accept results anywhere
+	 */
+	public static void setPlausibilityRegion(PlausibilityRegion region) {
+		plausibilityRegion = region;
+	}
+	
+	/**
+	 * Sets the base URLs of the external geocoding APIs, e.g. to use a proxy or a
+	 * stand-in for testing
+	 * 
+	 * @param mapQuest   The base URL of the MapQuest API
+	 * @param locationIQ The base URL of the LocationIQ API
+	 */
+	public static void setServiceUrls(String mapQuest, String locationIQ) {
+		if (mapQuest == null || locationIQ == null) {
+			throw new IllegalArgumentException("service URLs may not be null");
+		}
+		mapQuestUrl = mapQuest;
+		locationIQUrl = locationIQ;
+	}
+	
+	/**
+	 * Sets the metrics requests and fallbacks are reported to
+	 * 
+	 * @param geoMetrics the metrics to report to,
+	 *                   {@link MetricsRegistry#getDefault()} by default;
+	 *                   {@link GeoMetrics#NONE} to report nothing
+	 */
+	public static void setMetrics(GeoMetrics geoMetrics) {
+		if (geoMetrics == null) {
+			throw new IllegalArgumentException("metrics may not be null, use GeoMetrics.NONE instead");
+		}
+		metrics = geoMetrics;
+	}
+	
 	/**
 	 * Toggles the output mode (do or do no output)
 	 * 
@@ -0,0 +1,136 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events emitted by the GeoCoder, GeoRouter and GeoCache.
+ * All of them are disabled by default; enable them in a recording, e.g. with
+ * <code>jcmd &lt;pid&gt; JFR.start settings=profile
+ * +com.blogspot.debukkitsblog.geoutils.ProviderRequest#enabled=true</code> or
+ * a custom .jfc file. While disabled, beginning and committing an event costs
+ * practically nothing.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class GeoEvents {
+
+	private static final String CATEGORY = "GeoUtils";
+
+	private GeoEvents() {
+	}
+
+	/**
+	 * @return the number of waypoints of <i>route</i>, 0 if it is null
+	 */
+	static int pointCount(GeoRoute route) {
+		return route == null || route.getWaypoints() == null ? 0 : route.getWaypoints().size();
+	}
+
+	/**
+	 * Fields common to all events
+	 */
+	@StackTrace(false)
+	@Enabled(false)
+	abstract static class GeoEvent extends Event {
+
+		@Label("Provider")
+		@Description("The cache, embedded engine or external service that answered")
+		String provider;
+
+		@Label("Cache Outcome")
+		@Description("hit, miss, expired, write or bypass")
+		String cacheOutcome;
+
+		@Label("Payload Size")
+		@Description("The size of the response parsed")
+		@DataAmount
+		long payloadSize;
+
+		@Label("Point Count")
+		@Description("The number of locations or waypoints involved")
+		int pointCount;
+
+		/**
+		 * Fills in the fields and commits the event if it is enabled and took
+		 * longer than the threshold of the recording
+		 */
+		void finish(String provider, String cacheOutcome, long payloadSize, int pointCount) {
+			if (shouldCommit()) {
+				this.provider = provider;
+				this.cacheOutcome = cacheOutcome;
+				this.payloadSize = payloadSize;
+				this.pointCount = pointCount;
+				commit();
+			}
+		}
+	}
+
+	@Name("com.blogspot.debukkitsblog.geoutils.Geocode")
+	@Label("Geocode")
+	@Description("A call of GeoCoder.find")
+	@Category(CATEGORY)
+	static final class Geocode extends GeoEvent {
+
+		// the sizes in bytes of all responses parsed, including those of providers
+		// fallen back from
+		private transient long received;
+
+		void received(long size) {
+			received += size;
+		}
+
+		void finish(String provider, String cacheOutcome, int pointCount) {
+			finish(provider, cacheOutcome, received, pointCount);
+		}
+	}
+
+	@Name("com.blogspot.debukkitsblog.geoutils.ProviderRequest")
+	@Label("Provider Request")
+	@Description("A request to a single geocoding or routing backend")
+	@Category(CATEGORY)
+	static final class ProviderRequest extends GeoEvent {
+
+		@Label("Success")
+		boolean success;
+
+		void finish(String provider, boolean success, long payloadSize, int pointCount) {
+			if (shouldCommit()) {
+				this.success = success;
+				finish(provider, null, payloadSize, pointCount);
+			}
+		}
+	}
+
+	@Name("com.blogspot.debukkitsblog.geoutils.Matrix")
+	@Label("Duration Matrix")
+	@Description("A call of GeoRouter.calculateMatrix")
+	@Category(CATEGORY)
+	static final class Matrix extends GeoEvent {
+	}
+
+	@Name("com.blogspot.debukkitsblog.geoutils.CacheAccess")
+	@Label("Cache Access")
+	@Description("A read or write of a GeoCache")
+	@Category(CATEGORY)
+	static final class CacheAccess extends GeoEvent {
+
+		@Label("Key")
+		String key;
+
+		void finish(String key, String cacheOutcome, int pointCount) {
+			if (shouldCommit()) {
+				this.key = key;
+				finish("cache", cacheOutcome, 0, pointCount);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * Receives measurements from the GeoCoder, GeoRouter and GeoCache. All methods
+ * are called on the hot path of lookups, possibly concurrently, and must
+ * therefore be cheap and thread-safe. They do nothing by default, so
+ * implementations only need to override what they are interested in.
+ *
+ * @author DeBukkIt
+ *
+ */
+public interface GeoMetrics {
+
+	/** discards all measurements */
+	GeoMetrics NONE = new GeoMetrics() {
+	};
+
+	/**
+	 * Records a request to a provider, e.g. "mapquest", "osrm-local" or
+	 * "embedded"
+	 *
+	 * @param provider The provider asked
+	 * @param nanos    The time the request took in nanoseconds
+	 * @param success  false if the request failed
+	 */
+	default void recordRequest(String provider, long nanos, boolean success) {
+	}
+
+	/**
+	 * Records that a provider could not answer and the next one is asked
+	 *
+	 * @param fromProvider The provider that failed
+	 * @param toProvider   The provider asked instead
+	 */
+	default void recordFallback(String fromProvider, String toProvider) {
+	}
+
+	/**
+	 * Records the size of a response received for parsing
+	 *
+	 * @param provider The provider that sent the response
+	 * @param bytes    The size of the response in bytes
+	 */
+	default void recordBytesParsed(String provider, long bytes) {
+	}
+
+	/**
+	 * Records a cache read that found a valid element
+	 *
+	 * @param kind The kind of element read, "position" or "route"
+	 */
+	default void recordCacheHit(String kind) {
+	}
+
+	/**
+	 * Records a cache read that found nothing
+	 *
+	 * @param kind The kind of element read, "position" or "route"
+	 */
+	default void recordCacheMiss(String kind) {
+	}
+
+	/**
+	 * Records a cache read that found an element past its durability
+	 *
+	 * @param kind The kind of element read, "position" or "route"
+	 */
+	default void recordCacheExpiry(String kind) {
+	}
+
+	/**
+	 * Records a cache operation that failed because the store could not be read
+	 * or written
+	 *
+	 * @param operation The operation that failed, "read", "write" or "flush"
+	 */
+	default void recordCacheError(String operation) {
+	}
+
+}
@@ -4,6 +4,8 @@ import java.io.Serializable;
 import java.text.DecimalFormat;
 import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -27,6 +29,16 @@ public class GeoRoute implements Serializable {
 	private float duration;
 	private float distance;
 
+	private float simplificationTolerance;
+
+	private List<GeoRoute> legs;
+
+	// the index of the last waypoint of every step and its duration, if known
+	private int[] stepEnds;
+	private float[] stepDurations;
+
+	private transient volatile Profile profile;
+
 	/**
 	 * Constructs an empty route
 	 */
@@ -81,6 +93,7 @@ public class GeoRoute implements Serializable {
 
 	public void setDuration(float duration) {
 		this.duration = duration;
+		profile = null;
 	}
 
 	public float getDistance() {
@@ -95,8 +108,354 @@ public class GeoRoute implements Serializable {
 		return waypoints;
 	}
 
+	/**
+	 * Sets the waypoints of this route; durations of steps set before no longer
+	 * apply
+	 * 
+	 * @param waypoints
+	 *            The waypoints
+	 */
 	public void setWaypoints(List<GeoLocation> waypoints) {
 		this.waypoints = waypoints;
+		stepEnds = null;
+		stepDurations = null;
+		profile = null;
+	}
+
+	/**
+	 * Sets how long the steps of this route take, e.g. the maneuvers reported by
+	 * OSRM, so that the time spent along the route is known more precisely than
+	 * from its total duration. Must be called after the waypoints are set.
+	 * 
+	 * @param ends
+	 *            The index of the last waypoint of every step, ascending
+	 * @param durations
+	 *            The duration of every step in seconds
+	 */
+	void setSteps(int[] ends, float[] durations) {
+		this.stepEnds = ends;
+		this.stepDurations = durations;
+		profile = null;
+	}
+
+	/**
+	 * @return the index of the last waypoint of every step, null if the steps
+	 *         are unknown
+	 */
+	int[] getStepEnds() {
+		return stepEnds;
+	}
+
+	/**
+	 * @return the duration of every step in seconds, null if the steps are
+	 *         unknown
+	 */
+	float[] getStepDurations() {
+		return stepDurations;
+	}
+
+	/**
+	 * @return the legs between the stops of a route visiting more than two
+	 *         locations; empty if the route consists of a single leg
+	 */
+	public List<GeoRoute> getLegs() {
+		return legs == null ? Collections.emptyList() : legs;
+	}
+
+	public void setLegs(List<GeoRoute> legs) {
+		this.legs = legs;
+	}
+
+	/**
+	 * Combines consecutive legs into one route. Its duration, distance and
+	 * waypoints are the sums and the concatenation of those of the legs.
+	 * 
+	 * @param legs
+	 *            The legs in the order they are travelled
+	 * @return the route from the start of the first to the destination of the last
+	 *         leg
+	 */
+	public static GeoRoute ofLegs(List<GeoRoute> legs) {
+		if (legs.size() == 1) {
+			return legs.get(0);
+		}
+		float duration = 0;
+		float distance = 0;
+		List<GeoLocation> waypoints = new ArrayList<>();
+		int[] ends = new int[0];
+		float[] durations = new float[0];
+		for (GeoRoute leg : legs) {
+			duration += leg.getDuration();
+			distance += leg.getDistance();
+			// a leg without steps is a single step
+			int offset = waypoints.size();
+			int count = leg.getWaypoints().size();
+			int[] legEnds = leg.stepEnds != null ? leg.stepEnds : new int[] { count - 1 };
+			float[] legDurations = leg.stepDurations != null ? leg.stepDurations : new float[] { leg.getDuration() };
+			if (count > 0) {
+				int size = ends.length;
+				ends = Arrays.copyOf(ends, size + legEnds.length);
+				durations = Arrays.copyOf(durations, size + legEnds.length);
+				for (int i = 0; i < legEnds.length; i++) {
+					ends[size + i] = offset + legEnds[i];
+					durations[size + i] = legDurations[i];
+				}
+			}
+			waypoints.addAll(leg.getWaypoints());
+		}
+		GeoRoute result = new GeoRoute(legs.get(0).getStart(), legs.get(legs.size() - 1).getDestination(), duration,
+				distance);
+		result.setWaypoints(waypoints);
+		result.setSteps(ends, durations);
+		result.setLegs(new ArrayList<>(legs));
+		for (GeoRoute leg : legs) {
+			result.simplificationTolerance = Math.max(result.simplificationTolerance, leg.simplificationTolerance);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the tolerance in meters the waypoints have been simplified with; 0
+	 *         if they are complete
+	 */
+	public float getSimplificationTolerance() {
+		return simplificationTolerance;
+	}
+
+	void setSimplificationTolerance(float toleranceMeters) {
+		this.simplificationTolerance = toleranceMeters;
+	}
+
+	/**
+	 * Reduces the waypoints of this route so that none of the removed ones lies
+	 * further than <i>toleranceMeters</i> from the remaining geometry. Simplifying
+	 * with a tolerance not greater than the current one does nothing.
+	 * 
+	 * @param toleranceMeters
+	 *            The maximum deviation in meters
+	 * @see RouteSimplifier#simplify(List, float)
+	 */
+	public void simplify(float toleranceMeters) {
+		if (toleranceMeters <= simplificationTolerance) {
+			return;
+		}
+		List<GeoLocation> simplified = RouteSimplifier.simplify(waypoints, toleranceMeters);
+		if (stepEnds != null) {
+			// a step now ends at the last waypoint kept up to its original end
+			int[] lastKept = new int[waypoints.size()];
+			for (int i = 0, j = 0; i < lastKept.length; i++) {
+				if (j < simplified.size() && waypoints.get(i) == simplified.get(j)) {
+					j++;
+				}
+				lastKept[i] = j - 1;
+			}
+			int[] ends = new int[stepEnds.length];
+			for (int i = 0; i < ends.length; i++) {
+				ends[i] = lastKept[Math.min(stepEnds[i], lastKept.length - 1)];
+			}
+			stepEnds = ends;
+		}
+		waypoints = simplified;
+		simplificationTolerance = toleranceMeters;
+		profile = null;
+	}
+
+	/**
+	 * Finds where along this route a vehicle is after driving for
+	 * <i>seconds</i>. The time is spread over the waypoints of every step by
+	 * distance, using the durations of the steps if known (see the GeoRouter
+	 * option {@link GeoRouter#setStepsEnabled(boolean)}) and the total duration
+	 * otherwise. The cumulative distances and times are calculated on first use
+	 * only, so every query is a binary search. Modify the waypoints using
+	 * {@link #setWaypoints(List)} for queries to reflect the changes.
+	 * 
+	 * @param seconds
+	 *            The time since the start
+	 * @return the location interpolated between the waypoints; the start before
+	 *         and the destination after the duration of the route
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints or no duration
+	 */
+	public GeoLocation getPositionAt(double seconds) {
+		Profile p = timedProfile();
+		return p.interpolate(p.times, seconds);
+	}
+
+	/**
+	 * @param meters
+	 *            The distance from the start along the waypoints
+	 * @return the location at that distance, interpolated between the waypoints
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints
+	 */
+	public GeoLocation getPositionAtDistance(double meters) {
+		Profile p = profile();
+		return p.interpolate(p.distances, meters);
+	}
+
+	/**
+	 * @param seconds
+	 *            The time since the start
+	 * @return the distance in meters driven along the waypoints after
+	 *         <i>seconds</i>
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints or no duration
+	 */
+	public double getDistanceAt(double seconds) {
+		Profile p = timedProfile();
+		return p.map(p.times, p.distances, seconds);
+	}
+
+	/**
+	 * Tells when a location along this route is reached, e.g. one found by a
+	 * {@link RouteCorridor} at {@link RouteCorridor.Match#getPosition()}
+	 * 
+	 * @param meters
+	 *            The distance from the start along the waypoints
+	 * @return the time in seconds since the start at which the location is
+	 *         reached
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints or no duration
+	 */
+	public double getTimeAtDistance(double meters) {
+		Profile p = timedProfile();
+		return p.map(p.distances, p.times, meters);
+	}
+
+	/**
+	 * @param meters
+	 *            The distance from the start along the waypoints
+	 * @return the distance in meters left along the waypoints from there to the
+	 *         destination
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints
+	 */
+	public double getRemainingDistance(double meters) {
+		Profile p = profile();
+		double length = p.distances[p.distances.length - 1];
+		return length - Math.max(0, Math.min(length, meters));
+	}
+
+	/**
+	 * @param meters
+	 *            The distance from the start along the waypoints
+	 * @return the time in seconds left from there to the destination
+	 * @throws IllegalStateException
+	 *             if the route has no waypoints or no duration
+	 */
+	public double getRemainingDuration(double meters) {
+		Profile p = timedProfile();
+		return p.times[p.times.length - 1] - p.map(p.distances, p.times, meters);
+	}
+
+	private Profile timedProfile() {
+		Profile result = profile();
+		if (!(result.times[result.times.length - 1] >= 0)) {
+			throw new IllegalStateException("the route has no duration");
+		}
+		return result;
+	}
+
+	private Profile profile() {
+		Profile result = profile;
+		if (result == null) {
+			if (waypoints == null || waypoints.isEmpty()) {
+				throw new IllegalStateException("the route has no waypoints");
+			}
+			result = new Profile(waypoints, stepEnds, stepDurations, duration);
+			profile = result;
+		}
+		return result;
+	}
+
+	/**
+	 * The coordinates of the waypoints of a route with the distance and time from
+	 * the start to each of them, both ascending
+	 */
+	private static final class Profile {
+
+		private final double[] latitudes;
+		private final double[] longitudes;
+		private final double[] distances;
+		private final double[] times;
+
+		private Profile(List<GeoLocation> waypoints, int[] stepEnds, float[] stepDurations, float duration) {
+			int n = waypoints.size();
+			latitudes = new double[n];
+			longitudes = new double[n];
+			distances = new double[n];
+			times = new double[n];
+			for (int i = 0; i < n; i++) {
+				latitudes[i] = waypoints.get(i).getLatitude();
+				longitudes[i] = waypoints.get(i).getLongitude();
+				if (i > 0) {
+					distances[i] = distances[i - 1] + waypoints.get(i - 1).distanceTo(waypoints.get(i));
+				}
+			}
+
+			// spread the duration of every step over its waypoints by distance
+			int[] ends = stepEnds != null ? stepEnds : new int[] { n - 1 };
+			float[] durations = stepDurations != null ? stepDurations : new float[] { duration };
+			int from = 0;
+			double time = 0;
+			for (int s = 0; s < ends.length; s++) {
+				int end = Math.min(ends[s], n - 1);
+				double length = distances[end] - distances[from];
+				for (int i = from + 1; i <= end; i++) {
+					times[i] = time + (length > 0 ? (distances[i] - distances[from]) / length : 1) * durations[s];
+				}
+				time += durations[s];
+				from = Math.max(from, end);
+			}
+			for (int i = from + 1; i < n; i++) {
+				times[i] = time;
+			}
+			if (n == 1) {
+				times[0] = time;
+			}
+		}
+
+		/**
+		 * @return the index of the last waypoint whose key is not greater than
+		 *         <i>value</i>, at most the second to last one
+		 */
+		private int segment(double[] keys, double value) {
+			int low = 0;
+			int high = keys.length - 2;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (keys[middle] <= value) {
+					low = middle;
+				} else {
+					high = middle - 1;
+				}
+			}
+			return low;
+		}
+
+		private double fraction(double[] keys, int segment, double value) {
+			double span = keys[segment + 1] - keys[segment];
+			return span > 0 ? Math.max(0, Math.min(1, (value - keys[segment]) / span)) : 1;
+		}
+
+		private GeoLocation interpolate(double[] keys, double value) {
+			if (keys.length == 1) {
+				return new GeoLocation(latitudes[0], longitudes[0]);
+			}
+			int i = segment(keys, value);
+			double f = value <= keys[0] ? 0 : fraction(keys, i, value);
+			return new GeoLocation(latitudes[i] + f * (latitudes[i + 1] - latitudes[i]),
+					longitudes[i] + f * (longitudes[i + 1] - longitudes[i]));
+		}
+
+		private double map(double[] keys, double[] values, double value) {
+			if (keys.length == 1) {
+				return values[0];
+			}
+			int i = segment(keys, value);
+			double f = value <= keys[0] ? 0 : fraction(keys, i, value);
+			return values[i] + f * (values[i + 1] - values[i]);
+		}
 	}
 
 	/**
@@ -105,9 +464,19 @@ public class GeoRoute implements Serializable {
 	 */
 	@Override
 	public String toString() {
-		LocalTime time = LocalTime.ofSecondOfDay((long) duration);
+		String time;
+		if (duration >= 0 && duration < 24 * 60 * 60) {
+			time = LocalTime.ofSecondOfDay((long) duration).toString() + " h";
+		} else if (Float.isFinite(duration)) {
+			// LocalTime ends at midnight, so count the hours on
+			long seconds = Math.abs((long) duration);
+			time = String.format("%s%02d:%02d:%02d h", duration < 0 ? "-" : "", seconds / 3600, seconds / 60 % 60,
+					seconds % 60);
+		} else {
+			time = "unreachable";
+		}
 		return "[" + start + " -> " + destination + "; " + new DecimalFormat("#.##").format(distance).replace('.', ',')
-				+ " km, " + time.toString() + " h]";
+				+ " km, " + time + "]";
 	}
 
 }
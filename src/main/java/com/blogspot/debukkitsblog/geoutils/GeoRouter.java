@@ -7,9 +7,14 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -24,7 +29,30 @@ import org.json.JSONObject;
  */
 public class GeoRouter {
 
+	/**
+	 * Geometry formats OSRM servers can be asked to send routes in
+	 */
+	public enum GeometryFormat {
+		/** coordinates as GeoJSON arrays, easy to read but large */
+		GEOJSON,
+		/** coordinates as an encoded polyline with 6 decimal places, several times smaller */
+		POLYLINE6
+	}
+
+	private static final String OSRM_LOCAL_URL = "http://127.0.0.1:7880";
+	private static final String OSRM_DEMO_URL = "https://router.project-osrm.org";
+
+	private final boolean useLocalOSRMServer;
 	private boolean silentMode;
+	private String osrmLocalUrl = OSRM_LOCAL_URL;
+	private String osrmDemoUrl = OSRM_DEMO_URL;
+	private CHRouter embeddedRouter;
+	private GeometryFormat geometryFormat = GeometryFormat.GEOJSON;
+	private boolean stepsEnabled = true;
+	private float simplificationTolerance;
+	private int maxTableSize = 100;
+	private GeoMetrics metrics = MetricsRegistry.getDefault();
+	private Executor publisherExecutor = PullPublisher.DEFAULT_EXECUTOR;
 
 	/**
 	 * Constructs a new router. This will start a local OSRM route server
@@ -41,6 +69,7 @@ public class GeoRouter {
 	 * executable is present in the resources/osrm_sever directory.
 	 */
 	public GeoRouter(boolean useLocalOSRMServer) {
+		this.useLocalOSRMServer = useLocalOSRMServer;
 		silentMode = true;
 		if (useLocalOSRMServer) {
 			startOSRMRouteServer();
@@ -56,6 +85,87 @@ public class GeoRouter {
 		this.silentMode = silent;
 	}
 
+	/**
+	 * Sets the base URLs of the OSRM servers asked for routes and tables, e.g. to
+	 * use a self-hosted server or a stand-in for testing
+	 * 
+	 * @param localUrl The base URL of the server asked first, by default the
+	 *                 local OSRM server on port 7880
+	 * @param demoUrl  The base URL of the server asked if the first one fails, by
+	 *                 default the public OSRM demo server
+	 */
+	public void setOSRMServerUrls(String localUrl, String demoUrl) {
+		if (localUrl == null || demoUrl == null) {
+			throw new IllegalArgumentException("server URLs may not be null");
+		}
+		this.osrmLocalUrl = localUrl;
+		this.osrmDemoUrl = demoUrl;
+	}
+
+	/**
+	 * Sets the metrics requests and fallbacks are reported to
+	 * 
+	 * @param metrics the metrics to report to, {@link MetricsRegistry#getDefault()}
+	 *                by default; {@link GeoMetrics#NONE} to report nothing
+	 */
+	public void setMetrics(GeoMetrics metrics) {
+		if (metrics == null) {
+			throw new IllegalArgumentException("metrics may not be null, use GeoMetrics.NONE instead");
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets an embedded routing engine to be asked before any OSRM server or
+	 * external API. Routes and matrices it can answer never leave the process.
+	 * 
+	 * @param router the embedded router to use; null to use OSRM and external
+	 *               APIs only
+	 */
+	public void setEmbeddedRouter(CHRouter router) {
+		this.embeddedRouter = router;
+	}
+
+	/**
+	 * Sets the format OSRM servers are asked to send route geometries in
+	 * 
+	 * @param format the geometry format, {@link GeometryFormat#GEOJSON} by default
+	 */
+	public void setGeometryFormat(GeometryFormat format) {
+		if (format == null) {
+			throw new IllegalArgumentException("format may not be null");
+		}
+		this.geometryFormat = format;
+	}
+
+	/**
+	 * Toggles whether OSRM servers are asked for turn-by-turn steps. Without
+	 * steps, the route geometry is requested as a single full overview, which
+	 * makes responses considerably smaller.
+	 * 
+	 * @param enabled true to request steps (default); false to request the
+	 *                overview geometry only
+	 */
+	public void setStepsEnabled(boolean enabled) {
+		this.stepsEnabled = enabled;
+	}
+
+	/**
+	 * Sets the tolerance new routes are simplified with before they are returned
+	 * and cached. Most consumers only draw routes or estimate arrival times, for
+	 * which a tolerance of a few meters loses nothing visible but saves most of
+	 * the waypoints.
+	 * 
+	 * @param toleranceMeters the maximum deviation of the simplified geometry in
+	 *                        meters; 0 to keep every waypoint (default)
+	 */
+	public void setSimplificationTolerance(float toleranceMeters) {
+		if (toleranceMeters < 0) {
+			throw new IllegalArgumentException("toleranceMeters may not be negative");
+		}
+		this.simplificationTolerance = toleranceMeters;
+	}
+
 	/**
 	 * Starts a local OSRM route server (osrm-routed.exe) if present in the
 	 * resources/osrm_sever directory. This feature might only work on Microsoft
@@ -109,7 +219,8 @@ public class GeoRouter {
 				procOSRM.destroy();
 			}));
 		} catch (Exception e) {
-			System.err.println("Could not start local OSRM route server:" + e.getMessage());
+			if (!silentMode)
+				System.err.println("Could not start local OSRM route server:" + e.getMessage());
 		}
 	}
 
@@ -122,7 +233,8 @@ public class GeoRouter {
 	 */
 	private boolean isOSRMRouteServerRunning() {
 		if (!System.getProperty("os.name").contains("Windows")) {
-			System.err.println(
+			if (!silentMode)
+				System.err.println(
 					"GeoRouter.isOSRMRouteServerRunning() is only available under Microsoft Windows operating systems");
 			return false;
 		}
@@ -168,13 +280,31 @@ public class GeoRouter {
 	 * @return The recommended route as GeoRoute object
 	 */
 	public GeoRoute calculateRoute(GeoLocation from, GeoLocation to, GeoCache cache) {
+		return calculateRoute(from, to, cache, Deadline.NONE);
+	}
+
+	/**
+	 * Calculates the recommended route between <i>from</i> and <i>to</i> by
+	 * <i>deadline</i>. Every routing service asked gets the time remaining; once
+	 * it is used up, no further service is asked.
+	 * 
+	 * @param from     The start
+	 * @param to       The destination
+	 * @param cache    The GeoCache to be used, may be null
+	 * @param deadline The time by which the route must be calculated
+	 * @return The recommended route as GeoRoute object - or null if no route was
+	 *         found
+	 * @throws DeadlineExceededException if the route could not be calculated in
+	 *                                   time
+	 */
+	public GeoRoute calculateRoute(GeoLocation from, GeoLocation to, GeoCache cache, Deadline deadline) {
 		// check parameters
 		if (from == null || to == null) {
 			throw new IllegalArgumentException("start and destination may not be null");
 		}
 
 		// check local server online
-		if (!isOSRMRouteServerRunning()) {
+		if (useLocalOSRMServer && embeddedRouter == null && !isOSRMRouteServerRunning()) {
 			startOSRMRouteServer();
 		}
 
@@ -186,29 +316,56 @@ public class GeoRouter {
 					System.out.println("Using cache to route from " + from + " to " + to);
 				return fromCache;
 			}
-		} else {
+		} else if (!silentMode) {
 			System.err.println("Warning: GeoRouter is not using any cache!");
 		}
 
 		// calculate route
 		GeoRoute result = null;
 
-		try {
-			result = requestUsingOSRMLocal(from, to);
-		} catch (Exception e) {
-			System.err.println("Could not find route using OSRMLocal: " + e.getMessage());
+		if (embeddedRouter != null) {
+			long start = System.nanoTime();
+			result = embeddedRouter.route(from, to);
+			metrics.recordRequest("embedded", System.nanoTime() - start, result != null);
+			if (result == null) {
+				if (!silentMode)
+					System.err.println("Could not find route using the embedded router");
+				metrics.recordFallback("embedded", "osrm-local");
+			}
+		}
+
+		if (result == null) {
 			try {
-				result = requestUsingOSRMDemo(from, to);
-			} catch (Exception e1) {
-				System.err.println("Could not find route using OSRMDemo: " + e1.getMessage());
+				result = requestUsingOSRMLocal(from, to, deadline);
+			} catch (Exception e) {
+				if (!silentMode)
+					System.err.println("Could not find route using OSRMLocal: " + e.getMessage());
+				metrics.recordFallback("osrm-local", "osrm-demo");
 				try {
-					result = requestUsingOpenRouteService(from, to);
-				} catch (Exception e2) {
-					System.err.println("Could not find route using OpenRouteService: " + e.getMessage());
+					result = requestUsingOSRMDemo(from, to, deadline);
+				} catch (Exception e1) {
+					if (!silentMode)
+						System.err.println("Could not find route using OSRMDemo: " + e1.getMessage());
+					metrics.recordFallback("osrm-demo", "openrouteservice");
+					try {
+						result = requestUsingOpenRouteService(from, to, deadline);
+					} catch (Exception e2) {
+						if (!silentMode)
+							System.err.println("Could not find route using OpenRouteService: " + e2.getMessage());
+					}
 				}
 			}
 		}
 
+		if (result == null && deadline.isExpired()) {
+			throw new DeadlineExceededException("Could not route from " + from + " to " + to + " in time");
+		}
+
+		// simplify geometry
+		if (result != null && simplificationTolerance > 0) {
+			result.simplify(simplificationTolerance);
+		}
+
 		// save to cache
 		if (cache != null && result != null) {
 			cache.cacheStoreRoute(from, to, result);
@@ -218,139 +375,379 @@ public class GeoRouter {
 	}
 
 	/**
-	 * Sends a request to the local OSRM route server (osrm-routed.exe) running on
-	 * port 7880, if any does so, and returns the route found by it.
+	 * Calculates the recommended route visiting all <i>stops</i> in the given
+	 * order using a single request. The legs between consecutive stops are
+	 * cached individually, so they can be reused by later tours or two-point
+	 * routes; if all of them are cached already, no request is sent at all.
 	 * 
-	 * @param from The start
-	 * @param to   The destination
-	 * @return The recommended route between start and destination found - or null
+	 * @param stops The stops to visit, at least two
+	 * @param cache The GeoCache to be used
+	 * @return The recommended route from the first to the last stop as GeoRoute
+	 *         object, its legs available via {@link GeoRoute#getLegs()} - or null
 	 *         if no route was found
-	 * @throws IOException if something went wrong sending the request to the local
-	 *                     OSRM route server
 	 */
-	private GeoRoute requestUsingOSRMLocal(GeoLocation from, GeoLocation to) throws IOException {
-		GeoRoute result = new GeoRoute();
+	public GeoRoute calculateRoute(List<GeoLocation> stops, GeoCache cache) {
+		return calculateRoute(stops, cache, Deadline.NONE);
+	}
 
-		// prepare request URL
-		String requestUrlString = "http://127.0.0.1:7880/route/v1/driving/_LNG1_,_LAT1_;_LNG2_,_LAT2_?geometries=geojson&steps=true&generate_hints=false";
-		requestUrlString = requestUrlString.replace("_LAT1_", String.valueOf(from.getLatitude()))
-				.replace("_LNG1_", String.valueOf(from.getLongitude()))
-				.replace("_LAT2_", String.valueOf(to.getLatitude()))
-				.replace("_LNG2_", String.valueOf(to.getLongitude()));
+	/**
+	 * Calculates the recommended route visiting all <i>stops</i> in the given
+	 * order by <i>deadline</i>, like {@link #calculateRoute(List, GeoCache)}.
+	 * Every routing service asked gets the time remaining; once it is used up, no
+	 * further service is asked.
+	 * 
+	 * @param stops    The stops to visit, at least two
+	 * @param cache    The GeoCache to be used, may be null
+	 * @param deadline The time by which the route must be calculated
+	 * @return The recommended route from the first to the last stop as GeoRoute
+	 *         object - or null if no route was found
+	 * @throws DeadlineExceededException if the route could not be calculated in
+	 *                                   time
+	 */
+	public GeoRoute calculateRoute(List<GeoLocation> stops, GeoCache cache, Deadline deadline) {
+		// check parameters
+		if (stops == null || stops.size() < 2 || hasNull(stops)) {
+			throw new IllegalArgumentException("there must be at least two stops, none of them null");
+		}
+		if (stops.size() == 2) {
+			return calculateRoute(stops.get(0), stops.get(1), cache, deadline);
+		}
 
-		// request from OpenRouteService
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL(requestUrlString);
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
+		// read legs from cache if possible
+		List<GeoRoute> legs = new ArrayList<>(stops.size() - 1);
+		if (cache != null) {
+			for (int i = 0; i < stops.size() - 1; i++) {
+				GeoRoute fromCache = cache.cacheReadRoute(stops.get(i), stops.get(i + 1));
+				if (fromCache == null) {
+					legs = null;
+					break;
+				}
+				legs.add(fromCache);
+			}
+			if (legs != null) {
+				if (!silentMode)
+					System.out.println("Using cache to route along " + stops.size() + " stops");
+				return GeoRoute.ofLegs(legs);
+			}
+		} else if (!silentMode) {
+			System.err.println("Warning: GeoRouter is not using any cache!");
 		}
-		s.close();
-		String response = responseBuilder.toString();
 
-		// process JSON
-		JSONObject json = new JSONObject(response);
-		JSONArray jsonRoutes = json.getJSONArray("routes");
-		JSONObject jsonTargetRoute = jsonRoutes.getJSONObject(0);
-		JSONArray jsonLegs = jsonTargetRoute.getJSONArray("legs");
-		JSONObject jsonTargetLeg = jsonLegs.getJSONObject(0);
-		result.setDuration(jsonTargetLeg.getFloat("duration"));
-		result.setDistance(jsonTargetLeg.getFloat("distance") / 1000);
+		// calculate legs
+		legs = null;
+		if (embeddedRouter != null) {
+			legs = new ArrayList<>(stops.size() - 1);
+			for (int i = 0; i < stops.size() - 1 && legs != null; i++) {
+				long start = System.nanoTime();
+				GeoRoute leg = embeddedRouter.route(stops.get(i), stops.get(i + 1));
+				metrics.recordRequest("embedded", System.nanoTime() - start, leg != null);
+				if (leg == null) {
+					if (!silentMode)
+						System.err.println("Could not find route using the embedded router");
+					metrics.recordFallback("embedded", "osrm-local");
+					legs = null;
+				} else {
+					legs.add(leg);
+				}
+			}
+		}
+		if (legs == null) {
+			if (useLocalOSRMServer && embeddedRouter == null && !isOSRMRouteServerRunning()) {
+				startOSRMRouteServer();
+			}
+			try {
+				legs = requestUsingOSRM(osrmLocalUrl, stops, deadline);
+			} catch (Exception e) {
+				if (!silentMode)
+					System.err.println("Could not find route using OSRMLocal: " + e.getMessage());
+				metrics.recordFallback("osrm-local", "osrm-demo");
+				try {
+					legs = requestUsingOSRM(osrmDemoUrl, stops, deadline);
+				} catch (Exception e1) {
+					if (!silentMode)
+						System.err.println("Could not find route using OSRMDemo: " + e1.getMessage());
+					metrics.recordFallback("osrm-demo", "openrouteservice");
+					try {
+						legs = new ArrayList<>(stops.size() - 1);
+						for (int i = 0; i < stops.size() - 1; i++) {
+							GeoRoute leg = requestUsingOpenRouteService(stops.get(i), stops.get(i + 1), deadline);
+							if (leg == null) {
+								throw new IOException("no route for leg " + i);
+							}
+							leg.setStart(stops.get(i));
+							leg.setDestination(stops.get(i + 1));
+							legs.add(leg);
+						}
+					} catch (Exception e2) {
+						if (!silentMode)
+							System.err.println("Could not find route using OpenRouteService: " + e2.getMessage());
+						if (deadline.isExpired()) {
+							throw new DeadlineExceededException("Could not route along " + stops.size() + " stops in time");
+						}
+						return null;
+					}
+				}
+			}
+		}
 
-		JSONArray jsonSteps = jsonTargetLeg.getJSONArray("steps");
-		List<GeoLocation> waypoints = new ArrayList<>();
-		for (int i = 0; i < jsonSteps.length(); i++) {
-			JSONObject currentStep = jsonSteps.getJSONObject(i);
-			JSONObject currentStepGeometry = currentStep.getJSONObject("geometry");
-			JSONArray currentStepGeometryCoordinates = currentStepGeometry.getJSONArray("coordinates");
-			for (int k = 0; k < currentStepGeometryCoordinates.length(); k++) {
-				JSONArray currentCoord = currentStepGeometryCoordinates.getJSONArray(k);
-				waypoints.add(new GeoLocation(currentCoord.getFloat(1), currentCoord.getFloat(0)));
+		// simplify geometry and save legs to cache
+		for (GeoRoute leg : legs) {
+			if (simplificationTolerance > 0) {
+				leg.simplify(simplificationTolerance);
+			}
+			if (cache != null) {
+				cache.cacheStoreRoute(leg.getStart(), leg.getDestination(), leg);
 			}
 		}
-		result.setWaypoints(waypoints);
 
-		return result;
+		return GeoRoute.ofLegs(legs);
+	}
+
+	/**
+	 * Sends a request to the local OSRM route server (osrm-routed.exe) running on
+	 * port 7880, if any does so, and returns the route found by it.
+	 * 
+	 * @param from     The start
+	 * @param to       The destination
+	 * @param deadline The deadline of the lookup
+	 * @return The recommended route between start and destination found - or null
+	 *         if no route was found
+	 * @throws IOException if something went wrong sending the request to the local
+	 *                     OSRM route server
+	 */
+	private GeoRoute requestUsingOSRMLocal(GeoLocation from, GeoLocation to, Deadline deadline) throws IOException {
+		return requestUsingOSRM(osrmLocalUrl, Arrays.asList(from, to), deadline).get(0);
 	}
 
 	/**
 	 * Sends a request to the public Demo OSRM route server via the Internet and
 	 * returns the route found by it.
 	 * 
-	 * @param from The start
-	 * @param to   The destination
+	 * @param from     The start
+	 * @param to       The destination
+	 * @param deadline The deadline of the lookup
 	 * @return The recommended route between start and destination found - or null
 	 *         if no route was found
 	 * @throws IOException if something went wrong sending the request to the public
 	 *                     Demo OSRM route server
 	 */
-	private GeoRoute requestUsingOSRMDemo(GeoLocation from, GeoLocation to) throws IOException {
-		GeoRoute result = new GeoRoute();
+	private GeoRoute requestUsingOSRMDemo(GeoLocation from, GeoLocation to, Deadline deadline) throws IOException {
+		return requestUsingOSRM(osrmDemoUrl, Arrays.asList(from, to), deadline).get(0);
+	}
 
-		// prepare request URL
-		String requestUrlString = "https://router.project-osrm.org/route/v1/driving/_LNG1_,_LAT1_;_LNG2_,_LAT2_?geometries=geojson&steps=true&generate_hints=false";
-		requestUrlString = requestUrlString.replace("_LAT1_", String.valueOf(from.getLatitude()))
-				.replace("_LNG1_", String.valueOf(from.getLongitude()))
-				.replace("_LAT2_", String.valueOf(to.getLatitude()))
-				.replace("_LNG2_", String.valueOf(to.getLongitude()));
+	/**
+	 * Sends a route request visiting all <i>stops</i> in order to an OSRM server
+	 * using the current geometry format and steps setting and returns the legs of
+	 * the route found by it.
+	 * 
+	 * @param serverUrl The base URL of the OSRM server
+	 * @param stops     The stops to visit, at least two
+	 * @param deadline  The deadline of the lookup
+	 * @return The legs between consecutive stops
+	 * @throws IOException if something went wrong sending the request to the OSRM
+	 *                     server
+	 */
+	private List<GeoRoute> requestUsingOSRM(String serverUrl, List<GeoLocation> stops, Deadline deadline)
+			throws IOException {
+		// prepare request URL; without steps the full geometry comes as overview
+		StringBuilder requestUrl = new StringBuilder(serverUrl).append("/route/v1/driving/");
+		for (int i = 0; i < stops.size(); i++) {
+			if (i > 0) {
+				requestUrl.append(';');
+			}
+			requestUrl.append(stops.get(i).getLongitude()).append(',').append(stops.get(i).getLatitude());
+		}
+		requestUrl.append("?geometries=").append(geometryFormat == GeometryFormat.POLYLINE6 ? "polyline6" : "geojson")
+				.append("&steps=").append(stepsEnabled).append("&overview=").append(stepsEnabled ? "false" : "full")
+				.append("&generate_hints=false");
 
-		// request from OpenRouteService
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL(requestUrlString);
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
+		// request from OSRM
+		GeoEvents.ProviderRequest event = new GeoEvents.ProviderRequest();
+		event.begin();
+		String response = null;
+		List<GeoRoute> legs = null;
+		try {
+			response = HttpFetcher.get(new URL(requestUrl.toString()), metrics, providerName(serverUrl), deadline);
+
+			legs = parseOSRMLegs(response);
+			if (legs.size() != stops.size() - 1) {
+				throw new IOException("OSRM returned " + legs.size() + " legs for " + stops.size() + " stops");
+			}
+			for (int i = 0; i < legs.size(); i++) {
+				legs.get(i).setStart(stops.get(i));
+				legs.get(i).setDestination(stops.get(i + 1));
+			}
+			return legs;
+		} finally {
+			int points = 0;
+			if (legs != null) {
+				for (GeoRoute leg : legs) {
+					points += GeoEvents.pointCount(leg);
+				}
+			}
+			event.finish(providerName(serverUrl), legs != null, response == null ? 0 : response.length(), points);
 		}
-		s.close();
-		String response = responseBuilder.toString();
+	}
 
+	/**
+	 * Reads the first leg of the first route of an OSRM route response
+	 * 
+	 * @param response The JSON response of the OSRM server
+	 * @return the route
+	 * @see #parseOSRMLegs(String)
+	 */
+	static GeoRoute parseOSRMRoute(String response) {
+		return parseOSRMLegs(response).get(0);
+	}
+
+	/**
+	 * Reads the legs of the first route of an OSRM route response. The geometry
+	 * of each leg is taken from its steps if present, else it is cut out of the
+	 * route overview at the snapped stop locations; both GeoJSON and polyline6
+	 * geometries are understood.
+	 * 
+	 * @param response The JSON response of the OSRM server
+	 * @return the legs of the route
+	 */
+	static List<GeoRoute> parseOSRMLegs(String response) {
 		// process JSON
 		JSONObject json = new JSONObject(response);
 		JSONArray jsonRoutes = json.getJSONArray("routes");
 		JSONObject jsonTargetRoute = jsonRoutes.getJSONObject(0);
 		JSONArray jsonLegs = jsonTargetRoute.getJSONArray("legs");
-		JSONObject jsonTargetLeg = jsonLegs.getJSONObject(0);
-		result.setDuration(jsonTargetLeg.getFloat("duration"));
-		result.setDistance(jsonTargetLeg.getFloat("distance") / 1000);
 
-		JSONArray jsonSteps = jsonTargetLeg.getJSONArray("steps");
-		List<GeoLocation> waypoints = new ArrayList<>();
-		for (int i = 0; i < jsonSteps.length(); i++) {
-			JSONObject currentStep = jsonSteps.getJSONObject(i);
-			JSONObject currentStepGeometry = currentStep.getJSONObject("geometry");
-			JSONArray currentStepGeometryCoordinates = currentStepGeometry.getJSONArray("coordinates");
-			for (int k = 0; k < currentStepGeometryCoordinates.length(); k++) {
-				JSONArray currentCoord = currentStepGeometryCoordinates.getJSONArray(k);
-				waypoints.add(new GeoLocation(currentCoord.getFloat(1), currentCoord.getFloat(0)));
+		// decode the overview once, if there is one
+		double[][] overview = null;
+		int[] stopIndices = null;
+		if (jsonTargetRoute.has("geometry")) {
+			overview = geometryCoordinates(jsonTargetRoute.get("geometry"));
+			stopIndices = findStopIndices(overview, json.optJSONArray("waypoints"), jsonLegs.length());
+		}
+
+		List<GeoRoute> result = new ArrayList<>(jsonLegs.length());
+		for (int l = 0; l < jsonLegs.length(); l++) {
+			JSONObject jsonTargetLeg = jsonLegs.getJSONObject(l);
+			GeoRoute leg = new GeoRoute();
+			leg.setDuration(jsonTargetLeg.getFloat("duration"));
+			leg.setDistance(jsonTargetLeg.getFloat("distance") / 1000);
+
+			List<GeoLocation> waypoints = new ArrayList<>();
+			JSONArray jsonSteps = jsonTargetLeg.optJSONArray("steps");
+			int[] stepEnds = null;
+			float[] stepDurations = null;
+			if (jsonSteps != null && jsonSteps.length() > 0) {
+				stepEnds = new int[jsonSteps.length()];
+				stepDurations = new float[jsonSteps.length()];
+				for (int i = 0; i < jsonSteps.length(); i++) {
+					JSONObject jsonStep = jsonSteps.getJSONObject(i);
+					double[][] coordinates = geometryCoordinates(jsonStep.get("geometry"));
+					for (int k = 0; k < coordinates[0].length; k++) {
+						waypoints.add(new GeoLocation(coordinates[0][k], coordinates[1][k]));
+					}
+					stepEnds[i] = waypoints.size() - 1;
+					stepDurations[i] = (float) jsonStep.optDouble("duration", 0);
+				}
+			} else if (overview != null) {
+				for (int k = stopIndices[l]; k <= stopIndices[l + 1]; k++) {
+					waypoints.add(new GeoLocation(overview[0][k], overview[1][k]));
+				}
+			}
+			leg.setWaypoints(waypoints);
+			if (stepEnds != null) {
+				leg.setSteps(stepEnds, stepDurations);
 			}
+			result.add(leg);
 		}
-		result.setWaypoints(waypoints);
 
 		return result;
 	}
 
+	/**
+	 * Decodes an OSRM geometry
+	 * 
+	 * @param geometry Either a polyline6 string or a GeoJSON LineString object
+	 * @return the latitudes (index 0) and longitudes (index 1)
+	 */
+	private static double[][] geometryCoordinates(Object geometry) {
+		if (geometry instanceof String) {
+			String encoded = (String) geometry;
+			int count = Polyline.count(encoded);
+			double[][] coordinates = new double[2][count];
+			Polyline.decode(encoded, Polyline.PRECISION_6, coordinates[0], coordinates[1], 0);
+			return coordinates;
+		}
+		JSONArray jsonCoordinates = ((JSONObject) geometry).getJSONArray("coordinates");
+		double[][] coordinates = new double[2][jsonCoordinates.length()];
+		for (int k = 0; k < jsonCoordinates.length(); k++) {
+			JSONArray currentCoord = jsonCoordinates.getJSONArray(k);
+			coordinates[0][k] = currentCoord.getDouble(1);
+			coordinates[1][k] = currentCoord.getDouble(0);
+		}
+		return coordinates;
+	}
+
+	/**
+	 * Finds the positions of the snapped stop locations in an overview geometry,
+	 * searching forward from the previous stop
+	 * 
+	 * @return the index of every stop in the geometry, first and last stop
+	 *         included
+	 */
+	private static int[] findStopIndices(double[][] overview, JSONArray jsonWaypoints, int legCount) {
+		int last = overview[0].length - 1;
+		int[] indices = new int[legCount + 1];
+		indices[legCount] = last;
+		for (int l = 1; l < legCount; l++) {
+			indices[l] = indices[l - 1];
+			if (jsonWaypoints == null || jsonWaypoints.length() <= l) {
+				continue;
+			}
+			JSONArray location = jsonWaypoints.getJSONObject(l).getJSONArray("location");
+			double lat = location.getDouble(1);
+			double lng = location.getDouble(0);
+			double bestDistance = Double.MAX_VALUE;
+			for (int k = indices[l - 1]; k <= last; k++) {
+				double dLat = overview[0][k] - lat;
+				double dLng = overview[1][k] - lng;
+				double distance = dLat * dLat + dLng * dLng;
+				if (distance < bestDistance) {
+					bestDistance = distance;
+					indices[l] = k;
+					// snapped locations are vertices of the geometry
+					if (distance < 1e-12) {
+						break;
+					}
+				}
+			}
+		}
+		return indices;
+	}
+
 	/**
 	 * Sends a request to the OpenRouteService API via the Internet and returns the
 	 * route found by it.
 	 * 
-	 * @param from The start
-	 * @param to   The destination
+	 * @param from     The start
+	 * @param to       The destination
+	 * @param deadline The deadline of the lookup
 	 * @return The recommended route between start and destination found - or null
 	 *         if no route was found
 	 * @throws IOException if something went wrong sending the request to the
 	 *                     OpenRouteService API
 	 */
-	private GeoRoute requestUsingOpenRouteService(GeoLocation from, GeoLocation to) throws IOException {
-		if (!APIKeyManager.hasAPIKey("openrouteservice")) {
-			System.err.println("Missing API key for 'openrouteservice'");
+	private GeoRoute requestUsingOpenRouteService(GeoLocation from, GeoLocation to, Deadline deadline)
+			throws IOException {
+		String apiKey = APIKeyManager.getAPIKey("openrouteservice");
+		if (apiKey == null) {
+			if (!silentMode)
+				System.err.println("Missing API key for 'openrouteservice'");
 			return null;
 		}
 
 		GeoRoute result = new GeoRoute();
 
 		// prepare request URL
-		String requestUrlString = "https://api.openrouteservice.org/directions?api_key="
-				+ APIKeyManager.getAPIKey("openrouteservice")
+		String requestUrlString = "https://api.openrouteservice.org/directions?api_key=" + apiKey
 				+ "&coordinates=_LNG1_%2C_LAT1_%7C_LNG2_%2C_LAT2_&profile=driving-car&preference=recommended&format=json&units=km&language=de&instructions=true&instructions_format=text";
 		requestUrlString = requestUrlString.replace("_LAT1_", String.valueOf(from.getLatitude()))
 				.replace("_LNG1_", String.valueOf(from.getLongitude()))
@@ -358,35 +755,40 @@ public class GeoRouter {
 				.replace("_LNG2_", String.valueOf(to.getLongitude()));
 
 		// request from OpenRouteService
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL(requestUrlString);
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
-		}
-		s.close();
-		String response = responseBuilder.toString();
+		GeoEvents.ProviderRequest event = new GeoEvents.ProviderRequest();
+		event.begin();
+		String response = null;
+		boolean success = false;
+		try {
+			response = HttpFetcher.get(new URL(requestUrlString), metrics, "openrouteservice", apiKey, deadline);
 
-		// process JSON
-		JSONObject json = new JSONObject(response);
-		JSONArray jsonRoutes = json.getJSONArray("routes");
-		JSONObject jsonTargetRoute = jsonRoutes.getJSONObject(0);
-		JSONObject jsonRouteSummary = jsonTargetRoute.getJSONObject("summary");
-		result.setDistance(jsonRouteSummary.getFloat("distance"));
-		result.setDuration(jsonRouteSummary.getFloat("duration"));
+			// process JSON
+			JSONObject json = new JSONObject(response);
+			JSONArray jsonRoutes = json.getJSONArray("routes");
+			JSONObject jsonTargetRoute = jsonRoutes.getJSONObject(0);
+			JSONObject jsonRouteSummary = jsonTargetRoute.getJSONObject("summary");
+			result.setDistance(jsonRouteSummary.getFloat("distance"));
+			result.setDuration(jsonRouteSummary.getFloat("duration"));
+			success = true;
+		} finally {
+			event.finish("openrouteservice", success, response == null ? 0 : response.length(), 0);
+		}
 
 		return result;
 	}
 
 	/**
 	 * Calculates a duration matrix between destination and every start location
-	 * given using a local OSRM server (if any is running on port 7880)
+	 * given using the embedded router (if set) or a local OSRM server (if any is
+	 * running on port 7880)
 	 * 
 	 * @param destination The destination
 	 * @param starts      An array of starts
 	 * @return an array of GeoRoutes containing one element of <i>starts</i>, the
 	 *         destination and the calculated duration. The distance of that route
-	 *         is always -2.0f.
+	 *         is always -2.0f. The embedded router reports starts that cannot
+	 *         reach the destination with a duration of
+	 *         {@link Float#POSITIVE_INFINITY}.
 	 * @throws IOException if something went wrong sending the request to the local
 	 *                     OSRM server
 	 */
@@ -395,6 +797,22 @@ public class GeoRouter {
 			throw new IllegalArgumentException("there must be at least one start to calculate a matrix");
 		}
 
+		GeoEvents.Matrix event = new GeoEvents.Matrix();
+		event.begin();
+
+		// answer in-process if possible
+		if (embeddedRouter != null) {
+			long start = System.nanoTime();
+			float[] durations = embeddedRouter.durationsTo(destination, starts);
+			metrics.recordRequest("embedded", System.nanoTime() - start, true);
+			GeoRoute[] result = new GeoRoute[starts.length];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = new GeoRoute(starts[i], destination, durations[i], -2.0f);
+			}
+			event.finish("embedded", "bypass", 0, starts.length + 1);
+			return result;
+		}
+
 		// collect coordinates
 		StringBuilder coords = new StringBuilder();
 		coords.append(destination.getLongitude() + "," + destination.getLatitude());
@@ -411,15 +829,9 @@ public class GeoRouter {
 		}
 
 		// send request to local OSRM server
-		StringBuilder responseBuilder = new StringBuilder();
-		URL url = new URL("http://127.0.0.1:7880/table/v1/driving/" + coords.toString() + "?destinations=0&sources="
+		URL url = new URL(osrmLocalUrl + "/table/v1/driving/" + coords.toString() + "?destinations=0&sources="
 				+ indices.toString());
-		Scanner s = new Scanner(new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8")));
-		while (s.hasNextLine()) {
-			responseBuilder.append(s.nextLine()).append(System.getProperty("line.separator"));
-		}
-		s.close();
-		String response = responseBuilder.toString();
+		String response = HttpFetcher.get(url, metrics, "osrm-local");
 
 		// process json
 		JSONObject json = new JSONObject(response);
@@ -432,9 +844,491 @@ public class GeoRouter {
 			result[i] = new GeoRoute(starts[i], destination, jsonDurations.getJSONArray(i).getFloat(0), -2.0f);
 		}
 
+		event.finish("osrm-local", "bypass", response.length(), starts.length + 1);
+
 		return result;
 	}
 
+	/**
+	 * Calculates the durations between every pair of <i>locations</i> using the
+	 * embedded router (if set) or a local OSRM server (if any is running on port
+	 * 7880)
+	 * 
+	 * @param locations The locations
+	 * @return the matrix of durations in seconds; element [i][j] is the duration
+	 *         from location i to location j, {@link Float#POSITIVE_INFINITY} if
+	 *         there is no route
+	 * @throws IOException if something went wrong sending a request to the local
+	 *                     OSRM server
+	 */
+	public float[][] calculateDurationTable(List<GeoLocation> locations) throws IOException {
+		return calculateDurationTable(locations, locations);
+	}
+
+	/**
+	 * Calculates the durations from every source to every destination using the
+	 * embedded router (if set) or a local OSRM server (if any is running on port
+	 * 7880). Large tables are split into tiles small enough for a single OSRM
+	 * request each (see {@link #setMaxTableSize(int)}).
+	 * 
+	 * @param sources      The sources
+	 * @param destinations The destinations
+	 * @return the matrix of durations in seconds; element [i][j] is the duration
+	 *         from source i to destination j, {@link Float#POSITIVE_INFINITY} if
+	 *         there is no route
+	 * @throws IOException if something went wrong sending a request to the local
+	 *                     OSRM server
+	 */
+	public float[][] calculateDurationTable(List<GeoLocation> sources, List<GeoLocation> destinations)
+			throws IOException {
+		if (sources.isEmpty() || destinations.isEmpty() || hasNull(sources) || hasNull(destinations)) {
+			throw new IllegalArgumentException("there must be at least one source and destination, none of them null");
+		}
+
+		float[][] result = new float[sources.size()][];
+
+		// answer in-process if possible
+		if (embeddedRouter != null) {
+			GeoLocation[] targets = destinations.toArray(new GeoLocation[0]);
+			long start = System.nanoTime();
+			for (int i = 0; i < result.length; i++) {
+				result[i] = embeddedRouter.durationsFrom(sources.get(i), targets);
+			}
+			metrics.recordRequest("embedded", System.nanoTime() - start, true);
+			return result;
+		}
+
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new float[destinations.size()];
+		}
+		TileSource tiles = tileSource(sources, destinations);
+		for (MatrixTile tile = tiles.next(); tile != null; tile = tiles.next()) {
+			float[][] durations = tile.getDurations();
+			for (int k = 0; k < durations.length; k++) {
+				System.arraycopy(durations[k], 0, result[tile.getSourceOffset() + k], tile.getDestinationOffset(),
+						durations[k].length);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Publishes the durations from every source to every destination tile by
+	 * tile as they are calculated, using the embedded router (if set) or a local
+	 * OSRM server (if any is running on port 7880). A tile is calculated only
+	 * once the subscriber has requested it, so consumers can start on the first
+	 * tiles early and no more than the tiles requested are held in memory.
+	 * Tiles are as large as a single OSRM request allows (see
+	 * {@link #setMaxTableSize(int)}); the embedded router publishes rows of all
+	 * destinations instead. The subscriber receives an IOException in onError if
+	 * a request fails.
+	 * 
+	 * @param sources      The sources
+	 * @param destinations The destinations
+	 * @return a publisher calculating the table again for every subscriber
+	 */
+	public Flow.Publisher<MatrixTile> publishDurationTable(List<GeoLocation> sources, List<GeoLocation> destinations) {
+		if (sources.isEmpty() || destinations.isEmpty() || hasNull(sources) || hasNull(destinations)) {
+			throw new IllegalArgumentException("there must be at least one source and destination, none of them null");
+		}
+		List<GeoLocation> sourceList = List.copyOf(sources);
+		List<GeoLocation> destinationList = List.copyOf(destinations);
+		return new PullPublisher<>(() -> tileSource(sourceList, destinationList), publisherExecutor);
+	}
+
+	/**
+	 * Publishes the durations from every start to <i>destination</i> as they are
+	 * calculated, like {@link #calculateMatrix(GeoLocation, GeoLocation...)}.
+	 * Starts are sent to the OSRM server in tiles as large as a single request
+	 * allows, and a tile is requested only once the subscriber has asked for one
+	 * of its routes.
+	 * 
+	 * @param destination The destination
+	 * @param starts      The starts
+	 * @return a publisher of one GeoRoute per start, in the order of
+	 *         <i>starts</i>, containing the start, the destination and the
+	 *         calculated duration ({@link Float#POSITIVE_INFINITY} if there is no
+	 *         route). The distance of these routes is always -2.0f.
+	 */
+	public Flow.Publisher<GeoRoute> publishMatrix(GeoLocation destination, List<GeoLocation> starts) {
+		if (destination == null || starts.isEmpty() || hasNull(starts)) {
+			throw new IllegalArgumentException("there must be a destination and at least one start, none of them null");
+		}
+		List<GeoLocation> startList = List.copyOf(starts);
+		List<GeoLocation> destinations = Collections.singletonList(destination);
+		return new PullPublisher<>(() -> {
+			TileSource tiles = tileSource(startList, destinations);
+			return new PullPublisher.Source<GeoRoute>() {
+				private MatrixTile tile;
+				private int row;
+
+				@Override
+				public GeoRoute next() throws IOException {
+					if (tile == null || row == tile.getSourceCount()) {
+						tile = tiles.next();
+						row = 0;
+						if (tile == null) {
+							return null;
+						}
+					}
+					GeoLocation start = startList.get(tile.getSourceOffset() + row);
+					return new GeoRoute(start, destination, tile.getDuration(row++, 0), -2.0f);
+				}
+			};
+		}, publisherExecutor);
+	}
+
+	/**
+	 * Publishes routes one by one as they are calculated, like
+	 * {@link #calculateRoute(List, GeoCache)} does for each of them. A route is
+	 * calculated only once the subscriber has requested it.
+	 * 
+	 * @param routes The routes to calculate, each given by at least two stops
+	 * @param cache  The GeoCache to use, may be null
+	 * @return a publisher of one GeoRoute per element of <i>routes</i>, in the
+	 *         same order; a route that could not be calculated is published as a
+	 *         GeoRoute from its first to its last stop with a duration of
+	 *         {@link Float#POSITIVE_INFINITY} and a distance of -1.0f
+	 */
+	public Flow.Publisher<GeoRoute> publishRoutes(List<List<GeoLocation>> routes, GeoCache cache) {
+		List<List<GeoLocation>> routeList = new ArrayList<>(routes.size());
+		for (List<GeoLocation> stops : routes) {
+			if (stops == null || stops.size() < 2 || hasNull(stops)) {
+				throw new IllegalArgumentException("every route must have at least two stops, none of them null");
+			}
+			routeList.add(new ArrayList<>(stops));
+		}
+		return new PullPublisher<>(() -> {
+			Iterator<List<GeoLocation>> remaining = routeList.iterator();
+			return () -> {
+				if (!remaining.hasNext()) {
+					return null;
+				}
+				List<GeoLocation> stops = remaining.next();
+				GeoRoute route = stops.size() == 2 ? calculateRoute(stops.get(0), stops.get(1), cache)
+						: calculateRoute(stops, cache);
+				return route != null ? route
+						: new GeoRoute(stops.get(0), stops.get(stops.size() - 1), Float.POSITIVE_INFINITY, -1.0f);
+			};
+		}, publisherExecutor);
+	}
+
+	/**
+	 * Sets the executor the publishers of this GeoRouter calculate and deliver
+	 * their results on
+	 * 
+	 * @param executor the executor, by default a shared pool of daemon threads
+	 */
+	public void setPublisherExecutor(Executor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor may not be null");
+		}
+		this.publisherExecutor = executor;
+	}
+
+	/**
+	 * @return whether <i>locations</i> contains null; unlike contains(null), this
+	 *         also works for lists that do not permit null elements
+	 */
+	static boolean hasNull(Collection<GeoLocation> locations) {
+		for (GeoLocation location : locations) {
+			if (location == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The tiles of a duration table, failing with the IOException of a failed
+	 * request
+	 */
+	private interface TileSource extends PullPublisher.Source<MatrixTile> {
+		@Override
+		MatrixTile next() throws IOException;
+	}
+
+	/**
+	 * Splits a duration table into tiles small enough for a single request each
+	 * and calculates them one at a time, each on the call that returns it
+	 * 
+	 * @param sources      The sources, none of them null
+	 * @param destinations The destinations, none of them null
+	 * @return the source of the tiles, row by row
+	 */
+	private TileSource tileSource(List<GeoLocation> sources, List<GeoLocation> destinations) {
+		// few destinations leave room for more sources per request
+		int sourceTile = Math.min(sources.size(), Math.max(maxTableSize / 2, maxTableSize - destinations.size()));
+		if (embeddedRouter != null) {
+			CHRouter router = embeddedRouter;
+			GeoLocation[] targets = destinations.toArray(new GeoLocation[0]);
+			return new TileSource() {
+				private int i;
+
+				@Override
+				public MatrixTile next() {
+					if (i >= sources.size()) {
+						return null;
+					}
+					float[][] durations = new float[Math.min(sourceTile, sources.size() - i)][];
+					long start = System.nanoTime();
+					for (int k = 0; k < durations.length; k++) {
+						durations[k] = router.durationsFrom(sources.get(i + k), targets);
+					}
+					metrics.recordRequest("embedded", System.nanoTime() - start, true);
+					MatrixTile tile = new MatrixTile(i, 0, durations);
+					i += durations.length;
+					return tile;
+				}
+			};
+		}
+		String serverUrl = osrmLocalUrl;
+		int destinationTile = maxTableSize - sourceTile;
+		return new TileSource() {
+			private int i;
+			private int j;
+
+			@Override
+			public MatrixTile next() throws IOException {
+				if (j >= destinations.size()) {
+					i += sourceTile;
+					j = 0;
+				}
+				if (i >= sources.size()) {
+					return null;
+				}
+				List<GeoLocation> tileSources = sources.subList(i, Math.min(i + sourceTile, sources.size()));
+				List<GeoLocation> tileDestinations = destinations.subList(j,
+						Math.min(j + destinationTile, destinations.size()));
+				MatrixTile tile = new MatrixTile(i, j, requestTable(serverUrl, tileSources, tileDestinations));
+				j += destinationTile;
+				return tile;
+			}
+		};
+	}
+
+	/**
+	 * Sends a table request to an OSRM server
+	 * 
+	 * @param serverUrl    The base URL of the OSRM server
+	 * @param sources      The sources
+	 * @param destinations The destinations
+	 * @return the durations from every source to every destination in seconds,
+	 *         {@link Float#POSITIVE_INFINITY} if there is no route
+	 * @throws IOException if something went wrong sending the request to the OSRM
+	 *                     server
+	 */
+	private float[][] requestTable(String serverUrl, List<GeoLocation> sources, List<GeoLocation> destinations)
+			throws IOException {
+		// coordinates of all sources followed by those of all destinations
+		StringBuilder requestUrl = new StringBuilder(serverUrl).append("/table/v1/driving/");
+		for (GeoLocation pos : sources) {
+			requestUrl.append(pos.getLongitude()).append(',').append(pos.getLatitude()).append(';');
+		}
+		for (GeoLocation pos : destinations) {
+			requestUrl.append(pos.getLongitude()).append(',').append(pos.getLatitude()).append(';');
+		}
+		requestUrl.setLength(requestUrl.length() - 1);
+		requestUrl.append("?sources=");
+		for (int i = 0; i < sources.size(); i++) {
+			requestUrl.append(i).append(';');
+		}
+		requestUrl.setLength(requestUrl.length() - 1);
+		requestUrl.append("&destinations=");
+		for (int i = 0; i < destinations.size(); i++) {
+			requestUrl.append(sources.size() + i).append(';');
+		}
+		requestUrl.setLength(requestUrl.length() - 1);
+
+		GeoEvents.ProviderRequest event = new GeoEvents.ProviderRequest();
+		event.begin();
+		String response = null;
+		float[][] durations = null;
+		try {
+			response = HttpFetcher.get(new URL(requestUrl.toString()), metrics, providerName(serverUrl));
+			durations = parseOSRMTable(response);
+			return durations;
+		} finally {
+			event.finish(providerName(serverUrl), durations != null, response == null ? 0 : response.length(),
+					sources.size() + destinations.size());
+		}
+	}
+
+	/**
+	 * @return the name metrics use for the OSRM server at <i>serverUrl</i>
+	 */
+	private String providerName(String serverUrl) {
+		return osrmLocalUrl.equals(serverUrl) ? "osrm-local" : "osrm-demo";
+	}
+
+	/**
+	 * Reads the durations of an OSRM table response
+	 * 
+	 * @param response The JSON response of the OSRM server
+	 * @return the durations from every source to every destination in seconds,
+	 *         {@link Float#POSITIVE_INFINITY} if there is no route
+	 */
+	static float[][] parseOSRMTable(String response) {
+		JSONArray jsonDurations = new JSONObject(response).getJSONArray("durations");
+		float[][] result = new float[jsonDurations.length()][];
+		for (int i = 0; i < result.length; i++) {
+			JSONArray jsonRow = jsonDurations.getJSONArray(i);
+			result[i] = new float[jsonRow.length()];
+			for (int j = 0; j < result[i].length; j++) {
+				result[i][j] = jsonRow.isNull(j) ? Float.POSITIVE_INFINITY : jsonRow.getFloat(j);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Determines which <i>candidates</i> can be reached from <i>origin</i> within
+	 * <i>maxDuration</i>. Candidates too far away to be reached even at
+	 * <i>maxSpeedKmh</i> on a bee line are ruled out without routing; the rest
+	 * is routed in as few table requests as possible.
+	 * 
+	 * @param origin      The origin
+	 * @param maxDuration The maximum duration in seconds
+	 * @param maxSpeedKmh An upper bound of the average speed in km/h; too low a
+	 *                    bound rules out reachable candidates
+	 * @param candidates  The candidate locations
+	 * @return the reachable candidates and the durations to them
+	 * @throws IOException if something went wrong sending a request to the local
+	 *                     OSRM server
+	 */
+	public Reachability calculateReachability(GeoLocation origin, float maxDuration, float maxSpeedKmh,
+			List<GeoLocation> candidates) throws IOException {
+		if (origin == null || candidates == null || hasNull(candidates)) {
+			throw new IllegalArgumentException("origin and candidates may not be null");
+		}
+		if (maxDuration < 0 || maxSpeedKmh <= 0) {
+			throw new IllegalArgumentException("maxDuration may not be negative, maxSpeedKmh must be positive");
+		}
+
+		// rule out everything beyond the bee line radius
+		float radius = maxSpeedKmh / 3.6f * maxDuration;
+		float[] durations = new float[candidates.size()];
+		List<GeoLocation> routed = new ArrayList<>();
+		int[] routedIndices = new int[candidates.size()];
+		for (int i = 0; i < candidates.size(); i++) {
+			durations[i] = Float.POSITIVE_INFINITY;
+			if (origin.distanceTo(candidates.get(i)) <= radius) {
+				routedIndices[routed.size()] = i;
+				routed.add(candidates.get(i));
+			}
+		}
+
+		// route the rest in batches
+		if (!routed.isEmpty()) {
+			float[] routedDurations = calculateDurationTable(Collections.singletonList(origin), routed)[0];
+			for (int k = 0; k < routedDurations.length; k++) {
+				durations[routedIndices[k]] = routedDurations[k];
+			}
+		}
+
+		return new Reachability(origin, maxDuration, candidates, durations, routed.size());
+	}
+
+	/**
+	 * Approximates the area reachable from <i>origin</i> within
+	 * <i>maxDuration</i> (an isochrone). Durations are calculated to a polar grid
+	 * of sample points around the origin; the polygon connects the farthest
+	 * reachable sample on each ray.
+	 * 
+	 * @param origin      The origin
+	 * @param maxDuration The maximum duration in seconds
+	 * @param maxSpeedKmh An upper bound of the average speed in km/h, determining
+	 *                    the radius of the grid
+	 * @param rays        The number of rays, i.e. polygon vertices
+	 * @param samples     The number of sample points per ray
+	 * @return the vertices of the polygon in clockwise order, starting north
+	 * @throws IOException if something went wrong sending a request to the local
+	 *                     OSRM server
+	 */
+	public List<GeoLocation> calculateIsochrone(GeoLocation origin, float maxDuration, float maxSpeedKmh, int rays,
+			int samples) throws IOException {
+		if (rays < 3 || samples < 1) {
+			throw new IllegalArgumentException("there must be at least three rays and one sample per ray");
+		}
+
+		// sample points on rays, evenly spaced up to the bee line radius
+		float radius = maxSpeedKmh / 3.6f * maxDuration;
+		List<GeoLocation> grid = new ArrayList<>(rays * samples);
+		for (int r = 0; r < rays; r++) {
+			double bearing = 2 * Math.PI * r / rays;
+			for (int k = 1; k <= samples; k++) {
+				grid.add(offset(origin, bearing, radius * k / samples));
+			}
+		}
+
+		Reachability reachability = calculateReachability(origin, maxDuration, maxSpeedKmh, grid);
+
+		List<GeoLocation> polygon = new ArrayList<>(rays);
+		for (int r = 0; r < rays; r++) {
+			GeoLocation vertex = origin;
+			for (int k = samples - 1; k >= 0; k--) {
+				if (reachability.isReachable(r * samples + k)) {
+					vertex = grid.get(r * samples + k);
+					break;
+				}
+			}
+			polygon.add(vertex);
+		}
+		return polygon;
+	}
+
+	/**
+	 * @return the location <i>meters</i> away from <i>origin</i> in the direction
+	 *         of <i>bearing</i> (radians clockwise from north), using a local flat
+	 *         earth approximation
+	 */
+	private static GeoLocation offset(GeoLocation origin, double bearing, double meters) {
+		double metersPerDegree = 6378137.0 * Math.PI / 180;
+		double lat = origin.getLatitude() + Math.cos(bearing) * meters / metersPerDegree;
+		double lng = origin.getLongitude()
+				+ Math.sin(bearing) * meters / (metersPerDegree * Math.cos(Math.toRadians(origin.getLatitude())));
+		return new GeoLocation(lat, lng);
+	}
+
+	/**
+	 * Sets the maximum number of locations the local OSRM server accepts in a
+	 * single table request (its --max-table-size option)
+	 * 
+	 * @param maxTableSize the maximum number of locations, 100 by default
+	 */
+	public void setMaxTableSize(int maxTableSize) {
+		if (maxTableSize < 2) {
+			throw new IllegalArgumentException("maxTableSize must be at least 2");
+		}
+		this.maxTableSize = maxTableSize;
+	}
+
+	/**
+	 * Preloads frequently used routes into <i>cache</i> in the background, e.g.
+	 * at startup. Routes cached already are not calculated again.
+	 * 
+	 * @param routes      The routes to calculate, each given by its stops
+	 * @param cache       The GeoCache to fill
+	 * @param parallelism The maximum number of routes calculated at the same time
+	 * @return a future completed with the number of routes found once all of them
+	 *         are done
+	 */
+	public CompletableFuture<Integer> warmUp(Collection<List<GeoLocation>> routes, GeoCache cache, int parallelism) {
+		if (cache == null) {
+			throw new IllegalArgumentException("cache may not be null");
+		}
+		return GeoCache.warmUp(routes, parallelism, "GeoRouter-warmup", stops -> {
+			try {
+				return (stops.size() == 2 ? calculateRoute(stops.get(0), stops.get(1), cache)
+						: calculateRoute(stops, cache)) != null;
+			} catch (RuntimeException e) {
+				if (!silentMode)
+					System.err.println("Could not warm up route via " + stops + ": " + e.getMessage());
+				return false;
+			}
+		});
+	}
+
 	/**
 	 * Finds the GeoRoute with the smallest duration in an array if GeoRoutes
 	 * 
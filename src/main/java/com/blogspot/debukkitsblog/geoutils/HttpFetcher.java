@@ -0,0 +1,261 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+/**
+ * Sends GET requests to the external APIs and reads their responses. Every
+ * request is bounded by a connect and a read timeout, and by the deadline of
+ * the lookup it belongs to, if any.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class HttpFetcher {
+
+	static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+	static final int READ_TIMEOUT_MILLIS = 30_000;
+	/** how long a rate limited key is not used if the service does not say */
+	static final long RATE_LIMIT_BACK_OFF_MILLIS = 1_000;
+
+	private HttpFetcher() {
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> and returns the response body
+	 *
+	 * @param url The URL to request
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed or the server answered with an
+	 *                     HTTP error status
+	 */
+	static String get(URL url) throws IOException {
+		return new String(fetch(url, Deadline.NONE), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> and reports its latency, outcome and
+	 * response size to <i>metrics</i>
+	 *
+	 * @param url      The URL to request
+	 * @param metrics  The metrics to report to
+	 * @param provider The name of the provider requested
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed or the server answered with an
+	 *                     HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String provider) throws IOException {
+		return get(url, metrics, provider, Deadline.NONE);
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> that must be answered by
+	 * <i>deadline</i> and reports its latency, outcome and response size to
+	 * <i>metrics</i>
+	 *
+	 * @param url      The URL to request
+	 * @param metrics  The metrics to report to
+	 * @param provider The name of the provider requested
+	 * @param deadline The deadline of the lookup
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed, did not finish in time or the
+	 *                     server answered with an HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String provider, Deadline deadline) throws IOException {
+		return get(url, metrics, provider, deadline, size -> {
+		});
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> that must be answered by
+	 * <i>deadline</i>, reports its latency, outcome and response size to
+	 * <i>metrics</i> and the response size to <i>received</i> as well
+	 *
+	 * @param url      The URL to request
+	 * @param metrics  The metrics to report to
+	 * @param provider The name of the provider requested
+	 * @param deadline The deadline of the lookup
+	 * @param received Receives the size of the response in bytes
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed, did not finish in time or the
+	 *                     server answered with an HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String provider, Deadline deadline, LongConsumer received)
+			throws IOException {
+		// not counted as a request, as none is sent
+		if (deadline.isExpired()) {
+			throw new SocketTimeoutException("Deadline expired before requesting " + provider);
+		}
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			byte[] body = fetch(url, deadline);
+			success = true;
+			metrics.recordBytesParsed(provider, body.length);
+			received.accept(body.length);
+			return new String(body, StandardCharsets.UTF_8);
+		} finally {
+			metrics.recordRequest(provider, System.nanoTime() - start, success);
+		}
+	}
+
+	private static byte[] fetch(URL url, Deadline deadline) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(Math.max(1, deadline.timeoutMillis(CONNECT_TIMEOUT_MILLIS)));
+		connection.setReadTimeout(Math.max(1, deadline.timeoutMillis(READ_TIMEOUT_MILLIS)));
+		try {
+			int status = connection.getResponseCode();
+			if (status >= 400) {
+				throw new StatusException(status, retryAfterMillis(connection));
+			}
+			// the read timeout applies to every single read, so a slowly trickling
+			// response is checked against the deadline as well
+			try (InputStream in = connection.getInputStream()) {
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+					body.write(buffer, 0, n);
+					if (deadline.isExpired()) {
+						throw new SocketTimeoutException("Deadline expired reading the response of " + url.getHost());
+					}
+				}
+				return body.toByteArray();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> containing <i>apiKey</i> and reports the
+	 * outcome to the {@link APIKeyManager}. Keys the service rejects as
+	 * unauthorized are removed immediately; rate limited keys are not used for a
+	 * while, as long as the service asks for in a Retry-After header.
+	 *
+	 * @param url       The URL to request
+	 * @param metrics   The metrics to report to
+	 * @param serviceID The serviceID the key belongs to, also the provider name
+	 *                  reported to <i>metrics</i>
+	 * @param apiKey    The API key contained in <i>url</i>
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed or the server answered with an
+	 *                     HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String serviceID, String apiKey) throws IOException {
+		return get(url, metrics, serviceID, apiKey, Deadline.NONE);
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> containing <i>apiKey</i> that must be
+	 * answered by <i>deadline</i> and reports the outcome to the
+	 * {@link APIKeyManager}. Requests cut short by the deadline do not count
+	 * against the key.
+	 *
+	 * @param url       The URL to request
+	 * @param metrics   The metrics to report to
+	 * @param serviceID The serviceID the key belongs to, also the provider name
+	 *                  reported to <i>metrics</i>
+	 * @param apiKey    The API key contained in <i>url</i>
+	 * @param deadline  The deadline of the lookup
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed, did not finish in time or the
+	 *                     server answered with an HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String serviceID, String apiKey, Deadline deadline)
+			throws IOException {
+		return get(url, metrics, serviceID, apiKey, deadline, size -> {
+		});
+	}
+
+	/**
+	 * Sends a GET request to <i>url</i> containing <i>apiKey</i> that must be
+	 * answered by <i>deadline</i>, reports the outcome to the
+	 * {@link APIKeyManager} and the response size to <i>received</i>
+	 *
+	 * @param url       The URL to request
+	 * @param metrics   The metrics to report to
+	 * @param serviceID The serviceID the key belongs to, also the provider name
+	 *                  reported to <i>metrics</i>
+	 * @param apiKey    The API key contained in <i>url</i>
+	 * @param deadline  The deadline of the lookup
+	 * @param received  Receives the size of the response in bytes
+	 * @return the response body decoded as UTF-8
+	 * @throws IOException if the request failed, did not finish in time or the
+	 *                     server answered with an HTTP error status
+	 */
+	static String get(URL url, GeoMetrics metrics, String serviceID, String apiKey, Deadline deadline,
+			LongConsumer received) throws IOException {
+		try {
+			String response = get(url, metrics, serviceID, deadline, received);
+			APIKeyManager.reportSuccess(serviceID, apiKey);
+			return response;
+		} catch (StatusException e) {
+			if (e.getStatus() == 401 || e.getStatus() == 403) {
+				APIKeyManager.revokeAPIKey(serviceID, apiKey);
+			} else if (e.getStatus() == 429) {
+				APIKeyManager.reportRateLimited(serviceID, apiKey,
+						e.getRetryAfterMillis() >= 0 ? e.getRetryAfterMillis() : RATE_LIMIT_BACK_OFF_MILLIS);
+			} else {
+				APIKeyManager.reportError(serviceID, apiKey);
+			}
+			throw e;
+		} catch (IOException e) {
+			if (!deadline.isExpired()) {
+				APIKeyManager.reportError(serviceID, apiKey);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the delay in a Retry-After header given in seconds, -1 if there is
+	 *         none
+	 */
+	private static long retryAfterMillis(HttpURLConnection connection) {
+		String retryAfter = connection.getHeaderField("Retry-After");
+		if (retryAfter != null) {
+			try {
+				return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+			} catch (NumberFormatException e) {
+				// an HTTP date, the default back-off is used instead
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Thrown if a server answers with an HTTP error status
+	 */
+	static class StatusException extends IOException {
+
+		private static final long serialVersionUID = -6391530418253960164L;
+
+		private final int status;
+		private final long retryAfterMillis;
+
+		StatusException(int status, long retryAfterMillis) {
+			super("Server returned HTTP response code: " + status);
+			this.status = status;
+			this.retryAfterMillis = retryAfterMillis;
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return how long the server asked to wait before trying again, -1 if it
+		 *         did not say
+		 */
+		long getRetryAfterMillis() {
+			return retryAfterMillis;
+		}
+	}
+
+}
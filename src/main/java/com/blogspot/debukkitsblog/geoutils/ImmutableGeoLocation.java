@@ -0,0 +1,167 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * A GeoLocation that cannot be changed, for keeping large numbers of locations
+ * in memory. Zip code, neighborhood, city, county, state and country are
+ * shared through an {@link AddressDictionary}, and the String representation,
+ * also used as cache key, is computed once per instance. It can be used
+ * wherever a GeoLocation is expected; its setters throw an
+ * UnsupportedOperationException.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class ImmutableGeoLocation extends GeoLocation {
+
+	/**
+	 *
+	 */
+	private static final long serialVersionUID = 7431096204588377128L;
+
+	private transient volatile String string;
+
+	/**
+	 * Constructs a new ImmutableGeoLocation based on its decimal coordinates, its
+	 * name and postal address, sharing the address components through the
+	 * {@link AddressDictionary#getDefault() default dictionary}
+	 *
+	 * @param name
+	 *            The name of the location, may be null
+	 * @param latitude
+	 *            The latitude
+	 * @param longitude
+	 *            The longitude
+	 * @param streetAndNumber
+	 *            The street name and - if present - a house number
+	 * @param zipCode
+	 *            A postal code
+	 * @param neighborhood
+	 *            The name of the neighborhood or borough
+	 * @param city
+	 *            The name of the city
+	 * @param county
+	 *            The name of the county or similar administrative area
+	 * @param state
+	 *            The name of the state (not country)
+	 * @param country
+	 *            The name of the country
+	 */
+	public ImmutableGeoLocation(String name, double latitude, double longitude, String streetAndNumber,
+			String zipCode, String neighborhood, String city, String county, String state, String country) {
+		this(AddressDictionary.getDefault(), name, latitude, longitude, streetAndNumber, zipCode, neighborhood, city,
+				county, state, country);
+	}
+
+	private ImmutableGeoLocation(AddressDictionary dictionary, String name, double latitude, double longitude,
+			String streetAndNumber, String zipCode, String neighborhood, String city, String county, String state,
+			String country) {
+		super(name, latitude, longitude, streetAndNumber, dictionary.intern(zipCode), dictionary.intern(neighborhood),
+				dictionary.intern(city), dictionary.intern(county), dictionary.intern(state),
+				dictionary.intern(country));
+	}
+
+	/**
+	 * @param location
+	 *            The location to copy
+	 * @return an immutable copy of <i>location</i> sharing its address components
+	 *         through the default dictionary; <i>location</i> itself if it is
+	 *         immutable already
+	 */
+	public static ImmutableGeoLocation of(GeoLocation location) {
+		return of(location, AddressDictionary.getDefault());
+	}
+
+	/**
+	 * @param location
+	 *            The location to copy
+	 * @param dictionary
+	 *            The dictionary to share the address components through
+	 * @return an immutable copy of <i>location</i>
+	 */
+	public static ImmutableGeoLocation of(GeoLocation location, AddressDictionary dictionary) {
+		if (location instanceof ImmutableGeoLocation && dictionary == AddressDictionary.getDefault()) {
+			return (ImmutableGeoLocation) location;
+		}
+		return new ImmutableGeoLocation(dictionary, location.getName(), location.getLatitude(),
+				location.getLongitude(), location.getStreetAndNumber(), location.getZipCode(),
+				location.getNeighborhood(), location.getCity(), location.getCounty(), location.getState(),
+				location.getCountry());
+	}
+
+	/**
+	 * @return the String representation of {@link GeoLocation#toString()},
+	 *         computed on first use only
+	 */
+	@Override
+	public String toString() {
+		String result = string;
+		if (result == null) {
+			result = super.toString();
+			string = result;
+		}
+		return result;
+	}
+
+	@Override
+	public void setLatitude(double latitude) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setLongitude(double longitude) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setStreetAndNumber(String streetAndNumber) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setZipCode(String zipCode) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setNeighborhood(String neighborhood) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setCity(String city) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setCounty(String county) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setState(String state) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setName(String name) {
+		throw unsupported();
+	}
+
+	@Override
+	public void setCountry(String country) {
+		throw unsupported();
+	}
+
+	private static UnsupportedOperationException unsupported() {
+		return new UnsupportedOperationException("An ImmutableGeoLocation cannot be changed");
+	}
+
+	/**
+	 * Shares the address components of deserialized locations again
+	 */
+	private Object readResolve() {
+		return new ImmutableGeoLocation(getName(), getLatitude(), getLongitude(), getStreetAndNumber(), getZipCode(),
+				getNeighborhood(), getCity(), getCounty(), getState(), getCountry());
+	}
+
+}
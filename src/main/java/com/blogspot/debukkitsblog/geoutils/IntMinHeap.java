@@ -0,0 +1,92 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int values ordered by int keys, backed by primitive
+ * arrays. Decreasing a key is done by pushing the value again; stale entries
+ * have to be skipped by the caller.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class IntMinHeap {
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	IntMinHeap(int capacity) {
+		keys = new int[Math.max(capacity, 16)];
+		values = new int[keys.length];
+	}
+
+	void push(int key, int value) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		// sift up
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (keys[parent] <= key) {
+				break;
+			}
+			keys[i] = keys[parent];
+			values[i] = values[parent];
+			i = parent;
+		}
+		keys[i] = key;
+		values[i] = value;
+	}
+
+	/**
+	 * @return the smallest key; only valid if the heap is not empty
+	 */
+	int peekKey() {
+		return keys[0];
+	}
+
+	/**
+	 * Removes the entry with the smallest key
+	 *
+	 * @return its value; only valid if the heap is not empty
+	 */
+	int poll() {
+		int result = values[0];
+		int key = keys[--size];
+		int value = values[size];
+		// sift down
+		int i = 0;
+		int half = size >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && keys[child + 1] < keys[child]) {
+				child++;
+			}
+			if (key <= keys[child]) {
+				break;
+			}
+			keys[i] = keys[child];
+			values[i] = values[child];
+			i = child;
+		}
+		keys[i] = key;
+		values[i] = value;
+		return result;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	int size() {
+		return size;
+	}
+
+	void clear() {
+		size = 0;
+	}
+
+}
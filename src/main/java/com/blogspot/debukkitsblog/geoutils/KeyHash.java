@@ -0,0 +1,33 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * The 64 bit hash of cache keys shared by the {@link MappedCacheStore} table
+ * and the {@link BloomFilter}
+ *
+ * @author DeBukkIt
+ *
+ */
+final class KeyHash {
+
+	private KeyHash() {
+	}
+
+	/**
+	 * FNV-1a over the chars of <i>key</i>, finished with the MurmurHash3
+	 * finalizer, so all bits depend on every char
+	 */
+	static long hash(String key) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); i++) {
+			hash ^= key.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
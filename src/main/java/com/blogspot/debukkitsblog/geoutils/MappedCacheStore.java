@@ -0,0 +1,804 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Keeps the elements of a GeoCache off the Java heap in memory-mapped files,
+ * for caches of millions of elements. Heap use does not grow with the number
+ * of elements, and opening the store after a clean shutdown does not read any
+ * element.
+ * <p>
+ * Elements are appended in their {@link CacheCodec} encoding to a log,
+ * <i>file</i>.data.<i>generation</i>, mapped in segments of 64 MB. <i>file</i> itself holds an
+ * open-addressing hash table with linear probing, mapping the 64 bit hash of a
+ * key to the position of its latest element in the log. A lookup probes the
+ * table and compares the key in place, so it allocates nothing but the
+ * element it returns. The table is doubled once it is 70% full.
+ * <p>
+ * Stores and deletions append to the log, so replaced and deleted elements
+ * take space until {@link #compact()} is called, which writes the live
+ * elements to the log of the next generation and records it in the table.
+ * No file is renamed while it is mapped, as Windows does not allow that; logs
+ * of other generations are deleted when the store is opened. If the process ends without
+ * {@link #close()}, the table is rebuilt from the log when the store is opened
+ * again; stores not {@link #flush() flushed} before may be lost. Reads run in
+ * parallel, writes are serialized.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class MappedCacheStore implements GeoCacheStore {
+
+	private static final int MAGIC = 0x47434d32;
+	private static final int SEGMENT_SIZE = 1 << 26;
+	private static final int MIN_CAPACITY = 1 << 10;
+	private static final int MAX_CAPACITY = 1 << 26;
+	private static final double MAX_LOAD = 0.7;
+
+	// table header: magic, capacity, size, used slots, log end, open flag, log generation
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_CAPACITY = 4;
+	private static final int HEADER_SIZE_FIELD = 8;
+	private static final int HEADER_USED = 12;
+	private static final int HEADER_LOG_END = 16;
+	private static final int HEADER_OPEN = 24;
+	private static final int HEADER_GENERATION = 28;
+
+	// slot: hash, log position + 1 (0 if empty, -1 if deleted)
+	private static final int SLOT_SIZE = 16;
+	private static final long EMPTY = 0;
+	private static final long DELETED = -1;
+
+	// record: length, expiry, time, key length, kind, key chars, content
+	private static final int RECORD_HEADER_SIZE = 23;
+	private static final int SEGMENT_END = -1;
+
+	private final File tableFile;
+	private int generation;
+	private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private FileChannel tableChannel;
+	private FileChannel logChannel;
+	private MappedByteBuffer table;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private int capacity;
+	private int size;
+	private int used;
+	private long logEnd;
+	private boolean closed;
+
+	/**
+	 * Opens or creates a store sized for about 65,000 elements; it grows as
+	 * needed
+	 *
+	 * @param file The file of the hash table; the log is kept next to it
+	 * @throws IOException if the files cannot be opened or created
+	 */
+	public MappedCacheStore(File file) throws IOException {
+		this(file, 1 << 16);
+	}
+
+	/**
+	 * Opens or creates a store
+	 *
+	 * @param file             The file of the hash table; the log is kept next to
+	 *                         it
+	 * @param expectedElements The number of elements to size a new table for; it
+	 *                         grows as needed
+	 * @throws IOException if the files cannot be opened or created
+	 */
+	public MappedCacheStore(File file, int expectedElements) throws IOException {
+		if (file.isDirectory()) {
+			throw new IllegalArgumentException(file + " is a directory");
+		}
+		this.tableFile = file;
+		tableChannel = new RandomAccessFile(tableFile, "rw").getChannel();
+		boolean clean = false;
+		generation = -1;
+		MappedByteBuffer header = null;
+		if (tableChannel.size() >= HEADER_SIZE) {
+			header = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			if (header.getInt(0) == MAGIC) {
+				generation = header.getInt(HEADER_GENERATION);
+			}
+		}
+		if (generation < 0) {
+			// no table to trust, so take the latest log there is
+			generation = Math.max(0, latestGeneration());
+		}
+		openLog();
+		deleteOtherGenerations();
+		if (header != null) {
+			clean = header.getInt(0) == MAGIC && header.getInt(HEADER_OPEN) == 0;
+			if (clean) {
+				capacity = header.getInt(HEADER_CAPACITY);
+				size = header.getInt(HEADER_SIZE_FIELD);
+				used = header.getInt(HEADER_USED);
+				logEnd = header.getLong(HEADER_LOG_END);
+				table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, tableBytes(capacity));
+			}
+		}
+		if (!clean) {
+			rebuild(tableCapacity(expectedElements));
+		}
+		table.putInt(HEADER_OPEN, 1);
+		writeHeader();
+		table.force();
+	}
+
+	@Override
+	public CacheElement get(String key) throws IOException {
+		lock.readLock().lock();
+		try {
+			ensureOpen();
+			int slot = find(key, KeyHash.hash(key));
+			if (slot < 0) {
+				return null;
+			}
+			long position = table.getLong(slotOffset(slot) + 8) - 1;
+			ByteBuffer segment = segment(position);
+			int offset = (int) (position % SEGMENT_SIZE);
+			if (segment.getLong(offset + 4) < System.currentTimeMillis()) {
+				return null;
+			}
+			return readElement(segment, offset);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void put(String key, CacheElement element, long ttl) throws IOException {
+		byte[] content = encode(element);
+		int kind = CacheCodec.kindOf(element.getContent());
+		long expiresAt = element.getTime() + ttl < element.getTime() ? Long.MAX_VALUE : element.getTime() + ttl;
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			long position = append(key, kind, element.getTime(), expiresAt, content);
+			index(key, KeyHash.hash(key), position);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			int slot = find(key, KeyHash.hash(key));
+			if (slot < 0) {
+				return false;
+			}
+			// logged as well, so a rebuild of the table does not bring it back
+			append(key, CacheCodec.UNSUPPORTED, 0, 0, new byte[0]);
+			table.putLong(slotOffset(slot) + 8, DELETED);
+			size--;
+			return true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Passes every element not expired yet to <i>action</i>, which must not
+	 * write to this store
+	 */
+	@Override
+	public void forEach(BiConsumer<String, CacheElement> action) throws IOException {
+		lock.readLock().lock();
+		try {
+			ensureOpen();
+			long now = System.currentTimeMillis();
+			for (int slot = 0; slot < capacity; slot++) {
+				long position = table.getLong(slotOffset(slot) + 8) - 1;
+				if (position < 0) {
+					continue;
+				}
+				ByteBuffer segment = segment(position);
+				int offset = (int) (position % SEGMENT_SIZE);
+				if (segment.getLong(offset + 4) >= now) {
+					action.accept(readKey(segment, offset), readElement(segment, offset));
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of elements stored, including expired ones not compacted
+	 *         away yet
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of bytes the log takes, including replaced, deleted and
+	 *         expired elements
+	 */
+	public long getLogSize() {
+		lock.readLock().lock();
+		try {
+			return logEnd;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the log without replaced, deleted and expired elements into the
+	 * log of the next generation. Blocks all reads and writes meanwhile.
+	 *
+	 * @throws IOException if the log cannot be rewritten
+	 */
+	@Override
+	public void compact() throws IOException {
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			File compacted = logFile(generation + 1);
+			long now = System.currentTimeMillis();
+			// collected first, the old table is gone once the new one is mapped
+			List<MappedByteBuffer> oldSegments = new ArrayList<>(segments);
+			long[] positions = new long[size];
+			int live = 0;
+			for (int slot = 0; slot < capacity; slot++) {
+				long position = table.getLong(slotOffset(slot) + 8);
+				if (position != EMPTY && position != DELETED) {
+					positions[live++] = position - 1;
+				}
+			}
+
+			// append the live elements to a new log and index them from scratch
+			closeLog();
+			Files.deleteIfExists(compacted.toPath());
+			logChannel = new RandomAccessFile(compacted, "rw").getChannel();
+			logEnd = 0;
+			mapSegment();
+			resetTable(capacity);
+			for (int i = 0; i < live; i++) {
+				long position = positions[i];
+				ByteBuffer segment = oldSegments.get((int) (position / SEGMENT_SIZE));
+				int offset = (int) (position % SEGMENT_SIZE);
+				if (segment.getLong(offset + 4) < now) {
+					continue;
+				}
+				String key = readKey(segment, offset);
+				byte[] content = new byte[contentLength(segment, offset)];
+				segment.get(contentOffset(segment, offset), content);
+				long newPosition = append(key, segment.get(offset + 22), segment.getLong(offset + 12),
+						segment.getLong(offset + 4), content);
+				index(key, KeyHash.hash(key), newPosition);
+			}
+			// the table points at the new log once its generation is forced
+			generation++;
+			force();
+			deleteOtherGenerations();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			force();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Flushes the store and marks it as closed cleanly, so the next open does not
+	 * need to rebuild the table
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (closed) {
+				return;
+			}
+			force();
+			table.putInt(HEADER_OPEN, 0);
+			table.force();
+			closed = true;
+			closeLog();
+			tableChannel.close();
+			table = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the slot <i>key</i> is indexed in, or -(the slot to insert it
+	 *         in)-1 if it is not indexed
+	 */
+	private int find(String key, long hash) {
+		int mask = capacity - 1;
+		int slot = (int) hash & mask;
+		int firstDeleted = -1;
+		while (true) {
+			int offset = slotOffset(slot);
+			long position = table.getLong(offset + 8);
+			if (position == EMPTY) {
+				return -(firstDeleted >= 0 ? firstDeleted : slot) - 1;
+			}
+			if (position == DELETED) {
+				if (firstDeleted < 0) {
+					firstDeleted = slot;
+				}
+			} else if (table.getLong(offset) == hash && keyEquals(position - 1, key)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Points the slot of <i>key</i> at <i>position</i>, growing the table first
+	 * if necessary
+	 */
+	private void index(String key, long hash, long position) throws IOException {
+		int slot = find(key, hash);
+		if (slot >= 0) {
+			table.putLong(slotOffset(slot) + 8, position + 1);
+			return;
+		}
+		slot = -slot - 1;
+		boolean reusesDeleted = table.getLong(slotOffset(slot) + 8) == DELETED;
+		if (!reusesDeleted && used + 1 > capacity * MAX_LOAD) {
+			// grow, or just drop the deleted slots if there are many
+			resize(size + 1 > capacity * MAX_LOAD / 2 ? capacity * 2 : capacity);
+			slot = -find(key, hash) - 1;
+			reusesDeleted = false;
+		}
+		int offset = slotOffset(slot);
+		table.putLong(offset, hash);
+		table.putLong(offset + 8, position + 1);
+		size++;
+		if (!reusesDeleted) {
+			used++;
+		}
+	}
+
+	private void resize(int newCapacity) throws IOException {
+		if (newCapacity > MAX_CAPACITY) {
+			throw new IOException("MappedCacheStore is full");
+		}
+		long[] hashes = new long[size];
+		long[] positions = new long[size];
+		int live = 0;
+		for (int slot = 0; slot < capacity; slot++) {
+			int offset = slotOffset(slot);
+			long position = table.getLong(offset + 8);
+			if (position != EMPTY && position != DELETED) {
+				hashes[live] = table.getLong(offset);
+				positions[live++] = position;
+			}
+		}
+		resetTable(newCapacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < live; i++) {
+			int slot = (int) hashes[i] & mask;
+			while (table.getLong(slotOffset(slot) + 8) != EMPTY) {
+				slot = (slot + 1) & mask;
+			}
+			table.putLong(slotOffset(slot), hashes[i]);
+			table.putLong(slotOffset(slot) + 8, positions[i]);
+		}
+		size = live;
+		used = live;
+	}
+
+	/**
+	 * Replaces the table with an empty one of <i>newCapacity</i> slots. The old
+	 * mapping must not be used afterwards.
+	 */
+	private void resetTable(int newCapacity) throws IOException {
+		// cut off the old slots, so the file grows with zeros again
+		tableChannel.truncate(HEADER_SIZE);
+		table = tableChannel.map(FileChannel.MapMode.READ_WRITE, 0, tableBytes(newCapacity));
+		capacity = newCapacity;
+		size = 0;
+		used = 0;
+	}
+
+	/**
+	 * Indexes the log from scratch, e.g. after a crash
+	 */
+	private void rebuild(int initialCapacity) throws IOException {
+		resetTable(initialCapacity);
+		table.putInt(0, MAGIC);
+		table.putInt(HEADER_OPEN, 1);
+		logEnd = 0;
+		for (int s = 0; s < segments.size(); s++) {
+			MappedByteBuffer segment = segments.get(s);
+			int offset = 0;
+			while (offset + RECORD_HEADER_SIZE <= SEGMENT_SIZE) {
+				int length = segment.getInt(offset);
+				if (length == SEGMENT_END) {
+					break;
+				}
+				if (length < RECORD_HEADER_SIZE || offset + length > SEGMENT_SIZE) {
+					// the end of the log, or a record cut off by a crash
+					return;
+				}
+				long position = (long) s * SEGMENT_SIZE + offset;
+				String key = readKey(segment, offset);
+				if (segment.get(offset + 22) == CacheCodec.UNSUPPORTED) {
+					int slot = find(key, KeyHash.hash(key));
+					if (slot >= 0) {
+						table.putLong(slotOffset(slot) + 8, DELETED);
+						size--;
+					}
+				} else {
+					index(key, KeyHash.hash(key), position);
+				}
+				offset += length;
+				logEnd = position + length;
+			}
+			logEnd = (long) (s + 1) * SEGMENT_SIZE;
+		}
+	}
+
+	/**
+	 * Appends a record to the log, starting a new segment if it does not fit
+	 * into the current one
+	 *
+	 * @return its position
+	 */
+	private long append(String key, int kind, long time, long expiresAt, byte[] content) throws IOException {
+		int length = RECORD_HEADER_SIZE + key.length() * 2 + content.length;
+		if (length > SEGMENT_SIZE || key.length() > Short.MAX_VALUE) {
+			throw new IOException("Element too large for a MappedCacheStore: " + key);
+		}
+		int offset = (int) (logEnd % SEGMENT_SIZE);
+		if (offset + length > SEGMENT_SIZE) {
+			if (offset + 4 <= SEGMENT_SIZE) {
+				segment(logEnd).putInt(offset, SEGMENT_END);
+			}
+			logEnd += SEGMENT_SIZE - offset;
+			offset = 0;
+		}
+		while (logEnd / SEGMENT_SIZE >= segments.size()) {
+			mapSegment();
+		}
+		ByteBuffer segment = segment(logEnd);
+		segment.putLong(offset + 4, expiresAt);
+		segment.putLong(offset + 12, time);
+		segment.putShort(offset + 20, (short) key.length());
+		segment.put(offset + 22, (byte) kind);
+		for (int i = 0; i < key.length(); i++) {
+			segment.putChar(offset + RECORD_HEADER_SIZE + i * 2, key.charAt(i));
+		}
+		segment.put(offset + RECORD_HEADER_SIZE + key.length() * 2, content);
+		// the length last, so a crash cannot leave a readable partial record
+		segment.putInt(offset, length);
+		long position = logEnd;
+		logEnd += length;
+		return position;
+	}
+
+	private boolean keyEquals(long position, String key) {
+		ByteBuffer segment = segment(position);
+		int offset = (int) (position % SEGMENT_SIZE);
+		if (segment.getShort(offset + 20) != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (segment.getChar(offset + RECORD_HEADER_SIZE + i * 2) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String readKey(ByteBuffer segment, int offset) {
+		char[] key = new char[segment.getShort(offset + 20)];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = segment.getChar(offset + RECORD_HEADER_SIZE + i * 2);
+		}
+		return new String(key);
+	}
+
+	private static CacheElement readElement(ByteBuffer segment, int offset) throws IOException {
+		BufferInput in = new BufferInput(segment, contentOffset(segment, offset));
+		return new CacheElement(CacheCodec.readContent(in, segment.get(offset + 22)), segment.getLong(offset + 12));
+	}
+
+	private static int contentOffset(ByteBuffer segment, int offset) {
+		return offset + RECORD_HEADER_SIZE + segment.getShort(offset + 20) * 2;
+	}
+
+	private static int contentLength(ByteBuffer segment, int offset) {
+		return segment.getInt(offset) - (contentOffset(segment, offset) - offset);
+	}
+
+	private static byte[] encode(CacheElement element) throws IOException {
+		int kind = CacheCodec.kindOf(element.getContent());
+		if (kind == CacheCodec.UNSUPPORTED) {
+			throw new IOException("Cannot store " + element.getContent().getClass().getName() + " off-heap");
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+		CacheCodec.writeContent(new DataOutputStream(buffer), kind, element.getContent());
+		return buffer.toByteArray();
+	}
+
+	private ByteBuffer segment(long position) {
+		return segments.get((int) (position / SEGMENT_SIZE));
+	}
+
+	private static int slotOffset(int slot) {
+		return HEADER_SIZE + slot * SLOT_SIZE;
+	}
+
+	private static long tableBytes(int capacity) {
+		return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+	}
+
+	private static int tableCapacity(int expectedElements) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < MAX_CAPACITY && capacity * MAX_LOAD < expectedElements) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private File logFile(int logGeneration) {
+		return new File(tableFile.getPath() + ".data." + logGeneration);
+	}
+
+	/**
+	 * @return the highest generation of a log next to the table, -1 if there is
+	 *         none
+	 */
+	private int latestGeneration() {
+		int latest = -1;
+		for (File file : logFiles()) {
+			latest = Math.max(latest, generationOf(file));
+		}
+		return latest;
+	}
+
+	/**
+	 * Deletes the logs of all other generations, e.g. the one replaced by
+	 * {@link #compact()} or a new one left behind by a compaction that did not
+	 * finish. A log that cannot be deleted yet, e.g. because it is still mapped
+	 * on Windows, is deleted by a later call.
+	 */
+	private void deleteOtherGenerations() {
+		for (File file : logFiles()) {
+			if (generationOf(file) != generation) {
+				try {
+					Files.deleteIfExists(file.toPath());
+				} catch (IOException e) {
+					// still mapped, retried on the next open
+				}
+			}
+		}
+	}
+
+	private File[] logFiles() {
+		File directory = tableFile.getAbsoluteFile().getParentFile();
+		String prefix = tableFile.getName() + ".data.";
+		File[] files = directory == null ? null
+				: directory.listFiles((dir, name) -> name.startsWith(prefix) && generationOf(name, prefix) >= 0);
+		return files == null ? new File[0] : files;
+	}
+
+	private int generationOf(File file) {
+		return generationOf(file.getName(), tableFile.getName() + ".data.");
+	}
+
+	/**
+	 * @return the generation in the name of a log, -1 if <i>name</i> is not the
+	 *         name of a log
+	 */
+	private static int generationOf(String name, String prefix) {
+		try {
+			return Integer.parseInt(name.substring(prefix.length()));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private void openLog() throws IOException {
+		logChannel = new RandomAccessFile(logFile(generation), "rw").getChannel();
+		segments.clear();
+		long segmentCount = Math.max(1, (logChannel.size() + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+		for (long s = 0; s < segmentCount; s++) {
+			mapSegment();
+		}
+	}
+
+	private void mapSegment() throws IOException {
+		segments.add(logChannel.map(FileChannel.MapMode.READ_WRITE, (long) segments.size() * SEGMENT_SIZE,
+				SEGMENT_SIZE));
+	}
+
+	private void closeLog() throws IOException {
+		segments.clear();
+		logChannel.close();
+	}
+
+	private void writeHeader() {
+		table.putInt(0, MAGIC);
+		table.putInt(HEADER_CAPACITY, capacity);
+		table.putInt(HEADER_SIZE_FIELD, size);
+		table.putInt(HEADER_USED, used);
+		table.putLong(HEADER_LOG_END, logEnd);
+		table.putInt(HEADER_GENERATION, generation);
+	}
+
+	private void force() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+		writeHeader();
+		table.force();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("MappedCacheStore is closed");
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MappedCacheStore[" + tableFile + "]";
+	}
+
+	/**
+	 * Reads the content of a record straight from the mapped log
+	 */
+	private static final class BufferInput implements DataInput {
+
+		private final ByteBuffer buffer;
+		private int position;
+
+		private BufferInput(ByteBuffer buffer, int position) {
+			this.buffer = buffer;
+			this.position = position;
+		}
+
+		@Override
+		public void readFully(byte[] b) {
+			readFully(b, 0, b.length);
+		}
+
+		@Override
+		public void readFully(byte[] b, int off, int len) {
+			buffer.get(position, b, off, len);
+			position += len;
+		}
+
+		@Override
+		public int skipBytes(int n) {
+			position += n;
+			return n;
+		}
+
+		@Override
+		public boolean readBoolean() {
+			return readByte() != 0;
+		}
+
+		@Override
+		public byte readByte() {
+			return buffer.get(position++);
+		}
+
+		@Override
+		public int readUnsignedByte() {
+			return readByte() & 0xff;
+		}
+
+		@Override
+		public short readShort() {
+			short value = buffer.getShort(position);
+			position += 2;
+			return value;
+		}
+
+		@Override
+		public int readUnsignedShort() {
+			return readShort() & 0xffff;
+		}
+
+		@Override
+		public char readChar() {
+			return (char) readShort();
+		}
+
+		@Override
+		public int readInt() {
+			int value = buffer.getInt(position);
+			position += 4;
+			return value;
+		}
+
+		@Override
+		public long readLong() {
+			long value = buffer.getLong(position);
+			position += 8;
+			return value;
+		}
+
+		@Override
+		public float readFloat() {
+			return Float.intBitsToFloat(readInt());
+		}
+
+		@Override
+		public double readDouble() {
+			return Double.longBitsToDouble(readLong());
+		}
+
+		/**
+		 * Reads bytes as characters up to the next line terminator, as
+		 * DataInputStream does
+		 */
+		@Override
+		public String readLine() {
+			int limit = buffer.limit();
+			if (position >= limit) {
+				return null;
+			}
+			StringBuilder line = new StringBuilder();
+			while (position < limit) {
+				char c = (char) (buffer.get(position++) & 0xff);
+				if (c == '\n') {
+					break;
+				}
+				if (c == '\r') {
+					if (position < limit && buffer.get(position) == '\n') {
+						position++;
+					}
+					break;
+				}
+				line.append(c);
+			}
+			return line.toString();
+		}
+
+		@Override
+		public String readUTF() throws IOException {
+			try {
+				return DataInputStream.readUTF(this);
+			} catch (IndexOutOfBoundsException e) {
+				throw new EOFException("Corrupt record in MappedCacheStore");
+			}
+		}
+	}
+
+}
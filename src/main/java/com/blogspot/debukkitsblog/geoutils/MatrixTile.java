@@ -0,0 +1,75 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * A rectangular part of a duration table: the durations from a range of
+ * sources to a range of destinations, as calculated by a single request
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class MatrixTile {
+
+	private final int sourceOffset;
+	private final int destinationOffset;
+	private final float[][] durations;
+
+	MatrixTile(int sourceOffset, int destinationOffset, float[][] durations) {
+		this.sourceOffset = sourceOffset;
+		this.destinationOffset = destinationOffset;
+		this.durations = durations;
+	}
+
+	/**
+	 * @return the index of the first source of this tile in the whole table
+	 */
+	public int getSourceOffset() {
+		return sourceOffset;
+	}
+
+	/**
+	 * @return the index of the first destination of this tile in the whole table
+	 */
+	public int getDestinationOffset() {
+		return destinationOffset;
+	}
+
+	/**
+	 * @return the number of sources of this tile
+	 */
+	public int getSourceCount() {
+		return durations.length;
+	}
+
+	/**
+	 * @return the number of destinations of this tile
+	 */
+	public int getDestinationCount() {
+		return durations.length == 0 ? 0 : durations[0].length;
+	}
+
+	/**
+	 * @param source      The index of the source within this tile
+	 * @param destination The index of the destination within this tile
+	 * @return the duration in seconds, {@link Float#POSITIVE_INFINITY} if there is
+	 *         no route
+	 */
+	public float getDuration(int source, int destination) {
+		return durations[source][destination];
+	}
+
+	/**
+	 * @return the durations of this tile; element [i][j] is the duration from
+	 *         source {@link #getSourceOffset()} + i to destination
+	 *         {@link #getDestinationOffset()} + j
+	 */
+	public float[][] getDurations() {
+		return durations;
+	}
+
+	@Override
+	public String toString() {
+		return "MatrixTile[sources " + sourceOffset + "+" + getSourceCount() + ", destinations "
+				+ destinationOffset + "+" + getDestinationCount() + "]";
+	}
+
+}
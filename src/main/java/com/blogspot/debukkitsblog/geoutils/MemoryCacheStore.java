@@ -0,0 +1,95 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Keeps the elements of a GeoCache in memory only, e.g. for tests, short-lived
+ * processes or as the backing store of a {@link RemoteCacheServer}. Elements
+ * are dropped once their time to live has passed: on reads of their key, and
+ * in a sweep over all elements every few thousand stores.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class MemoryCacheStore implements GeoCacheStore {
+
+	private static final int PUTS_PER_SWEEP = 4096;
+
+	private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+	private final AtomicInteger putsSinceSweep = new AtomicInteger();
+
+	@Override
+	public CacheElement get(String key) {
+		Slot slot = slots.get(key);
+		if (slot == null) {
+			return null;
+		}
+		if (slot.expiresAt < System.currentTimeMillis()) {
+			slots.remove(key, slot);
+			return null;
+		}
+		return slot.element;
+	}
+
+	@Override
+	public void put(String key, CacheElement element, long ttl) {
+		slots.put(key, new Slot(element, expiresAt(element, ttl)));
+		if (putsSinceSweep.incrementAndGet() >= PUTS_PER_SWEEP) {
+			putsSinceSweep.set(0);
+			purgeExpired();
+		}
+	}
+
+	@Override
+	public boolean delete(String key) {
+		return slots.remove(key) != null;
+	}
+
+	@Override
+	public void forEach(BiConsumer<String, CacheElement> action) {
+		long now = System.currentTimeMillis();
+		slots.forEach((key, slot) -> {
+			if (slot.expiresAt >= now) {
+				action.accept(key, slot.element);
+			}
+		});
+	}
+
+	/**
+	 * @return the number of elements stored, including expired ones not dropped
+	 *         yet
+	 */
+	public int size() {
+		return slots.size();
+	}
+
+	/**
+	 * Drops all elements whose time to live has passed
+	 */
+	public void purgeExpired() {
+		long now = System.currentTimeMillis();
+		slots.values().removeIf(slot -> slot.expiresAt < now);
+	}
+
+	private static long expiresAt(CacheElement element, long ttl) {
+		long expiresAt = element.getTime() + ttl;
+		// saturate, e.g. for a ttl of Long.MAX_VALUE
+		return expiresAt < element.getTime() ? Long.MAX_VALUE : expiresAt;
+	}
+
+	private static final class Slot {
+		private final CacheElement element;
+		private final long expiresAt;
+
+		private Slot(CacheElement element, long expiresAt) {
+			this.element = element;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps all measurements in memory using lock-free counters and latency
+ * histograms. The GeoCoder, every GeoRouter and every GeoCache report to
+ * {@link #getDefault()} unless told otherwise; {@link #scrape()} renders
+ * everything in the Prometheus text format.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class MetricsRegistry implements GeoMetrics {
+
+	private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+	private static final String[] SCRAPED_QUANTILES = { "0.5", "0.9", "0.99", "0.999" };
+
+	private final Map<String, ProviderMetrics> providers = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> fallbacks = new ConcurrentHashMap<>();
+	private final Map<String, CacheMetrics> caches = new ConcurrentHashMap<>();
+	private final Map<String, LongAdder> cacheErrors = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the registry used by default
+	 */
+	public static MetricsRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	@Override
+	public void recordRequest(String provider, long nanos, boolean success) {
+		ProviderMetrics metrics = provider(provider);
+		metrics.requests.increment();
+		if (!success) {
+			metrics.errors.increment();
+		}
+		metrics.latency.record(nanos);
+	}
+
+	@Override
+	public void recordFallback(String fromProvider, String toProvider) {
+		fallbacks.computeIfAbsent(fromProvider + "->" + toProvider, k -> new LongAdder()).increment();
+	}
+
+	@Override
+	public void recordBytesParsed(String provider, long bytes) {
+		provider(provider).bytes.add(bytes);
+	}
+
+	@Override
+	public void recordCacheHit(String kind) {
+		cache(kind).hits.increment();
+	}
+
+	@Override
+	public void recordCacheMiss(String kind) {
+		cache(kind).misses.increment();
+	}
+
+	@Override
+	public void recordCacheExpiry(String kind) {
+		cache(kind).expiries.increment();
+	}
+
+	@Override
+	public void recordCacheError(String operation) {
+		LongAdder count = cacheErrors.get(operation);
+		(count != null ? count : cacheErrors.computeIfAbsent(operation, k -> new LongAdder())).increment();
+	}
+
+	public long getRequestCount(String provider) {
+		ProviderMetrics metrics = providers.get(provider);
+		return metrics == null ? 0 : metrics.requests.sum();
+	}
+
+	public long getErrorCount(String provider) {
+		ProviderMetrics metrics = providers.get(provider);
+		return metrics == null ? 0 : metrics.errors.sum();
+	}
+
+	public long getBytesParsed(String provider) {
+		ProviderMetrics metrics = providers.get(provider);
+		return metrics == null ? 0 : metrics.bytes.sum();
+	}
+
+	/**
+	 * @param provider The provider
+	 * @return the latencies of all requests to <i>provider</i>
+	 */
+	public LatencyHistogram getLatency(String provider) {
+		return provider(provider).latency;
+	}
+
+	public long getFallbackCount(String fromProvider, String toProvider) {
+		LongAdder count = fallbacks.get(fromProvider + "->" + toProvider);
+		return count == null ? 0 : count.sum();
+	}
+
+	public long getCacheHitCount(String kind) {
+		CacheMetrics metrics = caches.get(kind);
+		return metrics == null ? 0 : metrics.hits.sum();
+	}
+
+	public long getCacheMissCount(String kind) {
+		CacheMetrics metrics = caches.get(kind);
+		return metrics == null ? 0 : metrics.misses.sum();
+	}
+
+	public long getCacheExpiryCount(String kind) {
+		CacheMetrics metrics = caches.get(kind);
+		return metrics == null ? 0 : metrics.expiries.sum();
+	}
+
+	public long getCacheErrorCount(String operation) {
+		LongAdder count = cacheErrors.get(operation);
+		return count == null ? 0 : count.sum();
+	}
+
+	/**
+	 * @param kind The kind of element, "position" or "route"
+	 * @return the share of cache reads that found a valid element, 0 if there
+	 *         were none
+	 */
+	public double getCacheHitRate(String kind) {
+		long hits = getCacheHitCount(kind);
+		long reads = hits + getCacheMissCount(kind) + getCacheExpiryCount(kind);
+		return reads == 0 ? 0 : (double) hits / reads;
+	}
+
+	/**
+	 * Forgets all measurements
+	 */
+	public void reset() {
+		providers.clear();
+		fallbacks.clear();
+		caches.clear();
+		cacheErrors.clear();
+	}
+
+	/**
+	 * Renders all measurements in the Prometheus text exposition format, sorted by
+	 * provider and cache kind. Latencies are given in seconds.
+	 *
+	 * @return the measurements, one per line
+	 */
+	public String scrape() {
+		StringBuilder out = new StringBuilder();
+		for (Map.Entry<String, ProviderMetrics> entry : new TreeMap<>(providers).entrySet()) {
+			String label = "{provider=\"" + entry.getKey() + "\"";
+			ProviderMetrics metrics = entry.getValue();
+			line(out, "geoutils_requests_total", label + "}", metrics.requests.sum());
+			line(out, "geoutils_request_errors_total", label + "}", metrics.errors.sum());
+			line(out, "geoutils_bytes_parsed_total", label + "}", metrics.bytes.sum());
+			for (String quantile : SCRAPED_QUANTILES) {
+				line(out, "geoutils_request_latency_seconds", label + ",quantile=\"" + quantile + "\"}",
+						metrics.latency.getValueAtPercentile(Double.parseDouble(quantile) * 100) / 1e6);
+			}
+			line(out, "geoutils_request_latency_seconds_count", label + "}", metrics.latency.getCount());
+			line(out, "geoutils_request_latency_seconds_max", label + "}", metrics.latency.getMax() / 1e6);
+		}
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(fallbacks).entrySet()) {
+			String[] transition = entry.getKey().split("->", 2);
+			line(out, "geoutils_fallbacks_total", "{from=\"" + transition[0] + "\",to=\"" + transition[1] + "\"}",
+					entry.getValue().sum());
+		}
+		for (Map.Entry<String, CacheMetrics> entry : new TreeMap<>(caches).entrySet()) {
+			String label = "{kind=\"" + entry.getKey() + "\"}";
+			line(out, "geoutils_cache_hits_total", label, entry.getValue().hits.sum());
+			line(out, "geoutils_cache_misses_total", label, entry.getValue().misses.sum());
+			line(out, "geoutils_cache_expiries_total", label, entry.getValue().expiries.sum());
+		}
+		for (Map.Entry<String, LongAdder> entry : new TreeMap<>(cacheErrors).entrySet()) {
+			line(out, "geoutils_cache_errors_total", "{operation=\"" + entry.getKey() + "\"}", entry.getValue().sum());
+		}
+		return out.toString();
+	}
+
+	private static void line(StringBuilder out, String name, String labels, Number value) {
+		out.append(name).append(labels).append(' ').append(value).append('\n');
+	}
+
+	private ProviderMetrics provider(String provider) {
+		ProviderMetrics metrics = providers.get(provider);
+		return metrics != null ? metrics : providers.computeIfAbsent(provider, k -> new ProviderMetrics());
+	}
+
+	private CacheMetrics cache(String kind) {
+		CacheMetrics metrics = caches.get(kind);
+		return metrics != null ? metrics : caches.computeIfAbsent(kind, k -> new CacheMetrics());
+	}
+
+	@Override
+	public String toString() {
+		return scrape();
+	}
+
+	private static final class ProviderMetrics {
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder bytes = new LongAdder();
+		private final LatencyHistogram latency = new LatencyHistogram();
+	}
+
+	private static final class CacheMetrics {
+		private final LongAdder hits = new LongAdder();
+		private final LongAdder misses = new LongAdder();
+		private final LongAdder expiries = new LongAdder();
+	}
+
+}
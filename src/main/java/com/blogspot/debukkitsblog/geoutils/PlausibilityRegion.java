@@ -0,0 +1,498 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The area of the world in which results of the {@link GeoCoder} are
+ * plausible, e.g. the service area of a deployment, given by one or more
+ * polygons with holes. Longitudes and latitudes are treated as planar
+ * coordinates, as in GeoJSON.
+ * <p>
+ * The bounding box of the region is divided into a grid, and each cell knows
+ * whether a reference point near its center lies inside and which edges cross
+ * it. Locations in cells no edge crosses are decided by a single lookup; in the
+ * others, only the edges between the reference point and the location are
+ * counted. Detailed borders with many thousand vertices are tested about as
+ * fast as a box.
+ * <p>
+ * Locations on the border are decided as by casting a ray eastwards, counting
+ * vertices at the latitude of the location as south of it and edges at its
+ * longitude as west of it: they are treated as if moved a tiny bit east and an
+ * even tinier bit north.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class PlausibilityRegion {
+
+	private static final int MAX_GRID_SIZE = 1024;
+
+	// edges from (x1, y1) to (x2, y2), x being the longitude and y the latitude
+	private final double[] x1;
+	private final double[] y1;
+	private final double[] x2;
+	private final double[] y2;
+
+	private final double south;
+	private final double west;
+	private final double north;
+	private final double east;
+
+	private final int gridSize;
+	private final double cellWidth;
+	private final double cellHeight;
+	// the reference point of a cell lies on no edge: its latitude is that of
+	// the row, which passes through no vertex, its longitude that of the cell
+	private final double[] referenceLatitudes;
+	private final double[] referenceLongitudes;
+	private final boolean[] referenceInside;
+	// the edges crossing cell i are cellEdges[cellStarts[i]] to
+	// cellEdges[cellStarts[i + 1] - 1]
+	private final int[] cellStarts;
+	private final int[] cellEdges;
+
+	private PlausibilityRegion(double[] x1, double[] y1, double[] x2, double[] y2) {
+		if (x1.length < 3) {
+			throw new IllegalArgumentException("a region needs at least one polygon");
+		}
+		this.x1 = x1;
+		this.y1 = y1;
+		this.x2 = x2;
+		this.y2 = y2;
+		int edges = x1.length;
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int e = 0; e < edges; e++) {
+			minX = Math.min(minX, Math.min(x1[e], x2[e]));
+			maxX = Math.max(maxX, Math.max(x1[e], x2[e]));
+			minY = Math.min(minY, Math.min(y1[e], y2[e]));
+			maxY = Math.max(maxY, Math.max(y1[e], y2[e]));
+		}
+		if (!(minX < maxX && minY < maxY)) {
+			throw new IllegalArgumentException("a region must have an area");
+		}
+		south = minY;
+		west = minX;
+		north = maxY;
+		east = maxX;
+
+		// a few edges per cell on average
+		gridSize = (int) Math.min(MAX_GRID_SIZE, Math.ceil(2 * Math.sqrt(edges)));
+		cellWidth = (east - west) / gridSize;
+		cellHeight = (north - south) / gridSize;
+
+		// register every edge in the cells it passes through, counting first
+		cellStarts = new int[gridSize * gridSize + 1];
+		for (int e = 0; e < edges; e++) {
+			rasterize(e, null);
+		}
+		for (int i = 0; i < gridSize * gridSize; i++) {
+			cellStarts[i + 1] += cellStarts[i];
+		}
+		cellEdges = new int[cellStarts[gridSize * gridSize]];
+		int[] fill = Arrays.copyOf(cellStarts, gridSize * gridSize);
+		for (int e = 0; e < edges; e++) {
+			rasterize(e, fill);
+		}
+
+		referenceLatitudes = new double[gridSize];
+		referenceLongitudes = new double[gridSize * gridSize];
+		referenceInside = new boolean[gridSize * gridSize];
+		classifyReferences();
+	}
+
+	/**
+	 * @param south The southern latitude
+	 * @param west  The western longitude
+	 * @param north The northern latitude
+	 * @param east  The eastern longitude
+	 * @return the region inside the box
+	 */
+	public static PlausibilityRegion ofBoundingBox(double south, double west, double north, double east) {
+		return new PlausibilityRegion(new double[] { west, east, east, west },
+				new double[] { south, south, north, north }, new double[] { east, east, west, west },
+				new double[] { south, north, north, south });
+	}
+
+	/**
+	 * @param ring The vertices of a polygon, closed or not
+	 * @return the region inside the polygon
+	 */
+	public static PlausibilityRegion ofPolygon(List<GeoLocation> ring) {
+		double[][] coordinates = new double[2][ring.size()];
+		for (int i = 0; i < ring.size(); i++) {
+			coordinates[0][i] = ring.get(i).getLongitude();
+			coordinates[1][i] = ring.get(i).getLatitude();
+		}
+		Edges edges = new Edges();
+		edges.addRing(coordinates[0], coordinates[1], ring.size());
+		return edges.toRegion();
+	}
+
+	/**
+	 * @param geoJson A GeoJSON FeatureCollection, Feature, GeometryCollection,
+	 *                Polygon or MultiPolygon; other geometries are ignored
+	 * @return the region inside all polygons found
+	 * @throws IllegalArgumentException if <i>geoJson</i> is malformed or contains
+	 *                                  no polygon
+	 */
+	public static PlausibilityRegion fromGeoJson(String geoJson) {
+		Edges edges = new Edges();
+		try {
+			edges.addGeoJson(new JSONObject(geoJson));
+		} catch (JSONException e) {
+			throw new IllegalArgumentException("Invalid GeoJSON: " + e.getMessage(), e);
+		}
+		return edges.toRegion();
+	}
+
+	/**
+	 * @param file A GeoJSON file, see {@link #fromGeoJson(String)}
+	 * @return the region inside all polygons found
+	 * @throws IOException if the file could not be read
+	 */
+	public static PlausibilityRegion fromGeoJson(File file) throws IOException {
+		return fromGeoJson(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param location The location to test
+	 * @return whether <i>location</i> lies inside the region; false if it is null
+	 */
+	public boolean contains(GeoLocation location) {
+		return location != null && contains(location.getLatitude(), location.getLongitude());
+	}
+
+	/**
+	 * @param latitude  The latitude
+	 * @param longitude The longitude
+	 * @return whether the location lies inside the region
+	 */
+	public boolean contains(double latitude, double longitude) {
+		if (!(latitude >= south && latitude <= north && longitude >= west && longitude <= east)) {
+			return false;
+		}
+		int column = Math.min(gridSize - 1, (int) ((longitude - west) / cellWidth));
+		int row = Math.min(gridSize - 1, (int) ((latitude - south) / cellHeight));
+		int cell = row * gridSize + column;
+		boolean inside = referenceInside[cell];
+		int end = cellStarts[cell + 1];
+		if (cellStarts[cell] == end) {
+			return inside;
+		}
+		// every edge between the reference point and the location crosses this cell
+		double rx = referenceLongitudes[cell];
+		double ry = referenceLatitudes[row];
+		for (int i = cellStarts[cell]; i < end; i++) {
+			int e = cellEdges[i];
+			if (crosses(rx, ry, longitude, latitude, x1[e], y1[e], x2[e], y2[e])) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	public double getSouth() {
+		return south;
+	}
+
+	public double getWest() {
+		return west;
+	}
+
+	public double getNorth() {
+		return north;
+	}
+
+	public double getEast() {
+		return east;
+	}
+
+	/**
+	 * Visits the cells an edge passes through by stepping from cell border to
+	 * cell border; counts them in {@link #cellStarts} if <i>fill</i> is null, else
+	 * writes the edge to them
+	 */
+	private void rasterize(int edge, int[] fill) {
+		double limit = Math.nextDown((double) gridSize);
+		double fromX = Math.min((x1[edge] - west) / cellWidth, limit);
+		double fromY = Math.min((y1[edge] - south) / cellHeight, limit);
+		double toX = Math.min((x2[edge] - west) / cellWidth, limit);
+		double toY = Math.min((y2[edge] - south) / cellHeight, limit);
+		int x = (int) fromX;
+		int y = (int) fromY;
+		int lastX = (int) toX;
+		int lastY = (int) toY;
+		double dx = toX - fromX;
+		double dy = toY - fromY;
+		double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dx);
+		double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dy);
+		double nextX = dx == 0 ? Double.POSITIVE_INFINITY : (dx > 0 ? x + 1 - fromX : fromX - x) * deltaX;
+		double nextY = dy == 0 ? Double.POSITIVE_INFINITY : (dy > 0 ? y + 1 - fromY : fromY - y) * deltaY;
+		while (true) {
+			int cell = y * gridSize + x;
+			if (fill == null) {
+				cellStarts[cell + 1]++;
+			} else {
+				cellEdges[fill[cell]++] = edge;
+			}
+			if (x == lastX && y == lastY) {
+				return;
+			}
+			// an edge starting on a cell border leaves its first cell at once, so
+			// stop stepping in a direction once its last cell is reached
+			if (y == lastY || (x != lastX && nextX < nextY)) {
+				nextX += deltaX;
+				x += dx > 0 ? 1 : -1;
+			} else {
+				nextY += deltaY;
+				y += dy > 0 ? 1 : -1;
+			}
+		}
+	}
+
+	/**
+	 * Chooses the reference points and decides for each whether it lies inside,
+	 * row by row: the edges crossing the line through the reference points of a
+	 * row divide it into stretches alternately outside and inside
+	 */
+	private void classifyReferences() {
+		int edges = x1.length;
+		// the edges spanning a latitude within each row
+		int[] rowStarts = new int[gridSize + 1];
+		for (int e = 0; e < edges; e++) {
+			for (int r = firstRow(e); r <= lastRow(e); r++) {
+				rowStarts[r + 1]++;
+			}
+		}
+		for (int r = 0; r < gridSize; r++) {
+			rowStarts[r + 1] += rowStarts[r];
+		}
+		int[] rowEdges = new int[rowStarts[gridSize]];
+		int[] fill = Arrays.copyOf(rowStarts, gridSize);
+		for (int e = 0; e < edges; e++) {
+			for (int r = firstRow(e); r <= lastRow(e); r++) {
+				rowEdges[fill[r]++] = e;
+			}
+		}
+
+		double[] crossings = new double[edges + 1];
+		for (int r = 0; r < gridSize; r++) {
+			double ry = referenceLatitude(r, rowEdges, rowStarts[r], rowStarts[r + 1]);
+			referenceLatitudes[r] = ry;
+			int count = 0;
+			for (int i = rowStarts[r]; i < rowStarts[r + 1]; i++) {
+				int e = rowEdges[i];
+				// no vertex lies on the line, so every edge spanning it crosses it
+				if ((y1[e] > ry) != (y2[e] > ry)) {
+					crossings[count++] = x1[e] + (ry - y1[e]) * (x2[e] - x1[e]) / (y2[e] - y1[e]);
+				}
+			}
+			Arrays.sort(crossings, 0, count);
+			crossings[count] = Double.POSITIVE_INFINITY;
+			int passed = 0;
+			for (int column = 0; column < gridSize; column++) {
+				double rx = west + (column + 0.5) * cellWidth;
+				while (crossings[passed] < rx) {
+					passed++;
+				}
+				if (crossings[passed] == rx) {
+					// move off the edge, halfway to the next edge or the cell border
+					int next = passed;
+					while (crossings[next] == rx) {
+						next++;
+					}
+					rx = (rx + Math.min(crossings[next], west + (column + 1) * cellWidth)) / 2;
+					passed = next;
+				}
+				referenceLongitudes[r * gridSize + column] = rx;
+				referenceInside[r * gridSize + column] = (passed & 1) == 1;
+			}
+		}
+	}
+
+	/**
+	 * @return a latitude within the row, its center if possible, at which none
+	 *         of the edges spanning the row has a vertex
+	 */
+	private double referenceLatitude(int row, int[] rowEdges, int start, int end) {
+		double bottom = south + row * cellHeight;
+		// try the center first, then spots unlikely to be hit by round coordinates
+		double fraction = 0.5;
+		for (int attempt = 1;; attempt++) {
+			double latitude = bottom + fraction * cellHeight;
+			boolean onVertex = false;
+			for (int i = start; i < end && !onVertex; i++) {
+				int e = rowEdges[i];
+				onVertex = y1[e] == latitude || y2[e] == latitude;
+			}
+			if (!onVertex) {
+				return latitude;
+			}
+			fraction = (0.5 + attempt * 0.6180339887498949) % 1;
+		}
+	}
+
+	private int firstRow(int edge) {
+		double low = Math.min(y1[edge], y2[edge]);
+		return Math.min(gridSize - 1, (int) ((low - south) / cellHeight));
+	}
+
+	private int lastRow(int edge) {
+		double high = Math.max(y1[edge], y2[edge]);
+		return Math.min(gridSize - 1, (int) ((high - south) / cellHeight));
+	}
+
+	/**
+	 * @return whether the segment from the reference point r to the location p
+	 *         crosses the edge from c to d; r lies on no edge, and p is moved as
+	 *         described for the class, so that the answer agrees with casting a
+	 *         ray from p even if p lies on an edge or the segment passes through a
+	 *         vertex
+	 */
+	private static boolean crosses(double rx, double ry, double px, double py, double cx, double cy, double dx,
+			double dy) {
+		double referenceSide = orientation(cx, cy, dx, dy, rx, ry);
+		if (referenceSide == 0) {
+			// on the line through the edge, but not on the edge
+			return false;
+		}
+		return (referenceSide > 0) != edgeSide(cx, cy, dx, dy, px, py)
+				&& segmentSide(rx, ry, px, py, cx, cy) != segmentSide(rx, ry, px, py, dx, dy);
+	}
+
+	/**
+	 * @return whether the moved location p lies left of the line from c to d
+	 */
+	private static boolean edgeSide(double cx, double cy, double dx, double dy, double px, double py) {
+		double side = orientation(cx, cy, dx, dy, px, py);
+		if (side != 0) {
+			return side > 0;
+		}
+		// moving p east turns it right of a northbound edge, moving it north
+		// left of an eastbound one
+		return dy != cy ? dy < cy : dx > cx;
+	}
+
+	/**
+	 * @return whether v lies left of the line from r to the moved location p
+	 */
+	private static boolean segmentSide(double rx, double ry, double px, double py, double vx, double vy) {
+		double side = orientation(rx, ry, px, py, vx, vy);
+		if (side != 0) {
+			return side > 0;
+		}
+		return vy != ry ? vy > ry : vx < rx;
+	}
+
+	private static double orientation(double ax, double ay, double bx, double by, double px, double py) {
+		return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+	}
+
+	@Override
+	public String toString() {
+		return "PlausibilityRegion[" + south + "," + west + " - " + north + "," + east + "; " + x1.length
+				+ " edges, " + gridSize + "x" + gridSize + " grid]";
+	}
+
+	/**
+	 * Collects the edges of the rings of polygons
+	 */
+	private static final class Edges {
+
+		private double[] x1 = new double[64];
+		private double[] y1 = new double[64];
+		private double[] x2 = new double[64];
+		private double[] y2 = new double[64];
+		private int size;
+
+		private void addGeoJson(JSONObject json) {
+			switch (json.getString("type")) {
+			case "FeatureCollection":
+				JSONArray features = json.getJSONArray("features");
+				for (int i = 0; i < features.length(); i++) {
+					addGeoJson(features.getJSONObject(i));
+				}
+				break;
+			case "Feature":
+				if (!json.isNull("geometry")) {
+					addGeoJson(json.getJSONObject("geometry"));
+				}
+				break;
+			case "GeometryCollection":
+				JSONArray geometries = json.getJSONArray("geometries");
+				for (int i = 0; i < geometries.length(); i++) {
+					addGeoJson(geometries.getJSONObject(i));
+				}
+				break;
+			case "Polygon":
+				addPolygon(json.getJSONArray("coordinates"));
+				break;
+			case "MultiPolygon":
+				JSONArray polygons = json.getJSONArray("coordinates");
+				for (int i = 0; i < polygons.length(); i++) {
+					addPolygon(polygons.getJSONArray(i));
+				}
+				break;
+			default:
+				// points and lines enclose nothing
+			}
+		}
+
+		/**
+		 * Adds the outer ring and the holes of a polygon; as containment counts
+		 * the edges crossed, holes need no special treatment
+		 */
+		private void addPolygon(JSONArray rings) {
+			for (int r = 0; r < rings.length(); r++) {
+				JSONArray ring = rings.getJSONArray(r);
+				double[] longitudes = new double[ring.length()];
+				double[] latitudes = new double[ring.length()];
+				for (int i = 0; i < ring.length(); i++) {
+					JSONArray position = ring.getJSONArray(i);
+					longitudes[i] = position.getDouble(0);
+					latitudes[i] = position.getDouble(1);
+				}
+				addRing(longitudes, latitudes, ring.length());
+			}
+		}
+
+		private void addRing(double[] longitudes, double[] latitudes, int count) {
+			for (int i = 0; i < count; i++) {
+				int next = (i + 1) % count;
+				// skip the closing vertex repeating the first one
+				if (longitudes[i] == longitudes[next] && latitudes[i] == latitudes[next]) {
+					continue;
+				}
+				if (size == x1.length) {
+					x1 = Arrays.copyOf(x1, size * 2);
+					y1 = Arrays.copyOf(y1, size * 2);
+					x2 = Arrays.copyOf(x2, size * 2);
+					y2 = Arrays.copyOf(y2, size * 2);
+				}
+				x1[size] = longitudes[i];
+				y1[size] = latitudes[i];
+				x2[size] = longitudes[next];
+				y2[size] = latitudes[next];
+				size++;
+			}
+		}
+
+		private PlausibilityRegion toRegion() {
+			return new PlausibilityRegion(Arrays.copyOf(x1, size), Arrays.copyOf(y1, size), Arrays.copyOf(x2, size),
+					Arrays.copyOf(y2, size));
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+/**
+ * Encodes and decodes geometries in the Encoded Polyline Algorithm Format used
+ * by OSRM and many other routing services. Decoding writes directly into
+ * primitive coordinate arrays and allocates nothing.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class Polyline {
+
+	/** the precision of Google's original format and OSRM's 'polyline' */
+	public static final int PRECISION_5 = 5;
+	/** the precision of OSRM's 'polyline6' */
+	public static final int PRECISION_6 = 6;
+
+	private Polyline() {
+	}
+
+	/**
+	 * Counts the points of an encoded polyline without decoding it, e.g. to size
+	 * the arrays passed to {@link #decode(CharSequence, int, double[], double[], int)}
+	 *
+	 * @param encoded The encoded polyline
+	 * @return the number of points
+	 */
+	public static int count(CharSequence encoded) {
+		int values = 0;
+		for (int i = 0; i < encoded.length(); i++) {
+			// the last chunk of every value has the continuation bit cleared
+			if (encoded.charAt(i) - 63 < 0x20) {
+				values++;
+			}
+		}
+		return values / 2;
+	}
+
+	/**
+	 * Decodes an encoded polyline into coordinate arrays
+	 *
+	 * @param encoded    The encoded polyline
+	 * @param precision  The number of decimal places encoded, e.g.
+	 *                   {@link #PRECISION_6}
+	 * @param latitudes  The array to write the latitudes to
+	 * @param longitudes The array to write the longitudes to
+	 * @param offset     The index of the first point in the arrays
+	 * @return the number of points decoded
+	 * @throws IllegalArgumentException if the arrays are too small or the
+	 *                                  polyline is malformed
+	 */
+	public static int decode(CharSequence encoded, int precision, double[] latitudes, double[] longitudes,
+			int offset) {
+		double factor = Math.pow(10, precision);
+		int length = encoded.length();
+		int index = 0;
+		int point = offset;
+		long lat = 0;
+		long lng = 0;
+		while (index < length) {
+			// latitude delta
+			long result = 0;
+			int shift = 0;
+			int chunk;
+			do {
+				if (index >= length) {
+					throw new IllegalArgumentException("Truncated polyline");
+				}
+				chunk = encoded.charAt(index++) - 63;
+				result |= (long) (chunk & 0x1F) << shift;
+				shift += 5;
+			} while (chunk >= 0x20);
+			lat += (result >>> 1) ^ -(result & 1);
+
+			// longitude delta
+			result = 0;
+			shift = 0;
+			do {
+				if (index >= length) {
+					throw new IllegalArgumentException("Truncated polyline");
+				}
+				chunk = encoded.charAt(index++) - 63;
+				result |= (long) (chunk & 0x1F) << shift;
+				shift += 5;
+			} while (chunk >= 0x20);
+			lng += (result >>> 1) ^ -(result & 1);
+
+			if (point >= latitudes.length || point >= longitudes.length) {
+				throw new IllegalArgumentException("Coordinate arrays too small for polyline");
+			}
+			latitudes[point] = lat / factor;
+			longitudes[point] = lng / factor;
+			point++;
+		}
+		return point - offset;
+	}
+
+	/**
+	 * Encodes coordinates as a polyline
+	 *
+	 * @param latitudes  The latitudes
+	 * @param longitudes The longitudes
+	 * @param count      The number of points to encode
+	 * @param precision  The number of decimal places to encode, e.g.
+	 *                   {@link #PRECISION_6}
+	 * @return the encoded polyline
+	 */
+	public static String encode(double[] latitudes, double[] longitudes, int count, int precision) {
+		double factor = Math.pow(10, precision);
+		StringBuilder builder = new StringBuilder(count * 8);
+		long lastLat = 0;
+		long lastLng = 0;
+		for (int i = 0; i < count; i++) {
+			long lat = Math.round(latitudes[i] * factor);
+			long lng = Math.round(longitudes[i] * factor);
+			encodeValue(lat - lastLat, builder);
+			encodeValue(lng - lastLng, builder);
+			lastLat = lat;
+			lastLng = lng;
+		}
+		return builder.toString();
+	}
+
+	private static void encodeValue(long value, StringBuilder builder) {
+		long bits = value < 0 ? ~(value << 1) : value << 1;
+		while (bits >= 0x20) {
+			builder.append((char) ((0x20 | (bits & 0x1F)) + 63));
+			bits >>>= 5;
+		}
+		builder.append((char) (bits + 63));
+	}
+
+}
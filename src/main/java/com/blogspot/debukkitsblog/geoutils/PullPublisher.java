@@ -0,0 +1,173 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A cold Flow.Publisher producing its items on demand: nothing is calculated
+ * before a subscriber requests it, and at most as much as it requested. Every
+ * subscriber gets a source of its own. Items are produced and signalled on an
+ * executor, one subscription at a time on at most one thread.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class PullPublisher<T> implements Flow.Publisher<T> {
+
+	/**
+	 * Used by default; its threads block on requests to external services, so
+	 * they are not taken from the common pool
+	 */
+	static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "GeoUtils-publisher");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Produces the items of one subscription
+	 */
+	@FunctionalInterface
+	interface Source<T> {
+
+		/**
+		 * @return the next item, null if there are none left
+		 * @throws Exception if the item cannot be produced; the subscriber receives
+		 *                   it in onError
+		 */
+		T next() throws Exception;
+	}
+
+	/**
+	 * Creates the source of a new subscription
+	 */
+	@FunctionalInterface
+	interface SourceFactory<T> {
+		Source<T> create() throws Exception;
+	}
+
+	private final SourceFactory<T> factory;
+	private final Executor executor;
+
+	PullPublisher(SourceFactory<T> factory, Executor executor) {
+		this.factory = factory;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		Objects.requireNonNull(subscriber, "subscriber");
+		PullSubscription subscription = new PullSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	private final class PullSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pendingRuns = new AtomicInteger();
+		private final AtomicReference<Throwable> invalidRequest = new AtomicReference<>();
+		private volatile boolean cancelled;
+		// only accessed by the draining thread
+		private Source<T> source;
+		private boolean done;
+
+		private PullSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest.compareAndSet(null,
+						new IllegalArgumentException("non-positive subscription request: " + n));
+			} else {
+				demand.getAndAccumulate(n, (current, added) -> {
+					long sum = current + added;
+					return sum < 0 ? Long.MAX_VALUE : sum;
+				});
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		private void schedule() {
+			if (pendingRuns.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					cancelled = true;
+					subscriber.onError(e);
+				}
+			}
+		}
+
+		/**
+		 * Produces items while there is demand. Requests arriving meanwhile, also
+		 * from within onNext, are picked up by the same run.
+		 */
+		@Override
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = pendingRuns.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			while (!cancelled && !done) {
+				Throwable invalid = invalidRequest.get();
+				if (invalid != null) {
+					fail(invalid);
+					return;
+				}
+				if (demand.get() == 0) {
+					return;
+				}
+				T item;
+				try {
+					if (source == null) {
+						source = factory.create();
+					}
+					item = source.next();
+				} catch (Throwable t) {
+					fail(t);
+					return;
+				}
+				if (item == null) {
+					done = true;
+					subscriber.onComplete();
+					return;
+				}
+				demand.decrementAndGet();
+				try {
+					subscriber.onNext(item);
+				} catch (Throwable t) {
+					// a failing subscriber is considered to have cancelled
+					done = true;
+					cancelled = true;
+					return;
+				}
+			}
+		}
+
+		private void fail(Throwable t) {
+			done = true;
+			cancelled = true;
+			subscriber.onError(t);
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of a reachability query: which of a number of candidate locations
+ * can be reached from an origin within a maximum duration, and how long it
+ * takes to get there
+ *
+ * @author DeBukkIt
+ *
+ */
+public class Reachability {
+
+	private final GeoLocation origin;
+	private final float maxDuration;
+	private final List<GeoLocation> candidates;
+	private final float[] durations;
+	private final int routedCount;
+
+	/**
+	 * Constructs a reachability result
+	 *
+	 * @param origin      The origin
+	 * @param maxDuration The maximum duration in seconds
+	 * @param candidates  The candidate locations
+	 * @param durations   The duration to every candidate in seconds,
+	 *                    {@link Float#POSITIVE_INFINITY} if it was not routed or
+	 *                    cannot be reached
+	 * @param routedCount The number of candidates that had to be routed
+	 */
+	Reachability(GeoLocation origin, float maxDuration, List<GeoLocation> candidates, float[] durations,
+			int routedCount) {
+		this.origin = origin;
+		this.maxDuration = maxDuration;
+		this.candidates = Collections.unmodifiableList(new ArrayList<>(candidates));
+		this.durations = durations;
+		this.routedCount = routedCount;
+	}
+
+	public GeoLocation getOrigin() {
+		return origin;
+	}
+
+	public float getMaxDuration() {
+		return maxDuration;
+	}
+
+	public List<GeoLocation> getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @param index The index of a candidate
+	 * @return whether the candidate can be reached within the maximum duration
+	 */
+	public boolean isReachable(int index) {
+		return durations[index] <= maxDuration;
+	}
+
+	/**
+	 * @param index The index of a candidate
+	 * @return the duration to the candidate in seconds;
+	 *         {@link Float#POSITIVE_INFINITY} if it was ruled out by its bee line
+	 *         distance or cannot be reached at all
+	 */
+	public float getDuration(int index) {
+		return durations[index];
+	}
+
+	/**
+	 * @return the candidates that can be reached within the maximum duration, in
+	 *         their original order
+	 */
+	public List<GeoLocation> getReachable() {
+		List<GeoLocation> result = new ArrayList<>();
+		for (int i = 0; i < durations.length; i++) {
+			if (isReachable(i)) {
+				result.add(candidates.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of candidates that had to be routed, i.e. were not ruled
+	 *         out by their bee line distance alone
+	 */
+	public int getRoutedCount() {
+		return routedCount;
+	}
+
+	@Override
+	public String toString() {
+		return "[" + getReachable().size() + " of " + candidates.size() + " reachable from " + origin + " within "
+				+ maxDuration + " s]";
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * The wire format spoken between a {@link RemoteCacheStore} and a
+ * {@link RemoteCacheServer}. Each request is an operation code followed by its
+ * arguments; each response starts with a status byte, followed by the result
+ * or an error message. Elements are written as their kind, time and content in
+ * the {@link CacheCodec} format; kind 0 stands for a missing element.
+ *
+ * @author DeBukkIt
+ *
+ */
+final class RemoteCacheProtocol {
+
+	/** key &rarr; element */
+	static final int GET = 1;
+	/** count, keys &rarr; one element per key */
+	static final int GET_ALL = 2;
+	/** key, ttl, element &rarr; nothing */
+	static final int PUT = 3;
+	/** count, ttl, keys and elements &rarr; nothing */
+	static final int PUT_ALL = 4;
+	/** key &rarr; whether an element was deleted */
+	static final int DELETE = 5;
+	/**
+	 * nothing &rarr; keys and elements, each preceded by true, then false; the
+	 * status follows the elements instead of preceding them
+	 */
+	static final int SCAN = 6;
+
+	static final int STATUS_OK = 0;
+	static final int STATUS_ERROR = 1;
+
+	/** The maximum number of keys or elements in a single request */
+	static final int MAX_BATCH_SIZE = 1 << 16;
+
+	private RemoteCacheProtocol() {
+	}
+
+	static void writeElement(DataOutput out, CacheElement element) throws IOException {
+		if (element == null) {
+			out.writeByte(CacheCodec.UNSUPPORTED);
+			return;
+		}
+		int kind = CacheCodec.kindOf(element.getContent());
+		if (kind == CacheCodec.UNSUPPORTED) {
+			throw new IOException("Cannot send " + element.getContent().getClass().getName() + " to a remote cache");
+		}
+		out.writeByte(kind);
+		out.writeLong(element.getTime());
+		CacheCodec.writeContent(out, kind, element.getContent());
+	}
+
+	static CacheElement readElement(DataInput in) throws IOException {
+		int kind = in.readUnsignedByte();
+		if (kind == CacheCodec.UNSUPPORTED) {
+			return null;
+		}
+		long time = in.readLong();
+		return new CacheElement(CacheCodec.readContent(in, kind), time);
+	}
+
+	static int readBatchSize(DataInput in) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > MAX_BATCH_SIZE) {
+			throw new IOException("Invalid batch size " + count);
+		}
+		return count;
+	}
+
+}
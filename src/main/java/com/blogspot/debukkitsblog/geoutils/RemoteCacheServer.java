@@ -0,0 +1,276 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Serves a {@link GeoCacheStore} to {@link RemoteCacheStore}s over TCP, so
+ * that several nodes can share one cache. Every connection is handled by a
+ * thread of its own. The server does not authenticate its clients; bind it to
+ * a private network only.
+ * <p>
+ * Run it standalone with <code>java -cp geoutils.jar
+ * com.blogspot.debukkitsblog.geoutils.RemoteCacheServer &lt;port&gt;
+ * [cache-file]</code>, keeping the elements in memory or in <i>cache-file</i>,
+ * or start it within a JVM, e.g. for tests.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class RemoteCacheServer implements Closeable {
+
+	private final ServerSocket serverSocket;
+	private final GeoCacheStore store;
+	private final ExecutorService handlers;
+	private final Set<Socket> clients = ConcurrentHashMap.newKeySet();
+	private volatile boolean closed;
+
+	/**
+	 * Starts serving <i>store</i>
+	 *
+	 * @param port  The port to listen on, 0 for any free port
+	 * @param store The store to serve; it is not closed with the server
+	 * @throws IOException if the port cannot be bound
+	 */
+	public RemoteCacheServer(int port, GeoCacheStore store) throws IOException {
+		if (store == null) {
+			throw new IllegalArgumentException("store may not be null");
+		}
+		this.store = store;
+		this.serverSocket = new ServerSocket(port);
+		this.handlers = Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, "RemoteCacheServer-" + serverSocket.getLocalPort());
+			thread.setDaemon(true);
+			return thread;
+		});
+		handlers.execute(this::accept);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: RemoteCacheServer <port> [cache-file]");
+			System.exit(1);
+		}
+		GeoCacheStore store = args.length > 1 ? new FileCacheStore(new File(args[1])) : new MemoryCacheStore();
+		RemoteCacheServer server = new RemoteCacheServer(Integer.parseInt(args[0]), store);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.close();
+			try {
+				store.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}));
+		System.out.println("Serving " + store.getClass().getSimpleName() + " on port " + server.getPort());
+	}
+
+	/**
+	 * @return the port the server is listening on
+	 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Stops accepting connections and closes all open ones
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// nothing left to release
+		}
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+		}
+		handlers.shutdown();
+	}
+
+	private void accept() {
+		while (!closed) {
+			try {
+				Socket client = serverSocket.accept();
+				client.setTcpNoDelay(true);
+				clients.add(client);
+				handlers.execute(() -> serve(client));
+			} catch (IOException e) {
+				if (!closed) {
+					System.err.println("RemoteCacheServer could not accept a connection: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void serve(Socket client) {
+		try (Socket socket = client) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 14));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 14));
+			while (!closed) {
+				int operation;
+				try {
+					operation = in.readUnsignedByte();
+				} catch (EOFException e) {
+					return;
+				}
+				handle(operation, in, out);
+				out.flush();
+			}
+		} catch (SocketException e) {
+			// closed by the client or by close()
+		} catch (IOException e) {
+			if (!closed) {
+				System.err.println("RemoteCacheServer dropped a connection: " + e.getMessage());
+			}
+		} finally {
+			clients.remove(client);
+		}
+	}
+
+	/**
+	 * Reads the arguments of <i>operation</i> completely before applying it, so
+	 * a failing store leaves the connection in a state to go on with
+	 */
+	private void handle(int operation, DataInputStream in, DataOutputStream out) throws IOException {
+		switch (operation) {
+		case RemoteCacheProtocol.GET: {
+			String key = in.readUTF();
+			CacheElement element;
+			try {
+				element = store.get(key);
+			} catch (IOException | RuntimeException e) {
+				error(out, e);
+				return;
+			}
+			out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			RemoteCacheProtocol.writeElement(out, element);
+			break;
+		}
+		case RemoteCacheProtocol.GET_ALL: {
+			int count = RemoteCacheProtocol.readBatchSize(in);
+			List<String> keys = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				keys.add(in.readUTF());
+			}
+			Map<String, CacheElement> found;
+			try {
+				found = store.getAll(keys);
+			} catch (IOException | RuntimeException e) {
+				error(out, e);
+				return;
+			}
+			out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			for (String key : keys) {
+				RemoteCacheProtocol.writeElement(out, found.get(key));
+			}
+			break;
+		}
+		case RemoteCacheProtocol.PUT: {
+			String key = in.readUTF();
+			long ttl = in.readLong();
+			CacheElement element = RemoteCacheProtocol.readElement(in);
+			try {
+				store.put(key, element, ttl);
+			} catch (IOException | RuntimeException e) {
+				error(out, e);
+				return;
+			}
+			out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			break;
+		}
+		case RemoteCacheProtocol.PUT_ALL: {
+			int count = RemoteCacheProtocol.readBatchSize(in);
+			long ttl = in.readLong();
+			Map<String, CacheElement> elements = new HashMap<>();
+			for (int i = 0; i < count; i++) {
+				elements.put(in.readUTF(), RemoteCacheProtocol.readElement(in));
+			}
+			try {
+				store.putAll(elements, ttl);
+			} catch (IOException | RuntimeException e) {
+				error(out, e);
+				return;
+			}
+			out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			break;
+		}
+		case RemoteCacheProtocol.DELETE: {
+			String key = in.readUTF();
+			boolean deleted;
+			try {
+				deleted = store.delete(key);
+			} catch (IOException | RuntimeException e) {
+				error(out, e);
+				return;
+			}
+			out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			out.writeBoolean(deleted);
+			break;
+		}
+		case RemoteCacheProtocol.SCAN: {
+			// streamed while the store yields the elements, so its status trails them
+			IOException[] sendFailure = new IOException[1];
+			Exception storeFailure = null;
+			try {
+				store.forEach((key, element) -> {
+					if (CacheCodec.kindOf(element.getContent()) != CacheCodec.UNSUPPORTED) {
+						try {
+							out.writeBoolean(true);
+							out.writeUTF(key);
+							RemoteCacheProtocol.writeElement(out, element);
+						} catch (IOException e) {
+							sendFailure[0] = e;
+							throw new UncheckedIOException(e);
+						}
+					}
+				});
+			} catch (IOException | RuntimeException e) {
+				if (sendFailure[0] != null) {
+					throw sendFailure[0];
+				}
+				storeFailure = e;
+			}
+			out.writeBoolean(false);
+			if (storeFailure != null) {
+				error(out, storeFailure);
+			} else {
+				out.writeByte(RemoteCacheProtocol.STATUS_OK);
+			}
+			break;
+		}
+		default:
+			throw new IOException("Unknown operation " + operation);
+		}
+	}
+
+	private static void error(DataOutputStream out, Exception e) throws IOException {
+		out.writeByte(RemoteCacheProtocol.STATUS_ERROR);
+		out.writeUTF(String.valueOf(e.getMessage()));
+	}
+
+}
@@ -0,0 +1,342 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Stores the elements of a GeoCache on a {@link RemoteCacheServer}, so that
+ * all nodes of a cluster share one cache and every address is geocoded and
+ * every route calculated only once. Connections are pooled; batched reads and
+ * writes take a single round trip per {@value RemoteCacheProtocol#MAX_BATCH_SIZE}
+ * elements.
+ * <p>
+ * A read or write that fails, e.g. because the server is unreachable, throws an
+ * IOException; the GeoCache treats such reads as misses. After a failed connect
+ * the store fails fast without connecting for a back-off period, starting at
+ * {@value #CONNECT_BACK_OFF_MILLIS} ms and doubling with every further failed
+ * connect up to {@value #MAX_CONNECT_BACK_OFF_MILLIS} ms, so an unreachable
+ * server does not cost every read and write a connect timeout.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class RemoteCacheStore implements GeoCacheStore {
+
+	static final long CONNECT_BACK_OFF_MILLIS = 500;
+	static final long MAX_CONNECT_BACK_OFF_MILLIS = 30000;
+
+	private final InetSocketAddress address;
+	private final int maxIdleConnections;
+	private final int timeoutMillis;
+	private final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<>();
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private volatile boolean closed;
+	private volatile long backOffMillis;
+	private volatile long backOffUntilNanos;
+
+	/**
+	 * Creates a store keeping up to 8 idle connections to the server, with a
+	 * timeout of 2 seconds
+	 *
+	 * @param host The host the RemoteCacheServer is running on
+	 * @param port Its port
+	 */
+	public RemoteCacheStore(String host, int port) {
+		this(host, port, 8, 2000);
+	}
+
+	/**
+	 * @param host               The host the RemoteCacheServer is running on
+	 * @param port               Its port
+	 * @param maxIdleConnections The maximum number of connections kept open for
+	 *                           reuse; more are opened under load, but closed
+	 *                           afterwards
+	 * @param timeoutMillis      The timeout for connecting and for every response
+	 */
+	public RemoteCacheStore(String host, int port, int maxIdleConnections, int timeoutMillis) {
+		if (maxIdleConnections < 0 || timeoutMillis < 0) {
+			throw new IllegalArgumentException("maxIdleConnections and timeoutMillis may not be negative");
+		}
+		this.address = new InetSocketAddress(host, port);
+		this.maxIdleConnections = maxIdleConnections;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	@Override
+	public CacheElement get(String key) throws IOException {
+		return call((in, out) -> {
+			out.writeByte(RemoteCacheProtocol.GET);
+			out.writeUTF(key);
+			out.flush();
+			checkStatus(in);
+			return RemoteCacheProtocol.readElement(in);
+		});
+	}
+
+	@Override
+	public Map<String, CacheElement> getAll(Collection<String> keys) throws IOException {
+		Map<String, CacheElement> found = new HashMap<>();
+		for (List<String> chunk : chunks(new ArrayList<>(keys))) {
+			call((in, out) -> {
+				out.writeByte(RemoteCacheProtocol.GET_ALL);
+				out.writeInt(chunk.size());
+				for (String key : chunk) {
+					out.writeUTF(key);
+				}
+				out.flush();
+				checkStatus(in);
+				for (String key : chunk) {
+					CacheElement element = RemoteCacheProtocol.readElement(in);
+					if (element != null) {
+						found.put(key, element);
+					}
+				}
+				return null;
+			});
+		}
+		return found;
+	}
+
+	@Override
+	public void put(String key, CacheElement element, long ttl) throws IOException {
+		call((in, out) -> {
+			out.writeByte(RemoteCacheProtocol.PUT);
+			out.writeUTF(key);
+			out.writeLong(ttl);
+			RemoteCacheProtocol.writeElement(out, element);
+			out.flush();
+			checkStatus(in);
+			return null;
+		});
+	}
+
+	@Override
+	public void putAll(Map<String, CacheElement> elements, long ttl) throws IOException {
+		for (List<String> chunk : chunks(new ArrayList<>(elements.keySet()))) {
+			call((in, out) -> {
+				out.writeByte(RemoteCacheProtocol.PUT_ALL);
+				out.writeInt(chunk.size());
+				out.writeLong(ttl);
+				for (String key : chunk) {
+					out.writeUTF(key);
+					RemoteCacheProtocol.writeElement(out, elements.get(key));
+				}
+				out.flush();
+				checkStatus(in);
+				return null;
+			});
+		}
+	}
+
+	@Override
+	public boolean delete(String key) throws IOException {
+		return call((in, out) -> {
+			out.writeByte(RemoteCacheProtocol.DELETE);
+			out.writeUTF(key);
+			out.flush();
+			checkStatus(in);
+			return in.readBoolean();
+		});
+	}
+
+	/**
+	 * Runs on a connection of its own and is never repeated, as <i>action</i>
+	 * may already have seen some elements when the connection fails
+	 */
+	@Override
+	public void forEach(BiConsumer<String, CacheElement> action) throws IOException {
+		if (closed) {
+			throw new IOException("RemoteCacheStore is closed");
+		}
+		exchange(open(), (in, out) -> {
+			out.writeByte(RemoteCacheProtocol.SCAN);
+			out.flush();
+			while (in.readBoolean()) {
+				action.accept(in.readUTF(), RemoteCacheProtocol.readElement(in));
+			}
+			checkStatus(in);
+			return null;
+		});
+	}
+
+	/**
+	 * Closes all idle connections; connections in use are closed once their
+	 * request completes
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Connection connection;
+		while ((connection = idle.poll()) != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Runs <i>exchange</i> on a pooled connection. If a pooled connection turns
+	 * out to be broken before the server responded at all, e.g. because the
+	 * server was restarted, the exchange is repeated once on a new connection;
+	 * gets, puts and deletes may safely be repeated. Errors reported by the
+	 * server and timeouts are not retried, so a hung server costs a single
+	 * timeout.
+	 */
+	private <T> T call(Exchange<T> exchange) throws IOException {
+		if (closed) {
+			throw new IOException("RemoteCacheStore is closed");
+		}
+		Connection connection = idle.poll();
+		if (connection != null) {
+			idleCount.decrementAndGet();
+			try {
+				return exchange(connection, exchange);
+			} catch (SocketTimeoutException e) {
+				throw e;
+			} catch (IOException e) {
+				if (connection.response.started) {
+					throw e;
+				}
+				// stale connection, retry below
+			}
+		}
+		return exchange(open(), exchange);
+	}
+
+	private <T> T exchange(Connection connection, Exchange<T> exchange) throws IOException {
+		T result;
+		connection.response.started = false;
+		try {
+			result = exchange.run(connection.in, connection.out);
+		} catch (IOException | RuntimeException e) {
+			// the stream position is unknown, so the connection cannot be reused
+			connection.close();
+			throw e;
+		}
+		if (!closed && idleCount.incrementAndGet() <= maxIdleConnections) {
+			idle.push(connection);
+		} else {
+			idleCount.decrementAndGet();
+			connection.close();
+		}
+		return result;
+	}
+
+	/**
+	 * Opens a new connection, unless a previous connect failed within the
+	 * back-off period
+	 */
+	private Connection open() throws IOException {
+		long backOff = backOffMillis;
+		if (backOff > 0 && System.nanoTime() - backOffUntilNanos < 0) {
+			throw new IOException("Remote cache " + address + " unreachable, backing off for " + backOff + " ms");
+		}
+		Socket socket = new Socket();
+		try {
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(timeoutMillis);
+			socket.connect(address, timeoutMillis);
+		} catch (IOException e) {
+			socket.close();
+			backOff = backOff == 0 ? CONNECT_BACK_OFF_MILLIS : Math.min(backOff * 2, MAX_CONNECT_BACK_OFF_MILLIS);
+			backOffUntilNanos = System.nanoTime() + backOff * 1_000_000;
+			backOffMillis = backOff;
+			throw e;
+		}
+		backOffMillis = 0;
+		try {
+			return new Connection(socket);
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+	}
+
+	private static void checkStatus(DataInputStream in) throws IOException {
+		if (in.readUnsignedByte() != RemoteCacheProtocol.STATUS_OK) {
+			throw new IOException("Remote cache failed: " + in.readUTF());
+		}
+	}
+
+	private static List<List<String>> chunks(List<String> keys) {
+		List<List<String>> chunks = new ArrayList<>();
+		for (int i = 0; i < keys.size(); i += RemoteCacheProtocol.MAX_BATCH_SIZE) {
+			chunks.add(keys.subList(i, Math.min(keys.size(), i + RemoteCacheProtocol.MAX_BATCH_SIZE)));
+		}
+		return chunks;
+	}
+
+	@Override
+	public String toString() {
+		return "RemoteCacheStore[" + address + "]";
+	}
+
+	@FunctionalInterface
+	private interface Exchange<T> {
+		T run(DataInputStream in, DataOutputStream out) throws IOException;
+	}
+
+	private static final class Connection {
+		private final Socket socket;
+		private final ResponseInputStream response;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			this.response = new ResponseInputStream(socket.getInputStream());
+			this.in = new DataInputStream(new BufferedInputStream(response, 1 << 14));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 14));
+		}
+
+		private void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// nothing left to release
+			}
+		}
+	}
+
+	/**
+	 * Notes whether any byte of the current response has been received
+	 */
+	private static final class ResponseInputStream extends FilterInputStream {
+		private boolean started;
+
+		private ResponseInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			started |= b >= 0;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			started |= count > 0;
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,320 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the locations lying within a given distance of the path of a route,
+ * e.g. pickup points along the way, and where along the route they are. The
+ * segments between the waypoints are indexed in a grid whose cells are as
+ * large as the corridor is wide, each segment registered in every cell within
+ * one cell of its path. A query therefore looks at a single cell per candidate
+ * and measures its distance to the few segments registered there only.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class RouteCorridor {
+
+	private static final double METERS_PER_DEGREE = 6378137.0 * Math.PI / 180;
+
+	private final float width;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	// distance along the path from the first waypoint to every waypoint
+	private final double[] positions;
+	private final Map<Long, int[]> cells = new HashMap<>();
+
+	// grid: cell coordinates are projected meters divided by the width
+	private final double originLatitude;
+	private final double originLongitude;
+	private final double xScale;
+	private final double yScale;
+	private final double minLatitude;
+	private final double maxLatitude;
+	private final double minLongitude;
+	private final double maxLongitude;
+
+	/**
+	 * @param route The route, with waypoints
+	 * @param width The maximum distance in meters between the path of the route
+	 *              and the locations found
+	 */
+	public RouteCorridor(GeoRoute route, float width) {
+		this(route.getWaypoints(), width);
+	}
+
+	/**
+	 * @param path  The waypoints of a route
+	 * @param width The maximum distance in meters between the path and the
+	 *              locations found
+	 */
+	public RouteCorridor(List<GeoLocation> path, float width) {
+		if (path == null || path.isEmpty()) {
+			throw new IllegalArgumentException("the path must have at least one waypoint");
+		}
+		if (!(width > 0)) {
+			throw new IllegalArgumentException("width must be positive");
+		}
+		this.width = width;
+		int n = path.size();
+		latitudes = new double[n];
+		longitudes = new double[n];
+		positions = new double[n];
+		double south = Double.POSITIVE_INFINITY;
+		double north = Double.NEGATIVE_INFINITY;
+		double west = Double.POSITIVE_INFINITY;
+		double east = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			GeoLocation point = path.get(i);
+			latitudes[i] = point.getLatitude();
+			longitudes[i] = point.getLongitude();
+			south = Math.min(south, latitudes[i]);
+			north = Math.max(north, latitudes[i]);
+			west = Math.min(west, longitudes[i]);
+			east = Math.max(east, longitudes[i]);
+			if (i > 0) {
+				positions[i] = positions[i - 1] + path.get(i - 1).distanceTo(point);
+			}
+		}
+
+		// candidates outside the bounds widened by the corridor are rejected early
+		double margin = width / METERS_PER_DEGREE;
+		minLatitude = south - margin;
+		maxLatitude = north + margin;
+		double widest = Math.min(89, Math.max(Math.abs(minLatitude), Math.abs(maxLatitude)));
+		double longitudeMargin = margin / Math.cos(Math.toRadians(widest));
+		minLongitude = west - longitudeMargin;
+		maxLongitude = east + longitudeMargin;
+
+		// scale longitudes as at the latitude furthest from the equator, so that
+		// distances in the grid are never longer than on earth and no cell within
+		// the width of a segment is missed
+		originLatitude = south;
+		originLongitude = west;
+		xScale = Math.cos(Math.toRadians(widest)) * METERS_PER_DEGREE / width;
+		yScale = METERS_PER_DEGREE / width;
+
+		if (n == 1) {
+			double x = gridX(longitudes[0]);
+			double y = gridY(latitudes[0]);
+			register(0, x, y, x, y);
+		}
+		for (int i = 0; i < n - 1; i++) {
+			register(i, gridX(longitudes[i]), gridY(latitudes[i]), gridX(longitudes[i + 1]),
+					gridY(latitudes[i + 1]));
+		}
+		for (Map.Entry<Long, int[]> cell : cells.entrySet()) {
+			int[] segments = cell.getValue();
+			cell.setValue(Arrays.copyOfRange(segments, 1, segments[0] + 1));
+		}
+	}
+
+	/**
+	 * Registers a segment in every cell within one cell of the cells it passes
+	 * through, which are visited by stepping from cell border to cell border
+	 */
+	private void register(int segment, double x0, double y0, double x1, double y1) {
+		int x = (int) Math.floor(x0);
+		int y = (int) Math.floor(y0);
+		int steps = Math.abs((int) Math.floor(x1) - x) + Math.abs((int) Math.floor(y1) - y);
+		double dx = x1 - x0;
+		double dy = y1 - y0;
+		int stepX = dx > 0 ? 1 : -1;
+		int stepY = dy > 0 ? 1 : -1;
+		double deltaX = dx == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dx);
+		double deltaY = dy == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / dy);
+		double nextX = dx == 0 ? Double.POSITIVE_INFINITY : (dx > 0 ? x + 1 - x0 : x0 - x) * deltaX;
+		double nextY = dy == 0 ? Double.POSITIVE_INFINITY : (dy > 0 ? y + 1 - y0 : y0 - y) * deltaY;
+		registerAround(segment, x, y);
+		for (int i = 0; i < steps; i++) {
+			if (nextX < nextY) {
+				nextX += deltaX;
+				x += stepX;
+			} else {
+				nextY += deltaY;
+				y += stepY;
+			}
+			registerAround(segment, x, y);
+		}
+	}
+
+	private void registerAround(int segment, int x, int y) {
+		for (int i = -1; i <= 1; i++) {
+			for (int j = -1; j <= 1; j++) {
+				// element 0 holds the number of segments in the cell
+				int[] segments = cells.computeIfAbsent(key(x + i, y + j), k -> new int[5]);
+				int count = segments[0];
+				// segments are registered one after the other, so a duplicate is last
+				if (count > 0 && segments[count] == segment) {
+					continue;
+				}
+				if (count + 1 == segments.length) {
+					segments = Arrays.copyOf(segments, segments.length * 2);
+					cells.put(key(x + i, y + j), segments);
+				}
+				segments[count + 1] = segment;
+				segments[0] = count + 1;
+			}
+		}
+	}
+
+	private double gridX(double longitude) {
+		return (longitude - originLongitude) * xScale;
+	}
+
+	private double gridY(double latitude) {
+		return (latitude - originLatitude) * yScale;
+	}
+
+	private static long key(int x, int y) {
+		return (long) x << 32 | (y & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the width of the corridor in meters
+	 */
+	public float getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the length of the path in meters
+	 */
+	public double getLength() {
+		return positions[positions.length - 1];
+	}
+
+	/**
+	 * @param location The location to look for
+	 * @return where <i>location</i> is closest to the path, null if it lies
+	 *         outside the corridor
+	 */
+	public Match locate(GeoLocation location) {
+		return locate(location, -1);
+	}
+
+	/**
+	 * @param candidates The locations to look for
+	 * @return the candidates lying within the corridor, ordered by their position
+	 *         along the path
+	 */
+	public List<Match> query(List<? extends GeoLocation> candidates) {
+		List<Match> result = new ArrayList<>();
+		for (int i = 0; i < candidates.size(); i++) {
+			Match match = locate(candidates.get(i), i);
+			if (match != null) {
+				result.add(match);
+			}
+		}
+		result.sort(Comparator.comparingDouble(Match::getPosition));
+		return result;
+	}
+
+	private Match locate(GeoLocation location, int index) {
+		double latitude = location.getLatitude();
+		double longitude = location.getLongitude();
+		if (!(latitude >= minLatitude && latitude <= maxLatitude && longitude >= minLongitude
+				&& longitude <= maxLongitude)) {
+			return null;
+		}
+		int[] segments = cells.get(key((int) Math.floor(gridX(longitude)), (int) Math.floor(gridY(latitude))));
+		if (segments == null) {
+			return null;
+		}
+
+		// measure in a plane around the candidate, where the projection is exact
+		double xMeters = Math.cos(Math.toRadians(latitude)) * METERS_PER_DEGREE;
+		double bestDistanceSquared = (double) width * width;
+		int bestSegment = -1;
+		double bestFraction = 0;
+		for (int segment : segments) {
+			int next = Math.min(segment + 1, latitudes.length - 1);
+			double ax = (longitudes[segment] - longitude) * xMeters;
+			double ay = (latitudes[segment] - latitude) * METERS_PER_DEGREE;
+			double dx = (longitudes[next] - longitude) * xMeters - ax;
+			double dy = (latitudes[next] - latitude) * METERS_PER_DEGREE - ay;
+			double lengthSquared = dx * dx + dy * dy;
+			double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+			double px = ax + fraction * dx;
+			double py = ay + fraction * dy;
+			double distanceSquared = px * px + py * py;
+			if (distanceSquared <= bestDistanceSquared) {
+				bestDistanceSquared = distanceSquared;
+				bestSegment = segment;
+				bestFraction = fraction;
+			}
+		}
+		if (bestSegment < 0) {
+			return null;
+		}
+		int next = Math.min(bestSegment + 1, positions.length - 1);
+		double position = positions[bestSegment] + bestFraction * (positions[next] - positions[bestSegment]);
+		return new Match(location, index, (float) Math.sqrt(bestDistanceSquared), position, bestSegment);
+	}
+
+	/**
+	 * A location found within the corridor
+	 */
+	public static final class Match {
+
+		private final GeoLocation location;
+		private final int index;
+		private final float distance;
+		private final double position;
+		private final int segment;
+
+		private Match(GeoLocation location, int index, float distance, double position, int segment) {
+			this.location = location;
+			this.index = index;
+			this.distance = distance;
+			this.position = position;
+			this.segment = segment;
+		}
+
+		public GeoLocation getLocation() {
+			return location;
+		}
+
+		/**
+		 * @return the index of the location in the list of candidates queried; -1
+		 *         if it was located on its own
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the distance in meters between the location and the path
+		 */
+		public float getDistance() {
+			return distance;
+		}
+
+		/**
+		 * @return the distance in meters along the path from its start to the point
+		 *         closest to the location
+		 */
+		public double getPosition() {
+			return position;
+		}
+
+		/**
+		 * @return the index of the waypoint starting the segment closest to the
+		 *         location
+		 */
+		public int getSegment() {
+			return segment;
+		}
+
+		@Override
+		public String toString() {
+			return location + " (" + Math.round(distance) + " m off, " + Math.round(position) + " m along)";
+		}
+	}
+
+}
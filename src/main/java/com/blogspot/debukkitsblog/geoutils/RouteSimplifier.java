@@ -0,0 +1,127 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reduces the number of points of a route geometry using the Douglas-Peucker
+ * algorithm. The implementation is iterative and works on primitive arrays of
+ * coordinates projected to meters, so long routes neither recurse deeply nor
+ * create garbage per point.
+ *
+ * @author DeBukkIt
+ *
+ */
+public final class RouteSimplifier {
+
+	private static final double EARTH_RADIUS = 6378137.0;
+
+	private RouteSimplifier() {
+	}
+
+	/**
+	 * Simplifies a line of GeoLocations. The first and the last point are always
+	 * kept; no removed point lies further than <i>toleranceMeters</i> from the
+	 * simplified line.
+	 *
+	 * @param points          The points of the line
+	 * @param toleranceMeters The maximum deviation in meters
+	 * @return a new list containing the points kept, in their original order
+	 */
+	public static List<GeoLocation> simplify(List<GeoLocation> points, float toleranceMeters) {
+		if (toleranceMeters < 0) {
+			throw new IllegalArgumentException("toleranceMeters may not be negative");
+		}
+		int n = points.size();
+		if (n < 3 || toleranceMeters == 0) {
+			return new ArrayList<>(points);
+		}
+
+		// project to a local plane in meters (equirectangular around the start)
+		double[] x = new double[n];
+		double[] y = new double[n];
+		double lat0 = points.get(0).getLatitude();
+		double lng0 = points.get(0).getLongitude();
+		double metersPerDegree = EARTH_RADIUS * Math.PI / 180;
+		double cosLat0 = Math.cos(Math.toRadians(lat0));
+		for (int i = 0; i < n; i++) {
+			GeoLocation point = points.get(i);
+			x[i] = (point.getLongitude() - lng0) * cosLat0 * metersPerDegree;
+			y[i] = (point.getLatitude() - lat0) * metersPerDegree;
+		}
+
+		boolean[] keep = simplify(x, y, n, toleranceMeters);
+
+		List<GeoLocation> result = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			if (keep[i]) {
+				result.add(points.get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Simplifies a line given as planar coordinates
+	 *
+	 * @param x         The x coordinates in meters
+	 * @param y         The y coordinates in meters
+	 * @param n         The number of points
+	 * @param tolerance The maximum deviation in meters
+	 * @return for each point whether it is kept
+	 */
+	static boolean[] simplify(double[] x, double[] y, int n, double tolerance) {
+		boolean[] keep = new boolean[n];
+		keep[0] = true;
+		keep[n - 1] = true;
+		double toleranceSquared = tolerance * tolerance;
+
+		// explicit stack of (first, last) index pairs still to examine
+		int[] stack = new int[64];
+		int size = 0;
+		stack[size++] = 0;
+		stack[size++] = n - 1;
+		while (size > 0) {
+			int last = stack[--size];
+			int first = stack[--size];
+
+			double maxDistance = -1;
+			int farthest = -1;
+			for (int i = first + 1; i < last; i++) {
+				double distance = segmentDistanceSquared(x[i], y[i], x[first], y[first], x[last], y[last]);
+				if (distance > maxDistance) {
+					maxDistance = distance;
+					farthest = i;
+				}
+			}
+
+			if (maxDistance > toleranceSquared) {
+				keep[farthest] = true;
+				if (size + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				stack[size++] = first;
+				stack[size++] = farthest;
+				stack[size++] = farthest;
+				stack[size++] = last;
+			}
+		}
+		return keep;
+	}
+
+	/**
+	 * @return the squared distance between point p and the segment from a to b
+	 */
+	static double segmentDistanceSquared(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		double ex = ax + t * dx - px;
+		double ey = ay + t * dy - py;
+		return ex * ex + ey * ey;
+	}
+
+}
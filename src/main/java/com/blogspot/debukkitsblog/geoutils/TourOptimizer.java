@@ -0,0 +1,390 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Finds a short order to visit a set of stops in, based on the durations
+ * between them. A tour is constructed by cheapest insertion and then improved
+ * by 2-opt and Or-opt local search on primitive arrays. If a time budget is
+ * given, the local search is repeated from perturbed tours on all available
+ * cores until the budget is used up, keeping the best tour found.
+ *
+ * @author DeBukkIt
+ *
+ */
+public class TourOptimizer {
+
+	// stands in for missing routes so that sums stay finite
+	private static final double UNREACHABLE = 1e9;
+
+	private final GeoRouter router;
+
+	/**
+	 * Constructs a new optimizer using <i>router</i> to calculate durations
+	 *
+	 * @param router The GeoRouter to calculate the duration matrix with
+	 */
+	public TourOptimizer(GeoRouter router) {
+		this.router = router;
+	}
+
+	/**
+	 * Finds a short tour starting at <i>start</i>, visiting all <i>stops</i> and
+	 * ending at <i>end</i>
+	 *
+	 * @param start            The fixed start of the tour
+	 * @param stops            The stops to visit in any order
+	 * @param end              The fixed end of the tour; <i>start</i> for a round
+	 *                         trip; null to end at whichever stop is visited last
+	 * @param timeBudgetMillis The time to spend improving the tour, 0 for a single
+	 *                         local search
+	 * @return the optimized tour
+	 * @throws IOException if the duration matrix could not be calculated
+	 */
+	public Tour optimize(GeoLocation start, List<GeoLocation> stops, GeoLocation end, long timeBudgetMillis)
+			throws IOException {
+		if (start == null || stops == null || GeoRouter.hasNull(stops)) {
+			throw new IllegalArgumentException("start and stops may not be null");
+		}
+		List<GeoLocation> locations = new ArrayList<>(stops.size() + 2);
+		locations.add(start);
+		locations.addAll(stops);
+		if (end != null) {
+			locations.add(end);
+		}
+		float[][] durations = router.calculateDurationTable(locations);
+
+		int[] order = optimize(durations, end != null, timeBudgetMillis);
+
+		List<GeoLocation> orderedStops = new ArrayList<>(order.length);
+		int[] stopOrder = new int[stops.size()];
+		int k = 0;
+		for (int index : order) {
+			orderedStops.add(locations.get(index));
+			if (index >= 1 && index <= stops.size()) {
+				stopOrder[k++] = index - 1;
+			}
+		}
+		return new Tour(orderedStops, stopOrder, duration(durations, order));
+	}
+
+	/**
+	 * Finds a short path through all locations of a duration matrix. Location 0
+	 * is always first; if <i>fixedEnd</i> is set, the last location of the
+	 * matrix is always last.
+	 *
+	 * @param durations        The duration matrix; element [i][j] is the duration
+	 *                         from location i to location j
+	 * @param fixedEnd         whether the last location is the fixed end
+	 * @param timeBudgetMillis The time to spend improving the tour, 0 for a single
+	 *                         local search
+	 * @return the indices of all locations in visiting order
+	 */
+	public static int[] optimize(float[][] durations, boolean fixedEnd, long timeBudgetMillis) {
+		int n = durations.length;
+		if (n <= 2 || (fixedEnd && n <= 3)) {
+			int[] trivial = new int[n];
+			Arrays.setAll(trivial, i -> i);
+			return trivial;
+		}
+
+		// flat, finite copy of the matrix
+		double[] d = new double[n * n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				float value = durations[i][j];
+				d[i * n + j] = Float.isFinite(value) ? value : UNREACHABLE;
+			}
+		}
+
+		int[] initial = cheapestInsertion(d, n, fixedEnd);
+		if (timeBudgetMillis <= 0) {
+			new LocalSearch(d, n, fixedEnd, initial).run();
+			return initial;
+		}
+
+		// iterated local search on every core, the best tour wins
+		long deadline = System.nanoTime() + timeBudgetMillis * 1_000_000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		return IntStream.range(0, threads).parallel().mapToObj(seed -> {
+			Random random = new Random(seed);
+			int[] best = initial.clone();
+			LocalSearch search = new LocalSearch(d, n, fixedEnd, best);
+			if (seed > 0) {
+				search.perturb(random);
+			}
+			double bestCost = search.run();
+			int[] candidate = new int[n];
+			while (System.nanoTime() < deadline) {
+				System.arraycopy(best, 0, candidate, 0, n);
+				LocalSearch candidateSearch = new LocalSearch(d, n, fixedEnd, candidate);
+				candidateSearch.perturb(random);
+				double cost = candidateSearch.run();
+				if (cost < bestCost - 1e-9) {
+					bestCost = cost;
+					System.arraycopy(candidate, 0, best, 0, n);
+				}
+			}
+			return new Object[] { bestCost, best };
+		}).min((a, b) -> Double.compare((Double) a[0], (Double) b[0])).map(result -> (int[]) result[1]).get();
+	}
+
+	/**
+	 * Builds a tour by repeatedly inserting the location that increases its
+	 * duration least at the position where it does so
+	 */
+	private static int[] cheapestInsertion(double[] d, int n, boolean fixedEnd) {
+		int[] tour = new int[n];
+		int size = 0;
+		tour[size++] = 0;
+		if (fixedEnd) {
+			tour[size++] = n - 1;
+		}
+		boolean[] inserted = new boolean[n];
+		inserted[0] = true;
+		inserted[n - 1] = fixedEnd;
+
+		int remaining = fixedEnd ? n - 2 : n - 1;
+		while (remaining-- > 0) {
+			double bestIncrease = Double.MAX_VALUE;
+			int bestLocation = -1;
+			int bestPosition = -1;
+			for (int k = 1; k < n; k++) {
+				if (inserted[k]) {
+					continue;
+				}
+				// between tour[p - 1] and tour[p], or appended if the end is open
+				for (int p = 1; p <= size; p++) {
+					double increase;
+					if (p < size) {
+						increase = d[tour[p - 1] * n + k] + d[k * n + tour[p]] - d[tour[p - 1] * n + tour[p]];
+					} else if (!fixedEnd) {
+						increase = d[tour[p - 1] * n + k];
+					} else {
+						continue;
+					}
+					if (increase < bestIncrease) {
+						bestIncrease = increase;
+						bestLocation = k;
+						bestPosition = p;
+					}
+				}
+			}
+			System.arraycopy(tour, bestPosition, tour, bestPosition + 1, size - bestPosition);
+			tour[bestPosition] = bestLocation;
+			inserted[bestLocation] = true;
+			size++;
+		}
+		return tour;
+	}
+
+	private static float duration(float[][] durations, int[] order) {
+		double sum = 0;
+		for (int i = 0; i + 1 < order.length; i++) {
+			sum += durations[order[i]][order[i + 1]];
+		}
+		return (float) sum;
+	}
+
+	/**
+	 * 2-opt and Or-opt on a single tour array. Segment durations in both
+	 * directions are kept as prefix sums, so every move is evaluated in constant
+	 * time even though durations are asymmetric.
+	 */
+	private static final class LocalSearch {
+
+		private final double[] d;
+		private final int n;
+		private final int[] tour;
+		// the last position that may be changed
+		private final int lastMovable;
+		private final double[] forward;
+		private final double[] backward;
+
+		private LocalSearch(double[] d, int n, boolean fixedEnd, int[] tour) {
+			this.d = d;
+			this.n = n;
+			this.tour = tour;
+			this.lastMovable = fixedEnd ? n - 2 : n - 1;
+			this.forward = new double[n];
+			this.backward = new double[n];
+		}
+
+		private double cost(int from, int to) {
+			return d[tour[from] * n + tour[to]];
+		}
+
+		private void updatePrefixSums() {
+			for (int i = 1; i < n; i++) {
+				forward[i] = forward[i - 1] + cost(i - 1, i);
+				backward[i] = backward[i - 1] + cost(i, i - 1);
+			}
+		}
+
+		/**
+		 * Applies improving moves until there are none left
+		 *
+		 * @return the duration of the resulting tour
+		 */
+		private double run() {
+			boolean improved = true;
+			while (improved) {
+				updatePrefixSums();
+				improved = twoOpt() || orOpt();
+			}
+			return forward[n - 1];
+		}
+
+		/**
+		 * Reverses the first segment tour[i..j] whose reversal shortens the tour
+		 */
+		private boolean twoOpt() {
+			for (int i = 1; i < lastMovable; i++) {
+				for (int j = i + 1; j <= lastMovable; j++) {
+					double delta = cost(i - 1, j) - cost(i - 1, i) + (backward[j] - backward[i])
+							- (forward[j] - forward[i]);
+					if (j + 1 < n) {
+						delta += cost(i, j + 1) - cost(j, j + 1);
+					}
+					if (delta < -1e-9) {
+						for (int a = i, b = j; a < b; a++, b--) {
+							int swap = tour[a];
+							tour[a] = tour[b];
+							tour[b] = swap;
+						}
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Moves the first segment of one to three stops whose relocation shortens
+		 * the tour
+		 */
+		private boolean orOpt() {
+			for (int length = 1; length <= 3; length++) {
+				for (int i = 1; i + length - 1 <= lastMovable; i++) {
+					int j = i + length - 1;
+					// duration saved by cutting tour[i..j] out
+					double removal = cost(i - 1, i);
+					if (j + 1 < n) {
+						removal += cost(j, j + 1) - cost(i - 1, j + 1);
+					}
+					// insert between tour[p] and tour[p + 1]
+					for (int p = 0; p <= lastMovable; p++) {
+						if (p >= i - 1 && p <= j) {
+							continue;
+						}
+						double insertion = d[tour[p] * n + tour[i]];
+						if (p + 1 < n) {
+							insertion += d[tour[j] * n + tour[p + 1]] - d[tour[p] * n + tour[p + 1]];
+						}
+						if (insertion - removal < -1e-9) {
+							moveSegment(i, j, p);
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		private void moveSegment(int i, int j, int p) {
+			int length = j - i + 1;
+			int[] segment = Arrays.copyOfRange(tour, i, j + 1);
+			if (p > j) {
+				System.arraycopy(tour, j + 1, tour, i, p - j);
+				System.arraycopy(segment, 0, tour, p - length + 1, length);
+			} else {
+				System.arraycopy(tour, p + 1, tour, p + 1 + length, i - p - 1);
+				System.arraycopy(segment, 0, tour, p + 1, length);
+			}
+		}
+
+		/**
+		 * Applies a random double-bridge move to escape a local optimum
+		 */
+		private void perturb(Random random) {
+			int movable = lastMovable;
+			if (movable < 4) {
+				return;
+			}
+			int[] cuts = new int[3];
+			for (int c = 0; c < 3; c++) {
+				cuts[c] = 2 + random.nextInt(movable - 1);
+			}
+			Arrays.sort(cuts);
+			if (cuts[0] == cuts[1] || cuts[1] == cuts[2]) {
+				return;
+			}
+			// 1..A-1 | A..B-1 | B..C-1 | C..  becomes  1..A-1 | B..C-1 | A..B-1 | C..
+			int a = cuts[0];
+			int b = cuts[1];
+			int c = cuts[2];
+			int[] copy = tour.clone();
+			int position = a;
+			for (int k = b; k < c; k++) {
+				tour[position++] = copy[k];
+			}
+			for (int k = a; k < b; k++) {
+				tour[position++] = copy[k];
+			}
+		}
+	}
+
+	/**
+	 * The result of a tour optimization
+	 *
+	 * @author DeBukkIt
+	 *
+	 */
+	public static class Tour {
+
+		private final List<GeoLocation> stops;
+		private final int[] order;
+		private final float duration;
+
+		private Tour(List<GeoLocation> stops, int[] order, float duration) {
+			this.stops = Collections.unmodifiableList(stops);
+			this.order = order;
+			this.duration = duration;
+		}
+
+		/**
+		 * @return all locations of the tour in visiting order, including start and
+		 *         end
+		 */
+		public List<GeoLocation> getStops() {
+			return stops;
+		}
+
+		/**
+		 * @return the indices of the stops passed to the optimizer in visiting
+		 *         order
+		 */
+		public int[] getOrder() {
+			return order.clone();
+		}
+
+		/**
+		 * @return the total duration of the tour in seconds
+		 */
+		public float getDuration() {
+			return duration;
+		}
+
+		@Override
+		public String toString() {
+			return "[" + stops.size() + " stops, " + duration + " s]";
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Contracts the road graph in graph.txt and routes on it
+ *
+ * @author DeBukkIt
+ *
+ */
+class CHRouterTest {
+
+	private static final float INF = Float.POSITIVE_INFINITY;
+	// the durations of the fastest routes between the nodes of graph.txt
+	private static final float[][] DURATIONS = {
+			{ 0, 60, 120, 100, 160, 150, INF },
+			{ 60, 0, 60, 160, 100, 90, INF },
+			{ 120, 60, 0, 100, 40, 30, INF },
+			{ 100, 160, 150, 0, 60, 120, INF },
+			{ 160, 100, 90, 60, 0, 60, INF },
+			{ 150, 90, 30, 70, 10, 0, INF },
+			{ INF, INF, INF, INF, INF, INF, 0 } };
+
+	@TempDir
+	Path directory;
+
+	private CHRouter load() throws IOException {
+		File chFile = directory.resolve("graph.ch").toFile();
+		CHRouter.prepare(Fixtures.file("graph.txt"), chFile);
+		return CHRouter.load(chFile);
+	}
+
+	private static GeoLocation node(int node) {
+		double[][] coordinates = { { 52.000, 7.600 }, { 52.000, 7.610 }, { 52.000, 7.620 }, { 52.010, 7.600 },
+				{ 52.010, 7.610 }, { 52.010, 7.620 }, { 52.050, 7.700 } };
+		return new GeoLocation(coordinates[node][0], coordinates[node][1]);
+	}
+
+	@Test
+	void routesAlongFastestPath() throws IOException {
+		CHRouter router = load();
+		assertEquals(7, router.getNodeCount());
+
+		GeoRoute route = router.route(node(0), node(5));
+		assertEquals(150f, route.getDuration());
+		assertEquals(2.5f, route.getDistance(), 1e-6f);
+		List<GeoLocation> waypoints = route.getWaypoints();
+		assertEquals(4, waypoints.size());
+		int[] path = { 0, 1, 2, 5 };
+		for (int i = 0; i < path.length; i++) {
+			assertEquals(node(path[i]).getLatitude(), waypoints.get(i).getLatitude(), 1e-6);
+			assertEquals(node(path[i]).getLongitude(), waypoints.get(i).getLongitude(), 1e-6);
+		}
+	}
+
+	@Test
+	void respectsOnewayRoads() throws IOException {
+		CHRouter router = load();
+		assertEquals(10f, router.route(node(5), node(4)).getDuration());
+		assertEquals(60f, router.route(node(4), node(5)).getDuration());
+	}
+
+	@Test
+	void snapsToNearestNode() throws IOException {
+		CHRouter router = load();
+		GeoRoute route = router.route(new GeoLocation(52.0004, 7.5997), new GeoLocation(52.0003, 7.6201));
+		assertEquals(120f, route.getDuration());
+		assertEquals(3, route.getWaypoints().size());
+	}
+
+	@Test
+	void returnsNullForUnconnectedLocations() throws IOException {
+		CHRouter router = load();
+		assertNull(router.route(node(0), node(6)));
+		// more than 5 km away from any node
+		assertNull(router.route(node(0), new GeoLocation(48.0, 11.0)));
+	}
+
+	@Test
+	void routesMatchDurationTable() throws IOException {
+		CHRouter router = load();
+		for (int from = 0; from < DURATIONS.length; from++) {
+			for (int to = 0; to < DURATIONS.length; to++) {
+				GeoRoute route = router.route(node(from), node(to));
+				if (DURATIONS[from][to] == INF) {
+					assertNull(route, from + " -> " + to);
+				} else {
+					assertNotNull(route, from + " -> " + to);
+					assertEquals(DURATIONS[from][to], route.getDuration(), from + " -> " + to);
+				}
+			}
+		}
+	}
+
+	@Test
+	void calculatesDurationsFromAndTo() throws IOException {
+		CHRouter router = load();
+		GeoLocation[] nodes = new GeoLocation[DURATIONS.length];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = node(i);
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			float[] column = new float[nodes.length];
+			for (int from = 0; from < nodes.length; from++) {
+				column[from] = DURATIONS[from][i];
+			}
+			assertArrayEquals(DURATIONS[i], router.durationsFrom(nodes[i], nodes));
+			assertArrayEquals(column, router.durationsTo(nodes[i], nodes));
+		}
+	}
+
+	@Test
+	void rejectsMalformedGraphs() throws IOException {
+		File graphFile = directory.resolve("malformed.txt").toFile();
+		Files.write(graphFile.toPath(), "N 52.0 7.6\nE 0 1 100 10\n".getBytes(StandardCharsets.UTF_8));
+		assertThrows(IOException.class, () -> CHRouter.prepare(graphFile, directory.resolve("x.ch").toFile()));
+	}
+
+}
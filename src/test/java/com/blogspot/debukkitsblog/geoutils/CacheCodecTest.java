@@ -0,0 +1,136 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Writes GeoLocations and GeoRoutes in the binary cache format and reads them
+ * back
+ *
+ * @author DeBukkIt
+ *
+ */
+class CacheCodecTest {
+
+	private static Object roundTrip(Object content) throws IOException {
+		int kind = CacheCodec.kindOf(content);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		CacheCodec.writeContent(new DataOutputStream(bytes), kind, content);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Object read = CacheCodec.readContent(in, kind);
+		assertEquals(-1, in.read(), "bytes left over");
+		return read;
+	}
+
+	private static void assertLocation(GeoLocation expected, GeoLocation actual, double delta) {
+		assertEquals(expected.getLatitude(), actual.getLatitude(), delta);
+		assertEquals(expected.getLongitude(), actual.getLongitude(), delta);
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getStreetAndNumber(), actual.getStreetAndNumber());
+		assertEquals(expected.getZipCode(), actual.getZipCode());
+		assertEquals(expected.getNeighborhood(), actual.getNeighborhood());
+		assertEquals(expected.getCity(), actual.getCity());
+		assertEquals(expected.getCounty(), actual.getCounty());
+		assertEquals(expected.getState(), actual.getState());
+		assertEquals(expected.getCountry(), actual.getCountry());
+	}
+
+	private static List<GeoLocation> line(int count) {
+		List<GeoLocation> waypoints = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			waypoints.add(new GeoLocation(51.9 + i * 0.0012345, 7.6 - i * 0.0006789));
+		}
+		return waypoints;
+	}
+
+	@Test
+	void roundTripsLocations() throws IOException {
+		GeoLocation plain = new GeoLocation(-33.8688, 151.2093);
+		assertLocation(plain, (GeoLocation) roundTrip(plain), 0);
+
+		GeoLocation address = new GeoLocation("Rathaus", 51.9617, 7.6281, "Prinzipalmarkt 10", "48143", null,
+				"Münster", null, "Nordrhein-Westfalen", "Deutschland");
+		assertLocation(address, (GeoLocation) roundTrip(address), 0);
+	}
+
+	@Test
+	void roundTripsRoutesWithPlainWaypoints() throws IOException {
+		List<GeoLocation> waypoints = line(11);
+		GeoRoute route = new GeoRoute(waypoints.get(0), waypoints.get(10), 600, 1.5f);
+		route.setWaypoints(waypoints);
+		route.setSteps(new int[] { 4, 10 }, new float[] { 500, 100 });
+
+		GeoRoute read = (GeoRoute) roundTrip(route);
+		assertEquals(600f, read.getDuration());
+		assertEquals(1.5f, read.getDistance());
+		assertLocation(route.getStart(), read.getStart(), 0);
+		assertLocation(route.getDestination(), read.getDestination(), 0);
+		assertEquals(11, read.getWaypoints().size());
+		for (int i = 0; i < waypoints.size(); i++) {
+			// plain waypoints are written as a polyline with 6 decimal places
+			assertLocation(waypoints.get(i), read.getWaypoints().get(i), 1e-6);
+		}
+		assertArrayEquals(new int[] { 4, 10 }, read.getStepEnds());
+		assertArrayEquals(new float[] { 500, 100 }, read.getStepDurations());
+		assertLocation(route.getPositionAt(250), read.getPositionAt(250), 1e-6);
+	}
+
+	@Test
+	void roundTripsRoutesWithAddressedWaypoints() throws IOException {
+		List<GeoLocation> waypoints = line(3);
+		waypoints.set(1, new GeoLocation("Stop", 51.95, 7.61, null, null, null, "Münster", null, null, null));
+		GeoRoute route = new GeoRoute(null, waypoints.get(2), 90, 0.8f);
+		route.setWaypoints(waypoints);
+		route.setSimplificationTolerance(2.5f);
+
+		GeoRoute read = (GeoRoute) roundTrip(route);
+		assertNull(read.getStart());
+		assertEquals(2.5f, read.getSimplificationTolerance());
+		for (int i = 0; i < waypoints.size(); i++) {
+			assertLocation(waypoints.get(i), read.getWaypoints().get(i), 0);
+		}
+		assertNull(read.getStepEnds());
+		assertNull(read.getStepDurations());
+	}
+
+	@Test
+	void roundTripsLegsAndUnreachableRoutes() throws IOException {
+		List<GeoLocation> waypoints = line(5);
+		GeoRoute first = new GeoRoute(waypoints.get(0), waypoints.get(2), 100, 1);
+		first.setWaypoints(waypoints.subList(0, 3));
+		GeoRoute second = new GeoRoute(waypoints.get(2), waypoints.get(4), Float.POSITIVE_INFINITY, -1);
+		List<GeoRoute> legs = new ArrayList<>();
+		legs.add(first);
+		legs.add(second);
+		GeoRoute tour = new GeoRoute(waypoints.get(0), waypoints.get(4), Float.POSITIVE_INFINITY, -1);
+		tour.setLegs(legs);
+
+		GeoRoute read = (GeoRoute) roundTrip(tour);
+		assertEquals(Float.POSITIVE_INFINITY, read.getDuration());
+		assertEquals(2, read.getLegs().size());
+		assertEquals(100f, read.getLegs().get(0).getDuration());
+		assertEquals(3, read.getLegs().get(0).getWaypoints().size());
+		assertEquals(Float.POSITIVE_INFINITY, read.getLegs().get(1).getDuration());
+		assertEquals(0, read.getLegs().get(1).getWaypoints().size());
+	}
+
+	@Test
+	void rejectsOtherContent() {
+		assertEquals(CacheCodec.UNSUPPORTED, CacheCodec.kindOf("a String"));
+		assertThrows(IOException.class, () -> CacheCodec.writeContent(new DataOutputStream(new ByteArrayOutputStream()),
+				CacheCodec.UNSUPPORTED, "a String"));
+	}
+
+}
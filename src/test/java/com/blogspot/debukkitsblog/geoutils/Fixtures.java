@@ -0,0 +1,30 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * Locates the text fixtures in src/test/resources
+ *
+ * @author DeBukkIt
+ *
+ */
+final class Fixtures {
+
+	private Fixtures() {
+	}
+
+	static File file(String name) {
+		URL url = Fixtures.class.getClassLoader().getResource(name);
+		if (url == null) {
+			throw new IllegalArgumentException("Missing fixture " + name);
+		}
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Builds a gazetteer from the addresses in gazetteer.txt and looks them up
+ *
+ * @author DeBukkIt
+ *
+ */
+class GazetteerTest {
+
+	@TempDir
+	Path directory;
+
+	private Gazetteer build() throws IOException {
+		File gazetteerFile = directory.resolve("test.gzt").toFile();
+		assertEquals(4, Gazetteer.build(Fixtures.file("gazetteer.txt"), gazetteerFile));
+		return Gazetteer.open(gazetteerFile);
+	}
+
+	@Test
+	void findsAddressByZipCode() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			assertEquals(4, gazetteer.size());
+			GeoLocation found = gazetteer.find("Prinzipalmarkt 10, 48143 Münster");
+			assertEquals(51.9625, found.getLatitude(), 1e-9);
+			assertEquals(7.6262, found.getLongitude(), 1e-9);
+			assertEquals("Prinzipalmarkt 10", found.getStreetAndNumber());
+			assertEquals("48143", found.getZipCode());
+			assertEquals("Altstadt", found.getNeighborhood());
+			assertEquals("Münster", found.getCity());
+			assertNull(found.getCounty());
+			assertEquals("Deutschland", found.getCountry());
+		}
+	}
+
+	@Test
+	void findsAddressByCityWithNormalizedStreet() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			GeoLocation found = gazetteer.find("hafenstr. 64, MÜNSTER");
+			assertEquals("Hafenstraße 64", found.getStreetAndNumber());
+		}
+	}
+
+	@Test
+	void findsAddressWithoutComma() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			assertEquals("Pariser Platz 1", gazetteer.find("Pariser Platz 1 10117 Berlin").getStreetAndNumber());
+		}
+	}
+
+	@Test
+	void matchesWholeHouseNumbersOnly() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			assertEquals("Prinzipalmarkt 1", gazetteer.find("Prinzipalmarkt 1, 48143 Münster").getStreetAndNumber());
+		}
+	}
+
+	@Test
+	void fallsBackToFirstHouseOfStreet() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			assertEquals("Prinzipalmarkt 1", gazetteer.find("Prinzipalmarkt 99, 48143 Münster").getStreetAndNumber());
+		}
+	}
+
+	@Test
+	void returnsNullForUnknownAddresses() throws IOException {
+		try (Gazetteer gazetteer = build()) {
+			assertNull(gazetteer.find("Unbekannte Straße 5, 99999 Nirgendwo"));
+			assertNull(gazetteer.find("Pariser Platz 1, 48143 Münster"));
+			assertNull(gazetteer.find("Prinzipalmarkt 1"));
+			assertNull(gazetteer.find(""));
+			assertNull(gazetteer.find(null));
+		}
+	}
+
+	@Test
+	void rejectsMalformedLines() throws IOException {
+		File textFile = directory.resolve("malformed.txt").toFile();
+		Files.write(textFile.toPath(), "51.0;7.0;Teststraße 1;12345\n".getBytes(StandardCharsets.UTF_8));
+		assertThrows(IOException.class, () -> Gazetteer.build(textFile, directory.resolve("x.gzt").toFile()));
+	}
+
+	@Test
+	void rejectsOtherFiles() throws IOException {
+		File other = directory.resolve("other.bin").toFile();
+		Files.write(other.toPath(), new byte[32]);
+		assertThrows(IOException.class, () -> Gazetteer.open(other));
+	}
+
+}
@@ -0,0 +1,122 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Computes Z-order keys, cells and geohashes of locations
+ *
+ * @author DeBukkIt
+ *
+ */
+class GeoCellTest {
+
+	@Test
+	void computesGeohashes() {
+		// the example of the Wikipedia article on geohashes
+		assertEquals("u4pruydqqvj", GeoCell.geohash(57.64911, 10.40744, 11));
+		assertEquals("u4pru", GeoCell.geohash(new GeoLocation(57.64911, 10.40744), 5));
+		assertEquals("s0000000000", GeoCell.geohash(0.0000001, 0.0000001, 11));
+		assertThrows(IllegalArgumentException.class, () -> GeoCell.geohash(0, 0, 0));
+		assertThrows(IllegalArgumentException.class, () -> GeoCell.geohash(0, 0, GeoCell.MAX_GEOHASH_LENGTH + 1));
+	}
+
+	@Test
+	void roundTripsZOrderKeys() {
+		Random random = new Random(27);
+		for (int i = 0; i < 1000; i++) {
+			double latitude = random.nextDouble() * 180 - 90;
+			double longitude = random.nextDouble() * 360 - 180;
+			long key = GeoCell.zOrder(latitude, longitude);
+			// the finest cells are about 4.2 mm high and 8.4 mm wide
+			assertEquals(latitude, GeoCell.latitudeOf(key), 180 / 4294967296.0);
+			assertEquals(longitude, GeoCell.longitudeOf(key), 360 / 4294967296.0);
+			assertEquals(key, GeoCell.zOrder(GeoCell.latitudeOf(key), GeoCell.longitudeOf(key)));
+		}
+	}
+
+	@Test
+	void geohashRangesContainTheirKeys() {
+		Random random = new Random(27);
+		for (int i = 0; i < 1000; i++) {
+			long key = GeoCell.zOrder(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+			for (int length = 1; length <= GeoCell.MAX_GEOHASH_LENGTH; length++) {
+				String geohash = GeoCell.geohash(key, length);
+				assertTrue(Long.compareUnsigned(GeoCell.rangeStart(geohash), key) <= 0, geohash);
+				assertTrue(Long.compareUnsigned(key, GeoCell.rangeEnd(geohash)) <= 0, geohash);
+			}
+		}
+		assertEquals(0L, GeoCell.rangeStart(""));
+		assertEquals(-1L, GeoCell.rangeEnd(""));
+		assertThrows(IllegalArgumentException.class, () -> GeoCell.rangeStart("u4pa"));
+	}
+
+	@Test
+	void cellRangesContainTheirKeys() {
+		long key = GeoCell.zOrder(51.9625, 7.6262);
+		for (int level = 1; level <= GeoCell.MAX_LEVEL; level++) {
+			long cell = GeoCell.cell(51.9625, 7.6262, level);
+			assertTrue(Long.compareUnsigned(GeoCell.rangeStart(cell, level), key) <= 0);
+			assertTrue(Long.compareUnsigned(key, GeoCell.rangeEnd(cell, level)) <= 0);
+			if (level > 1) {
+				assertEquals(GeoCell.cell(51.9625, 7.6262, level - 1), GeoCell.parent(cell, level));
+			}
+		}
+		assertThrows(IllegalArgumentException.class, () -> GeoCell.parent(1, 1));
+	}
+
+	@Test
+	void findsNeighborsAcrossTheAntimeridian() {
+		int level = 10;
+		long west = GeoCell.cell(10, 179.9, level);
+		long east = GeoCell.cell(10, -179.9, level);
+		assertEquals(east, GeoCell.neighbor(west, level, 0, 1));
+		assertEquals(west, GeoCell.neighbor(east, level, 0, -1));
+
+		long cell = GeoCell.cell(51.9625, 7.6262, level);
+		assertEquals(GeoCell.cell(51.9625 + 180.0 / (1 << level), 7.6262, level), GeoCell.neighbor(cell, level, 1, 0));
+		assertEquals(GeoCell.cell(51.9625, 7.6262 - 3 * 360.0 / (1 << level), level),
+				GeoCell.neighbor(cell, level, 0, -3));
+		assertEquals(cell, GeoCell.neighbor(GeoCell.neighbor(cell, level, 2, -5), level, -2, 5));
+	}
+
+	@Test
+	void findsEightDistinctNeighbors() {
+		int level = 12;
+		long cell = GeoCell.cell(51.9625, 7.6262, level);
+		long[] neighbors = new long[10];
+		assertEquals(8, GeoCell.neighbors(cell, level, neighbors, 2));
+		Set<Long> distinct = new HashSet<>();
+		for (int i = 2; i < 10; i++) {
+			distinct.add(neighbors[i]);
+		}
+		distinct.add(cell);
+		assertEquals(9, distinct.size());
+		assertEquals(GeoCell.neighbor(cell, level, -1, -1), neighbors[2]);
+		assertEquals(GeoCell.neighbor(cell, level, 1, 1), neighbors[9]);
+	}
+
+	@Test
+	void choosesLevelsCoveringTheDistance() {
+		for (double meters : new double[] { 1, 50, 1000, 25_000 }) {
+			for (double latitude : new double[] { 0, 51.9625, -70 }) {
+				int level = GeoCell.levelFor(meters, latitude);
+				double height = 20_003_931.0 / (1L << level);
+				double width = 40_075_017.0 * Math.cos(Math.toRadians(latitude)) / (1L << level);
+				assertTrue(height >= meters && width >= meters, meters + " m at " + latitude);
+				// one level finer would be too small
+				assertTrue(height / 2 < meters || width / 2 < meters, meters + " m at " + latitude);
+			}
+		}
+		assertEquals(1, GeoCell.levelFor(1e9, 0));
+		assertEquals(GeoCell.MAX_LEVEL, GeoCell.levelFor(1e-6, 0));
+	}
+
+}
@@ -0,0 +1,148 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.blogspot.debukkitsblog.geoutils.GeoCache.CacheElement;
+
+/**
+ * Stores GeoLocations in a memory-mapped store, reopening it with and without
+ * closing it first
+ *
+ * @author DeBukkIt
+ *
+ */
+class MappedCacheStoreTest {
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	@TempDir
+	Path directory;
+
+	private File file() {
+		return directory.resolve("cache.map").toFile();
+	}
+
+	private static CacheElement element(int i) {
+		return new CacheElement(new GeoLocation(50 + i * 0.001, 7 + i * 0.001));
+	}
+
+	private static void assertElement(int i, CacheElement element) {
+		GeoLocation location = (GeoLocation) element.getContent();
+		assertEquals(50 + i * 0.001, location.getLatitude());
+		assertEquals(7 + i * 0.001, location.getLongitude());
+	}
+
+	private static void fill(MappedCacheStore store, int count) throws IOException {
+		for (int i = 0; i < count; i++) {
+			store.put("key" + i, element(i), DAY);
+		}
+	}
+
+	@Test
+	void storesAndDeletesElements() throws IOException {
+		try (MappedCacheStore store = new MappedCacheStore(file(), 16)) {
+			// grows beyond the expected number of elements
+			fill(store, 5000);
+			assertEquals(5000, store.size());
+			for (int i = 0; i < 5000; i++) {
+				assertElement(i, store.get("key" + i));
+			}
+			assertNull(store.get("missing"));
+
+			store.put("key7", element(8), DAY);
+			assertElement(8, store.get("key7"));
+			assertEquals(5000, store.size());
+
+			assertTrue(store.delete("key9"));
+			assertFalse(store.delete("key9"));
+			assertNull(store.get("key9"));
+			assertEquals(4999, store.size());
+		}
+	}
+
+	@Test
+	void expiresElements() throws IOException {
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			store.put("old", new CacheElement(new GeoLocation(50, 7), System.currentTimeMillis() - 2 * DAY), DAY);
+			store.put("forever", element(1), Long.MAX_VALUE);
+			assertNull(store.get("old"));
+			assertElement(1, store.get("forever"));
+			Map<String, CacheElement> found = new HashMap<>();
+			store.forEach(found::put);
+			assertEquals(1, found.size());
+			assertTrue(found.containsKey("forever"));
+		}
+	}
+
+	@Test
+	void keepsElementsAfterClose() throws IOException {
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			fill(store, 100);
+			store.delete("key3");
+		}
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			assertEquals(99, store.size());
+			assertElement(42, store.get("key42"));
+			assertNull(store.get("key3"));
+		}
+	}
+
+	@Test
+	void rebuildsTableIfNotClosed() throws IOException {
+		MappedCacheStore crashed = new MappedCacheStore(file());
+		fill(crashed, 100);
+		crashed.delete("key3");
+		crashed.flush();
+		// never closed, as if the process had died
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			assertEquals(99, store.size());
+			assertElement(42, store.get("key42"));
+			assertNull(store.get("key3"));
+		}
+	}
+
+	@Test
+	void compactsIntoNextGeneration() throws IOException {
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			fill(store, 1000);
+			for (int i = 0; i < 1000; i += 2) {
+				store.delete("key" + i);
+			}
+			long logSize = store.getLogSize();
+			store.compact();
+			assertTrue(store.getLogSize() < logSize / 2);
+			assertEquals(500, store.size());
+			for (int i = 0; i < 1000; i++) {
+				if (i % 2 == 0) {
+					assertNull(store.get("key" + i));
+				} else {
+					assertElement(i, store.get("key" + i));
+				}
+			}
+			store.put("new", element(1), DAY);
+		}
+		String[] files = directory.toFile().list();
+		Arrays.sort(files);
+		assertArrayEquals(new String[] { "cache.map", "cache.map.data.1" }, files);
+		try (MappedCacheStore store = new MappedCacheStore(file())) {
+			assertEquals(501, store.size());
+			assertElement(1, store.get("new"));
+			assertElement(999, store.get("key999"));
+		}
+	}
+
+}
@@ -0,0 +1,124 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests locations against boxes and polygons, comparing the grid with a plain
+ * even-odd test
+ *
+ * @author DeBukkIt
+ *
+ */
+class PlausibilityRegionTest {
+
+	// a concave, comb-shaped polygon around Münster, {latitude, longitude}
+	private static final double[][] COMB = { { 51.80, 7.40 }, { 51.80, 7.90 }, { 52.10, 7.90 }, { 52.10, 7.80 },
+			{ 51.90, 7.75 }, { 52.10, 7.70 }, { 52.10, 7.60 }, { 51.95, 7.55 }, { 52.10, 7.50 }, { 52.10, 7.40 } };
+
+	private static List<GeoLocation> ring(double[][] vertices) {
+		List<GeoLocation> ring = new ArrayList<>();
+		for (double[] vertex : vertices) {
+			ring.add(new GeoLocation(vertex[0], vertex[1]));
+		}
+		return ring;
+	}
+
+	/**
+	 * @return whether the location lies inside the polygon by counting the edges
+	 *         a ray eastwards crosses
+	 */
+	private static boolean evenOdd(double[][] vertices, double latitude, double longitude) {
+		boolean inside = false;
+		for (int i = 0, j = vertices.length - 1; i < vertices.length; j = i++) {
+			double y1 = vertices[i][0];
+			double x1 = vertices[i][1];
+			double y2 = vertices[j][0];
+			double x2 = vertices[j][1];
+			if ((y1 > latitude) != (y2 > latitude)
+					&& longitude < x1 + (latitude - y1) * (x2 - x1) / (y2 - y1)) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	@Test
+	void containsLocationsInsideBox() {
+		PlausibilityRegion region = PlausibilityRegion.ofBoundingBox(47.2, 5.8, 55.1, 15.1);
+		assertEquals(47.2, region.getSouth());
+		assertEquals(5.8, region.getWest());
+		assertEquals(55.1, region.getNorth());
+		assertEquals(15.1, region.getEast());
+		assertTrue(region.contains(new GeoLocation(51.9625, 7.6262)));
+		assertFalse(region.contains(new GeoLocation(-51.9625, 7.6262)));
+		assertFalse(region.contains(new GeoLocation(51.9625, -7.6262)));
+		assertFalse(region.contains(null));
+		assertFalse(region.contains(Double.NaN, 7.6262));
+	}
+
+	@Test
+	void decidesBordersAsIfMovedNorthEast() {
+		PlausibilityRegion region = PlausibilityRegion.ofBoundingBox(50, 7, 52, 9);
+		// the south-west corner and the southern and western edges belong to it
+		assertTrue(region.contains(50, 7));
+		assertTrue(region.contains(50, 8));
+		assertTrue(region.contains(51, 7));
+		// the northern and eastern edges do not
+		assertFalse(region.contains(52, 8));
+		assertFalse(region.contains(51, 9));
+		assertFalse(region.contains(52, 9));
+		assertFalse(region.contains(50, 9));
+		assertFalse(region.contains(52, 7));
+	}
+
+	@Test
+	void matchesEvenOddTestOnConcavePolygon() {
+		PlausibilityRegion region = PlausibilityRegion.ofPolygon(ring(COMB));
+		assertEquals(51.80, region.getSouth());
+		assertEquals(7.40, region.getWest());
+		assertEquals(52.10, region.getNorth());
+		assertEquals(7.90, region.getEast());
+		// in the notches of the comb
+		assertFalse(region.contains(52.05, 7.75));
+		assertFalse(region.contains(52.05, 7.55));
+		assertTrue(region.contains(52.05, 7.65));
+
+		Random random = new Random(27);
+		for (int i = 0; i < 100_000; i++) {
+			double latitude = 51.75 + random.nextDouble() * 0.4;
+			double longitude = 7.35 + random.nextDouble() * 0.6;
+			assertEquals(evenOdd(COMB, latitude, longitude), region.contains(latitude, longitude),
+					latitude + ", " + longitude);
+		}
+	}
+
+	@Test
+	void acceptsClosedRings() {
+		List<GeoLocation> closed = ring(COMB);
+		closed.add(closed.get(0));
+		PlausibilityRegion region = PlausibilityRegion.ofPolygon(closed);
+		Random random = new Random(27);
+		for (int i = 0; i < 10_000; i++) {
+			double latitude = 51.75 + random.nextDouble() * 0.4;
+			double longitude = 7.35 + random.nextDouble() * 0.6;
+			assertEquals(evenOdd(COMB, latitude, longitude), region.contains(latitude, longitude));
+		}
+	}
+
+	@Test
+	void rejectsDegenerateRegions() {
+		assertThrows(IllegalArgumentException.class, () -> PlausibilityRegion.ofBoundingBox(50, 7, 50, 9));
+		assertThrows(IllegalArgumentException.class,
+				() -> PlausibilityRegion.ofPolygon(ring(new double[][] { { 50, 7 }, { 51, 8 } })));
+	}
+
+}
@@ -0,0 +1,77 @@
+package com.blogspot.debukkitsblog.geoutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Encodes and decodes polylines, starting with the example of Google's
+ * documentation of the format
+ *
+ * @author DeBukkIt
+ *
+ */
+class PolylineTest {
+
+	private static final String ENCODED = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+	private static final double[] LATITUDES = { 38.5, 40.7, 43.252 };
+	private static final double[] LONGITUDES = { -120.2, -120.95, -126.453 };
+
+	@Test
+	void encodesGoogleExample() {
+		assertEquals(ENCODED, Polyline.encode(LATITUDES, LONGITUDES, 3, Polyline.PRECISION_5));
+	}
+
+	@Test
+	void decodesGoogleExample() {
+		assertEquals(3, Polyline.count(ENCODED));
+		double[] latitudes = new double[4];
+		double[] longitudes = new double[4];
+		assertEquals(3, Polyline.decode(ENCODED, Polyline.PRECISION_5, latitudes, longitudes, 1));
+		assertArrayEquals(new double[] { 0, 38.5, 40.7, 43.252 }, latitudes, 1e-9);
+		assertArrayEquals(new double[] { 0, -120.2, -120.95, -126.453 }, longitudes, 1e-9);
+	}
+
+	@Test
+	void roundTripsWithSixDecimalPlaces() {
+		double[] latitudes = { 51.962500, 51.962501, -33.868800, 89.999999 };
+		double[] longitudes = { 7.626200, 7.626199, 151.209300, -179.999999 };
+		String encoded = Polyline.encode(latitudes, longitudes, 4, Polyline.PRECISION_6);
+		assertEquals(4, Polyline.count(encoded));
+		double[] decodedLatitudes = new double[4];
+		double[] decodedLongitudes = new double[4];
+		assertEquals(4, Polyline.decode(encoded, Polyline.PRECISION_6, decodedLatitudes, decodedLongitudes, 0));
+		assertArrayEquals(latitudes, decodedLatitudes, 1e-9);
+		assertArrayEquals(longitudes, decodedLongitudes, 1e-9);
+	}
+
+	@Test
+	void handlesEmptyPolylines() {
+		assertEquals("", Polyline.encode(new double[0], new double[0], 0, Polyline.PRECISION_5));
+		assertEquals(0, Polyline.count(""));
+		assertEquals(0, Polyline.decode("", Polyline.PRECISION_5, new double[0], new double[0], 0));
+	}
+
+	@Test
+	void rejectsTruncatedPolylines() {
+		double[] latitudes = new double[3];
+		double[] longitudes = new double[3];
+		// the longitude of the last point is missing
+		assertThrows(IllegalArgumentException.class, () -> Polyline.decode(ENCODED.substring(0, 21),
+				Polyline.PRECISION_5, latitudes, longitudes, 0));
+		// the last chunk of a value is missing
+		assertThrows(IllegalArgumentException.class, () -> Polyline.decode(ENCODED.substring(0, ENCODED.length() - 1),
+				Polyline.PRECISION_5, latitudes, longitudes, 0));
+	}
+
+	@Test
+	void rejectsTooSmallArrays() {
+		assertThrows(IllegalArgumentException.class,
+				() -> Polyline.decode(ENCODED, Polyline.PRECISION_5, new double[2], new double[3], 0));
+		assertThrows(IllegalArgumentException.class,
+				() -> Polyline.decode(ENCODED, Polyline.PRECISION_5, new double[3], new double[3], 1));
+	}
+
+}